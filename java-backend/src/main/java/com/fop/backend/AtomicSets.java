@@ -0,0 +1,216 @@
+package com.fop.backend;
+
+import java.util.Arrays;
+import java.util.Random;
+
+// Atomic sets of a feature model: the classes of features that are selected in exactly the same valid
+// configurations. A mandatory child is in the set of its parent, core features in the set of the root
+// and all dead features in one set. Analyses can treat every set as one variable, see Cnf.collapse().
+//
+// compute() finds the sets exactly, by refinement. Every solution splits the current classes by the
+// value each feature has in it, and random phases make solutions that split many at once. A feature
+// still in the class of an earlier feature is equivalent to it when unit propagation leads from each
+// to the other, otherwise two queries on the model's solver let the two take different values; a
+// solution to either splits the classes again. ofTree() only merges what the tree and propagation show
+// right away, which is most of it and takes no search; the d-DNNF is compiled over those. Sets are
+// numbered by their first feature, so set 0 holds the root.
+public final class AtomicSets {
+
+    private final int[] set;
+    private final int count;
+
+    private AtomicSets(int[] set, int count) {
+        this.set = set;
+        this.count = count;
+    }
+
+    public int getFeatureCount() {
+        return set.length;
+    }
+
+    public int getSetCount() {
+        return count;
+    }
+
+    public int getSet(int feature) {
+        return set[feature];
+    }
+
+    // Features of a set, in id order
+    public int[] getMembers(int index) {
+        int size = 0;
+        for (int s : set) {
+            if (s == index) {
+                size++;
+            }
+        }
+        int[] members = new int[size];
+        size = 0;
+        for (int f = 0; f < set.length; f++) {
+            if (set[f] == index) {
+                members[size++] = f;
+            }
+        }
+        return members;
+    }
+
+    // A feature literal (Cnf.literal) as the literal of its set
+    public int toSetLiteral(int literal) {
+        int s = set[Math.abs(literal) - 1] + 1;
+        return literal > 0 ? s : -s;
+    }
+
+    public static AtomicSets compute(FeatureModel model) {
+        int features = model.size();
+        SatSolver solver = model.getSolver();
+        synchronized (solver) {
+            if (!solver.solve()) {
+                // Without configurations every feature stays on its own
+                int[] own = new int[features];
+                for (int f = 0; f < features; f++) {
+                    own[f] = f;
+                }
+                return new AtomicSets(own, features);
+            }
+            int[] classOf = new int[features];
+            // First feature of every class so far, indexed by class
+            int[] first = new int[features];
+            int classes = split(solver, classOf, first, 1);
+            Random random = new Random(features);
+            for (int f = 1; f < features; f++) {
+                while (first[classOf[f]] != f) {
+                    int earlier = first[classOf[f]];
+                    if (implies(solver, Cnf.literal(earlier, true), f) && implies(solver, Cnf.literal(f, true), earlier)) {
+                        break;
+                    }
+                    // Random phases make solutions that split many classes at once
+                    for (int g = f; g < features; g++) {
+                        solver.setPhase(Cnf.literal(g, random.nextBoolean()));
+                    }
+                    if (solver.solve(Cnf.literal(earlier, true), Cnf.literal(f, false))
+                            || solver.solve(Cnf.literal(earlier, false), Cnf.literal(f, true))) {
+                        classes = split(solver, classOf, first, classes);
+                    } else {
+                        break;
+                    }
+                }
+            }
+            // Renumbered by first feature
+            int[] number = new int[classes];
+            Arrays.fill(number, -1);
+            int[] set = new int[features];
+            int count = 0;
+            for (int f = 0; f < features; f++) {
+                if (number[classOf[f]] < 0) {
+                    number[classOf[f]] = count++;
+                }
+                set[f] = number[classOf[f]];
+            }
+            return new AtomicSets(set, count);
+        }
+    }
+
+    // The sets as far as the tree shows them: a mandatory child and the only child of a group go with
+    // their parent, features that propagation from nothing selects go with the root and the ones it
+    // rules out together. Each of these sets lies within one atomic set. It takes no search, so it is
+    // cheap enough to do before every compilation.
+    public static AtomicSets ofTree(FeatureModel model) {
+        int features = model.size();
+        int[] parent = new int[features];
+        for (int f = 0; f < features; f++) {
+            parent[f] = f;
+        }
+        int[] fixed;
+        SatSolver solver = model.getSolver();
+        synchronized (solver) {
+            fixed = solver.propagateAssumptions();
+        }
+        if (fixed == null) {
+            return numbered(parent);
+        }
+        int dead = -1;
+        for (int literal : fixed) {
+            int f = Math.abs(literal) - 1;
+            if (f >= features) {
+                continue;
+            }
+            if (literal > 0) {
+                union(parent, 0, f);
+            } else {
+                dead = dead < 0 ? f : union(parent, dead, f);
+            }
+        }
+        for (int f = 1; f < features; f++) {
+            int up = model.getParent(f);
+            boolean mandatory = model.isMandatory(f) && model.getGroupType(up) == FeatureModel.GROUP_AND;
+            if (mandatory || model.getGroupType(up) != FeatureModel.GROUP_AND && model.getChildCount(up) == 1) {
+                union(parent, up, f);
+            }
+        }
+        return numbered(parent);
+    }
+
+    // Joins the classes of a and b under the smaller of their first features, returns that one
+    private static int union(int[] parent, int a, int b) {
+        int x = find(parent, a);
+        int y = find(parent, b);
+        parent[Math.max(x, y)] = Math.min(x, y);
+        return Math.min(x, y);
+    }
+
+    private static int find(int[] parent, int f) {
+        while (parent[f] != f) {
+            parent[f] = parent[parent[f]];
+            f = parent[f];
+        }
+        return f;
+    }
+
+    private static AtomicSets numbered(int[] parent) {
+        int[] set = new int[parent.length];
+        int count = 0;
+        for (int f = 0; f < parent.length; f++) {
+            int root = find(parent, f);
+            set[f] = root == f ? count++ : set[root];
+        }
+        return new AtomicSets(set, count);
+    }
+
+    // Whether unit propagation of the literal alone selects the feature
+    private static boolean implies(SatSolver solver, int literal, int feature) {
+        int[] implied = solver.propagateAssumptions(literal);
+        if (implied == null) {
+            return false;
+        }
+        for (int other : implied) {
+            if (other == feature + 1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Splits every class by the values of the last solution, the part with a different value than the
+    // first feature of the class becomes a new class
+    private static int split(SatSolver solver, int[] classOf, int[] first, int classes) {
+        int features = classOf.length;
+        boolean[] firstValue = new boolean[classes];
+        for (int c = 0; c < classes; c++) {
+            firstValue[c] = solver.getModelValue(first[c] + 1);
+        }
+        int[] moved = new int[classes];
+        Arrays.fill(moved, -1);
+        int result = classes;
+        for (int f = 0; f < features; f++) {
+            int c = classOf[f];
+            if (solver.getModelValue(f + 1) != firstValue[c]) {
+                if (moved[c] < 0) {
+                    moved[c] = result;
+                    first[result++] = f;
+                }
+                classOf[f] = moved[c];
+            }
+        }
+        return result;
+    }
+}
@@ -1,54 +1,255 @@
 package com.fop.backend;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
 public class BackendMain {
 
     public static void main(String[] args) {
-        if (args.length == 0) {
-            System.out.println("No command given.");
+        if (args.length > 0 && args[0].equals("serve")) {
+            // Long-lived mode: line-delimited JSON requests on stdin, responses on stdout
+            new BackendServer(System.in, System.out).serve();
+            return;
+        }
+        if (args.length > 0 && args[0].equals("worker")) {
+            // Composition worker started by a WorkerPool, talks to its coordinator over stdin/stdout
+            new CompositionWorker(System.in, System.out).serve();
             return;
         }
+        // Results go to the stream handed to execute, FeatureHouse prints to System.out. Redirecting that
+        // once per process keeps it out of the result without builds swapping global state under each other.
+        PrintStream stdout = System.out;
+        System.setOut(System.err);
+        try {
+            execute(args, stdout, null);
+        } catch (StackOverflowError e) {
+            // Model commands run on a large stack already, this is what is left to DOM based ones
+            stdout.println("{\"status\":\"error\",\"message\":\"Model too deeply nested\"}");
+        }
+    }
 
+    // Runs a single command and writes its result to out, shared by the CLI and the serve mode.
+    // Progress events go to eventSink when given, otherwise commands asked for events print them to out.
+    // Returns false when the command did not run at all, out then holds why (usage, unknown command).
+    static boolean execute(String[] args, PrintStream out, Consumer<String> eventSink) {
+        try {
+            if (args.length == 0) {
+                throw new UsageException("No command given.");
+            }
+            dispatch(args, out, eventSink);
+            return true;
+        } catch (UsageException e) {
+            out.println(e.getMessage());
+            return false;
+        }
+    }
+
+    private static void dispatch(String[] args, PrintStream out, Consumer<String> eventSink) {
         String command = args[0];
 
         switch (command) {
             case "loadModel":
                 if (args.length < 2) {
-                    System.out.println("Missing model path.");
-                    return;
+                    throw new UsageException("Missing model path.");
+                }
+                // Large models are streamed to out instead of being built as one string first
+                streamModel(out, args[1], writer -> ModelHandler.loadModel(args[1], writer));
+                break;
+
+            case "loadCnf":
+                if (args.length < 2) {
+                    throw new UsageException("Missing model path.");
+                }
+                streamModel(out, args[1], writer -> ModelHandler.loadCnf(args[1], writer));
+                break;
+
+            case "compileBdd":
+                if (args.length < 2) {
+                    throw new UsageException("Missing model path.");
+                }
+                streamModel(out, args[1], writer -> ModelHandler.compileBdd(args[1], writer));
+                break;
+
+            case "countConfigurations": {
+                if (args.length < 2) {
+                    throw new UsageException("usage: countConfigurations <modelFile> [selectionJson]");
+                }
+                String selection = args.length > 2 ? args[2] : null;
+                streamModel(out, args[1], writer -> ModelHandler.countConfigurations(args[1], selection, writer));
+                break;
+            }
+
+            case "checkConfiguration": {
+                if (args.length < 2) {
+                    throw new UsageException("usage: checkConfiguration <modelFile> [selectionJson]");
+                }
+                String selection = args.length > 2 ? args[2] : null;
+                streamModel(out, args[1], writer -> ModelHandler.checkConfiguration(args[1], selection, writer));
+                break;
+            }
+
+            case "analyzeModel":
+                if (args.length < 2) {
+                    throw new UsageException("usage: analyzeModel <modelFile>");
+                }
+                streamModel(out, args[1], writer -> ModelHandler.analyzeModel(args[1], writer));
+                break;
+
+            case "sampleConfigurations": {
+                if (args.length < 3) {
+                    throw new UsageException("usage: sampleConfigurations <modelFile> <outputFolder> [--t N]");
+                }
+                int t = flag(args, "--t", Integer::valueOf, 2);
+                streamModel(out, args[1], writer -> ModelHandler.sampleConfigurations(args[1], args[2], t, writer));
+                break;
+            }
+
+            case "sampleUniform": {
+                if (args.length < 2) {
+                    throw new UsageException("usage: sampleUniform <modelFile> [--n N] [--seed S] [--output folder]");
                 }
-                String modelPath = args[1];
-                String modelJson = ModelHandler.loadModel(modelPath);
-                System.out.println(modelJson);
+                int n = flag(args, "--n", Integer::valueOf, 100);
+                // Without a seed every run differs, the seed used is reported to repeat it
+                long seed = flag(args, "--seed", Long::valueOf, System.nanoTime());
+                String folder = flagValue(args, "--output");
+                streamModel(out, args[1], writer -> ModelHandler.sampleUniform(args[1], n, seed, folder, writer));
                 break;
+            }
+
+            case "enumerateConfigurations": {
+                if (args.length < 2) {
+                    throw new UsageException("usage: enumerateConfigurations <modelFile> [--from I] [--to J] [--output folder]");
+                }
+                BigInteger from = flag(args, "--from", BigInteger::new, BigInteger.ZERO);
+                BigInteger to = flag(args, "--to", BigInteger::new, null);
+                String folder = flagValue(args, "--output");
+                streamModel(out, args[1], writer -> ModelHandler.enumerateConfigurations(args[1], from, to, folder, writer));
+                break;
+            }
 
             case "saveModel":
                 if (args.length < 3) {
-                    System.out.println("Missing model path or data.");
-                    return;
+                    throw new UsageException("Missing model path or data.");
                 }
                 String savePath = args[1];
                 String jsonData = args[2];
+                // The file gets rewritten as a whole: pending edits go first and the open copy is dropped
+                ModelStore.invalidate(savePath);
                 String saveResult = ModelHandler.saveModel(savePath, jsonData);
-                System.out.println(saveResult);
+                out.println(saveResult);
+                break;
+
+            case "applyModelEdits":
+                if (args.length < 3) {
+                    throw new UsageException("usage: applyModelEdits <modelFile> <editsJson>");
+                }
+                out.println(ModelStore.applyEdits(args[1], args[2]));
                 break;
 
             case "buildVariant":
                 if (args.length < 4) {
-                    System.out.println(
+                    throw new UsageException(
                             "usage: buildVariant " +
-                                    "<configFile> <featuresFolder> <outputFolder>");
-                    return;
+                                    "<configFile> <featuresFolder> <outputFolder> [--events]");
                 }
                 String configFilePath = args[1];
                 String featuresFolderPath = args[2];
                 String outputFolderPath = args[3];
-                String result = FeatureHouseInvoker.buildVariant(
-                        configFilePath, featuresFolderPath, outputFolderPath);
-                System.out.println(result);
+                boolean withEvents = hasFlag(args, "--events");
+                BuildEvents events = BuildEvents.NONE;
+                if (withEvents) {
+                    events = new BuildEvents(eventSink != null ? eventSink : out::println);
+                }
+                // With events on stdout the result is their last line, it is one JSON object either way
+                out.println(FeatureHouseInvoker.buildVariant(
+                        configFilePath, featuresFolderPath, outputFolderPath, events));
+                break;
+
+            case "buildVariants":
+                if (args.length < 4) {
+                    throw new UsageException(
+                            "usage: buildVariants " +
+                                    "<configsFolder|manifest> <featuresFolder> <outputRoot> [--parallel N] [--events]");
+                }
+                boolean batchEvents = hasFlag(args, "--events");
+                BuildEvents batchSink = BuildEvents.NONE;
+                if (batchEvents) {
+                    batchSink = new BuildEvents(eventSink != null ? eventSink : out::println);
+                }
+                int parallelism = flag(args, "--parallel", Integer::valueOf, FeatureHousePool.defaultParallelism());
+                out.println(FeatureHouseInvoker.buildVariants(args[1], args[2], args[3], parallelism, batchSink));
                 break;
 
             default:
-                System.out.println("Unknown command: " + command);
+                throw new UsageException("Unknown command: " + command);
+        }
+    }
+
+    // The parsed value of a "--name value" flag, fallback when it is not given
+    private static <T> T flag(String[] args, String flag, Function<String, T> parser, T fallback) {
+        String value = flagValue(args, flag);
+        if (value == null) {
+            return fallback;
+        }
+        try {
+            return parser.apply(value);
+        } catch (NumberFormatException e) {
+            throw new UsageException("Invalid " + flag + " value: " + value);
+        }
+    }
+
+    private static String flagValue(String[] args, String flag) {
+        for (int i = 0; i < args.length - 1; i++) {
+            if (args[i].equals(flag)) {
+                return args[i + 1];
+            }
+        }
+        return null;
+    }
+
+    private interface JsonOutput {
+        void writeTo(Writer writer) throws IOException;
+    }
+
+    // Model commands read the file, so edits still waiting to be written go first
+    private static void streamModel(PrintStream out, String modelPath, JsonOutput output) {
+        ModelStore.flush(modelPath);
+        stream(out, output);
+    }
+
+    private static void stream(PrintStream out, JsonOutput output) {
+        try {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            output.writeTo(writer);
+            writer.write(System.lineSeparator());
+            writer.flush();
+        } catch (IOException e) {
+            out.println("{\"status\":\"error\",\"message\":\"" + ModelHandler.escapeJson(e.getMessage()) + "\"}");
+        }
+    }
+
+    private static boolean hasFlag(String[] args, String flag) {
+        for (String arg : args) {
+            if (arg.equals(flag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // A command that cannot run as given, its message is all the output
+    private static class UsageException extends IllegalArgumentException {
+        private static final long serialVersionUID = 1L;
+
+        UsageException(String message) {
+            super(message);
         }
     }
 }
@@ -0,0 +1,315 @@
+package com.fop.backend;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Serves backend commands over line-delimited JSON so one JVM can handle a whole editing session.
+//
+// Requests run concurrently on a bounded pool, so responses may arrive in a different order than
+// the requests; clients correlate them through the id.
+//
+// Request:  {"id":1,"command":"loadModel","args":["/path/model.xml"]}
+// Response: {"id":1,"result":{...},"status":"ok"} or {"id":1,"status":"error","message":"..."}
+// Cancel:   {"id":2,"command":"cancel","target":1} answers request 1 with {"id":1,"status":"cancelled"}
+//           The work is interrupted. A composition only stops in worker mode (-Dfop.composer=worker,
+//           which the extension starts the daemon with) by killing its worker; in-process FeatureHouse
+//           runs on until it is done and then merely skips writing the variant.
+// Event:    {"id":1,"event":"phaseStarted",...} zero or more progress lines before the response
+//
+// A command's output is collected and sent as one line once the command is done. JSON goes into
+// "result" as it is, without escaping it; other output becomes a JSON string. Usage messages and
+// unknown commands are error responses, and so is a command that fails, whatever it had written is
+// dropped. Only the writer thread touches the channel, so neither the reader nor a worker ever
+// waits for another request's response to go out. Large enumerations and samples are best paged
+// with --from/--to or written to a folder with --output.
+public class BackendServer {
+
+    private static final int QUEUE_CAPACITY = 256;
+    // Tells the writer thread that no more lines follow
+    private static final byte[] END = new byte[0];
+
+    private final InputStream in;
+    private final OutputStream out;
+    // Complete lines waiting for the writer thread
+    private final BlockingQueue<byte[]> outbox = new LinkedBlockingQueue<>();
+    private final ThreadPoolExecutor executor;
+    private final Map<String, Running> running = new ConcurrentHashMap<>();
+
+    public BackendServer(InputStream in, OutputStream out) {
+        this(in, out, Integer.getInteger("fop.server.threads", Runtime.getRuntime().availableProcessors()));
+    }
+
+    public BackendServer(InputStream in, OutputStream out, int threads) {
+        this.in = in;
+        this.out = new BufferedOutputStream(out);
+        int poolSize = Math.max(1, threads);
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(QUEUE_CAPACITY), runnable -> {
+                    Thread thread = new Thread(runnable, "fop-backend-worker");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    public void serve() {
+        // FeatureHouse and friends print to System.out, keep that away from the protocol channel
+        System.setOut(System.err);
+        // Model edits are collected in memory and written shortly after, instead of once per request
+        ModelStore.setWriteBehind(true);
+
+        Thread writer = new Thread(this::drain, "fop-backend-writer");
+        writer.setDaemon(true);
+        writer.start();
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                if (!handle(line)) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Backend server stopped: " + e.getMessage());
+        }
+
+        // Let in-flight requests finish and their responses go out before the process goes away
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            outbox.add(END);
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        ModelStore.flushAll();
+    }
+
+    // Returns false when the client asked the server to shut down
+    private boolean handle(String line) {
+        Request request;
+        try {
+            request = Request.parse(line);
+        } catch (IOException e) {
+            respondError(null, e.getMessage());
+            return true;
+        }
+
+        if (request.command == null) {
+            respondError(request.id, "Missing command");
+            return true;
+        }
+        switch (request.command) {
+            case "shutdown":
+                respond(request.id, "");
+                return false;
+            case "cancel":
+                cancel(request);
+                return true;
+            default:
+                submit(request);
+                return true;
+        }
+    }
+
+    private void submit(Request request) {
+        if (running.containsKey(request.id)) {
+            respondError(request.id, "Request id already in use: " + request.id);
+            return;
+        }
+
+        Running entry = new Running();
+        running.put(request.id, entry);
+        try {
+            entry.future = executor.submit(() -> {
+                Runnable response;
+                try {
+                    ByteArrayOutputStream result = new ByteArrayOutputStream();
+                    if (run(request, result)) {
+                        response = () -> respond(request.id, result.toByteArray());
+                    } else {
+                        response = () -> respondError(request.id, result.toString(StandardCharsets.UTF_8).trim());
+                    }
+                } catch (Throwable e) {
+                    // Errors as well, a StackOverflowError must not leave the request unanswered
+                    response = () -> respondError(request.id, e.getClass().getName() + ": " + e.getMessage());
+                }
+                finish(request.id, entry, response);
+            });
+        } catch (RejectedExecutionException e) {
+            finish(request.id, entry, () -> respondError(request.id, "Backend is busy, too many queued requests"));
+        }
+    }
+
+    private void cancel(Request request) {
+        if (request.target == null) {
+            respondError(request.id, "Missing cancel target");
+            return;
+        }
+        Running entry = running.get(request.target);
+        if (entry == null || entry.future == null) {
+            respondError(request.id, "No running request with id " + request.target);
+            return;
+        }
+
+        // Interrupts the worker thread and answers right away, whatever the command still produces is dropped
+        entry.future.cancel(true);
+        finish(request.target, entry, () -> write("{\"id\":" + request.target + ",\"status\":\"cancelled\"}"));
+        respond(request.id, "");
+    }
+
+    // Every request gets exactly one response, whichever of completion or cancellation comes first
+    private void finish(String id, Running entry, Runnable response) {
+        if (!entry.finished.compareAndSet(false, true)) {
+            return;
+        }
+        running.remove(id, entry);
+        try {
+            response.run();
+        } catch (Throwable e) {
+            respondError(id, "Failed to send the response: " + e);
+        }
+    }
+
+    // Returns false when the command did not run, result then holds why
+    private boolean run(Request request, ByteArrayOutputStream result) throws IOException {
+        String[] args = new String[request.args.size() + 1];
+        args[0] = request.command;
+        for (int i = 0; i < request.args.size(); i++) {
+            args[i + 1] = request.args.get(i);
+        }
+
+        PrintStream capture = new PrintStream(result, false, "UTF-8");
+        // Events share the protocol channel, tagged with the id of the request they belong to
+        boolean ran = BackendMain.execute(args, capture, event -> write("{\"id\":" + request.id + "," + event.substring(1)));
+        capture.flush();
+        return ran;
+    }
+
+    // JSON output ('{' or '[') is embedded as it is, anything else is sent as a string
+    private void respond(String id, byte[] result) {
+        int start = 0;
+        int end = result.length;
+        while (start < end && Character.isWhitespace(result[start])) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(result[end - 1])) {
+            end--;
+        }
+        if (start == end || result[start] != '{' && result[start] != '[') {
+            respond(id, new String(result, start, end - start, StandardCharsets.UTF_8));
+            return;
+        }
+
+        ByteArrayOutputStream line = new ByteArrayOutputStream(end - start + 64);
+        byte[] prefix = ("{\"id\":" + id + ",\"result\":").getBytes(StandardCharsets.UTF_8);
+        line.write(prefix, 0, prefix.length);
+        for (int i = start; i < end; i++) {
+            // Compact JSON has line breaks only between tokens, where they would end the response line
+            if (result[i] != '\r' && result[i] != '\n') {
+                line.write(result[i]);
+            }
+        }
+        byte[] suffix = ",\"status\":\"ok\"}\n".getBytes(StandardCharsets.UTF_8);
+        line.write(suffix, 0, suffix.length);
+        outbox.add(line.toByteArray());
+    }
+
+    private void respond(String id, String text) {
+        write("{\"id\":" + id + ",\"result\":\"" + ModelHandler.escapeJson(text) + "\",\"status\":\"ok\"}");
+    }
+
+    private void respondError(String id, String message) {
+        write("{\"id\":" + id + ",\"status\":\"error\",\"message\":\"" + ModelHandler.escapeJson(message) + "\"}");
+    }
+
+    private void write(String line) {
+        outbox.add((line + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Runs on the writer thread, the only one writing to out
+    private void drain() {
+        try {
+            byte[] line;
+            while ((line = outbox.take()) != END) {
+                out.write(line);
+                if (outbox.isEmpty()) {
+                    out.flush();
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            System.err.println("Failed to write responses: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class Running {
+        final AtomicBoolean finished = new AtomicBoolean();
+        volatile Future<?> future;
+    }
+
+    private static class Request {
+        String id = "null";
+        String command;
+        String target;
+        List<String> args = new ArrayList<>();
+
+        static Request parse(String line) throws IOException {
+            Request request = new Request();
+            JsonReader reader = new JsonReader(line);
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                switch (name) {
+                    case "id":
+                        request.id = readId(reader);
+                        break;
+                    case "target":
+                        request.target = readId(reader);
+                        break;
+                    case "command":
+                        request.command = reader.nextString();
+                        break;
+                    case "args":
+                        request.args = reader.nextStringArray();
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+            return request;
+        }
+
+        // Ids are echoed back verbatim, numbers stay numbers and strings stay strings
+        private static String readId(JsonReader reader) throws IOException {
+            if (reader.peek() == JsonReader.Token.NUMBER) {
+                return Long.toString(reader.nextLong());
+            }
+            return "\"" + ModelHandler.escapeJson(reader.nextString()) + "\"";
+        }
+    }
+}
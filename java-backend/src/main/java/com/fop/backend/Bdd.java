@@ -0,0 +1,794 @@
+package com.fop.backend;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
+
+// Reduced ordered binary decision diagram of a feature model: the tree semantics and the cross-tree
+// constraints, over one variable per feature.
+//
+// The variable order is a pre-order of the feature tree. It keeps every subtree in one contiguous block
+// of levels, so parents are decided before their children and the diagram of a subtree mostly depends
+// on whether its root is selected. Among siblings, the ones sharing constraints with what is already
+// placed go first, which keeps constrained features close together. Constraints are conjoined straight
+// from their formulas, without the auxiliary variables of the Cnf.
+//
+// Nodes are numbered children first: 0 is false, 1 is true, and every inner node comes after its low
+// and high child. Counting, sampling and validity checks are single passes over these arrays. The
+// compiled diagram is stored next to the model as .<model file>.fop-bdd and reused while the XML keeps
+// its size and checksum, like the model snapshot.
+public final class Bdd {
+
+    public static final int FALSE = 0;
+    public static final int TRUE = 1;
+
+    private static final int MAGIC = 0x464f5042; // "FOPB"
+    private static final int VERSION = 2;
+
+    // Compilation stops beyond this many nodes (-Dfop.bdd.maxNodes)
+    private static final int MAX_NODES = Integer.getInteger("fop.bdd.maxNodes", 1 << 25);
+
+    private final int variables;
+    // Feature on each level and level of each feature
+    private final int[] feature;
+    private final int[] level;
+    private final int[] var;
+    private final int[] low;
+    private final int[] high;
+    private final int root;
+
+    private volatile BigInteger[] counts;
+
+    private Bdd(int[] feature, int[] var, int[] low, int[] high, int root) {
+        this.variables = feature.length;
+        this.feature = feature;
+        this.level = new int[feature.length];
+        for (int i = 0; i < feature.length; i++) {
+            level[feature[i]] = i;
+        }
+        this.var = var;
+        this.low = low;
+        this.high = high;
+        this.root = root;
+    }
+
+    public int getVariableCount() {
+        return variables;
+    }
+
+    public int getNodeCount() {
+        return var.length;
+    }
+
+    public int getRoot() {
+        return root;
+    }
+
+    // Level of an inner node, getVariableCount() for the terminals
+    public int getLevel(int node) {
+        return var[node];
+    }
+
+    // FeatureModel id decided on a level
+    public int getFeature(int level) {
+        return feature[level];
+    }
+
+    public int getLow(int node) {
+        return low[node];
+    }
+
+    public int getHigh(int node) {
+        return high[node];
+    }
+
+    public BigInteger count() {
+        return countAt(root).shiftLeft(var[root]);
+    }
+
+    // Configurations from the level of node down, over the levels var[node]..variables-1
+    BigInteger countAt(int node) {
+        return counts()[node];
+    }
+
+    private BigInteger[] counts() {
+        BigInteger[] result = counts;
+        if (result == null) {
+            result = new BigInteger[var.length];
+            result[FALSE] = BigInteger.ZERO;
+            result[TRUE] = BigInteger.ONE;
+            for (int node = 2; node < var.length; node++) {
+                // A child further down skips levels, each of them free
+                result[node] = result[low[node]].shiftLeft(var[low[node]] - var[node] - 1)
+                        .add(result[high[node]].shiftLeft(var[high[node]] - var[node] - 1));
+            }
+            counts = result;
+        }
+        return result;
+    }
+
+    // Number of configurations extending the given feature literals (Cnf.literal)
+    public BigInteger count(int[] assumptions) {
+        byte[] fixed = fixed(assumptions);
+        if (fixed == null) {
+            return BigInteger.ZERO;
+        }
+        // Like counts(), but a fixed variable only follows its own branch, skipped levels included
+        int[] freeBelow = new int[variables + 1];
+        for (int v = variables - 1; v >= 0; v--) {
+            freeBelow[v] = freeBelow[v + 1] + (fixed[v] == 0 ? 1 : 0);
+        }
+        BigInteger[] result = new BigInteger[var.length];
+        result[FALSE] = BigInteger.ZERO;
+        result[TRUE] = BigInteger.ONE;
+        for (int node = 2; node < var.length; node++) {
+            int v = var[node];
+            BigInteger sum = BigInteger.ZERO;
+            if (fixed[v] <= 0) {
+                sum = sum.add(result[low[node]].shiftLeft(freeBelow[v + 1] - freeBelow[var[low[node]]]));
+            }
+            if (fixed[v] >= 0) {
+                sum = sum.add(result[high[node]].shiftLeft(freeBelow[v + 1] - freeBelow[var[high[node]]]));
+            }
+            result[node] = sum;
+        }
+        return result[root].shiftLeft(freeBelow[0] - freeBelow[var[root]]);
+    }
+
+    // Whether some configuration extends the assumptions, a walk down that stops at the first path to true
+    public boolean isSatisfiable(int[] assumptions) {
+        byte[] fixed = fixed(assumptions);
+        if (fixed == null) {
+            return false;
+        }
+        boolean[] dead = new boolean[var.length];
+        dead[FALSE] = true;
+        for (int node = 2; node < var.length; node++) {
+            int v = var[node];
+            dead[node] = (fixed[v] > 0 || dead[low[node]]) && (fixed[v] < 0 || dead[high[node]]);
+        }
+        return !dead[root];
+    }
+
+    // Whether a complete configuration (selected[i] for feature i) is valid, one path from the root
+    public boolean isValid(boolean[] selected) {
+        int node = root;
+        while (node > TRUE) {
+            node = selected[feature[var[node]]] ? high[node] : low[node];
+        }
+        return node == TRUE;
+    }
+
+    // The configuration with the given index, 0 <= index < count(). Configurations are ordered like
+    // binary numbers over the levels, deselected before selected, with the first level most significant.
+    public boolean[] configuration(BigInteger index) {
+        boolean[] bits = new boolean[variables];
+        unrank(index, bits, new int[variables]);
+        boolean[] selected = new boolean[variables];
+        for (int v = 0; v < variables; v++) {
+            selected[feature[v]] = bits[v];
+        }
+        return selected;
+    }
+
+    // Fills per level the value and the node the path is in
+    private void unrank(BigInteger index, boolean[] bits, int[] nodeAt) {
+        if (index.signum() < 0 || index.compareTo(count()) >= 0) {
+            throw new IllegalArgumentException("No configuration with index " + index);
+        }
+        int node = root;
+        for (int v = 0; v < variables; v++) {
+            nodeAt[v] = node;
+            // Configurations below level v that deselect it: a free level halves them, a node splits
+            // them by its low child
+            BigInteger deselected = v < var[node]
+                    ? countAt(node).shiftLeft(var[node] - v - 1)
+                    : countAt(low[node]).shiftLeft(var[low[node]] - v - 1);
+            boolean on = index.compareTo(deselected) >= 0;
+            if (on) {
+                index = index.subtract(deselected);
+            }
+            if (v == var[node]) {
+                node = on ? high[node] : low[node];
+            }
+            bits[v] = on;
+        }
+    }
+
+    // The configurations from index on, in the order of configuration(index). Each next one is found
+    // from the previous by a walk back to the last level that can still flip to selected, so a
+    // configuration costs a few steps on average and none of them is kept.
+    public Iterator<boolean[]> iterator(BigInteger from) {
+        return new Iterator<boolean[]>() {
+            private final boolean[] bits = new boolean[variables];
+            private final int[] nodeAt = new int[variables];
+            private boolean more = from.compareTo(count()) < 0;
+
+            {
+                if (more) {
+                    unrank(from, bits, nodeAt);
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return more;
+            }
+
+            @Override
+            public boolean[] next() {
+                if (!more) {
+                    throw new NoSuchElementException();
+                }
+                boolean[] selected = new boolean[variables];
+                for (int v = 0; v < variables; v++) {
+                    selected[feature[v]] = bits[v];
+                }
+                advance();
+                return selected;
+            }
+
+            private void advance() {
+                for (int v = variables - 1; v >= 0; v--) {
+                    if (bits[v]) {
+                        continue;
+                    }
+                    int node = nodeAt[v];
+                    int next = var[node] == v ? high[node] : node;
+                    if (next == FALSE) {
+                        continue;
+                    }
+                    bits[v] = true;
+                    // Below it the first configuration: deselected wherever that still leads to true
+                    for (int w = v + 1; w < variables; w++) {
+                        nodeAt[w] = next;
+                        if (var[next] == w) {
+                            bits[w] = low[next] == FALSE;
+                            next = bits[w] ? high[next] : low[next];
+                        } else {
+                            bits[w] = false;
+                        }
+                    }
+                    return;
+                }
+                more = false;
+            }
+        };
+    }
+
+    // A configuration drawn uniformly from all valid ones
+    public boolean[] sample(Random random) {
+        BigInteger total = count();
+        if (total.signum() == 0) {
+            throw new IllegalArgumentException("The model has no valid configuration");
+        }
+        BigInteger index;
+        do {
+            // Rejecting values past the count keeps every index equally likely
+            index = new BigInteger(total.bitLength(), random);
+        } while (index.compareTo(total) >= 0);
+        return configuration(index);
+    }
+
+    // Per level 1 for selected, -1 for deselected, 0 for open; null when the assumptions contradict
+    private byte[] fixed(int[] assumptions) {
+        byte[] fixed = new byte[variables + 1];
+        for (int literal : assumptions) {
+            if (literal == 0 || Math.abs(literal) > variables) {
+                throw new IllegalArgumentException("No feature literal: " + literal);
+            }
+            int v = level[Math.abs(literal) - 1];
+            byte value = (byte) (literal > 0 ? 1 : -1);
+            if (fixed[v] == -value) {
+                return null;
+            }
+            fixed[v] = value;
+        }
+        return fixed;
+    }
+
+    public static Bdd compile(FeatureModel model) {
+        model.checkConstraints();
+        return DeepRecursion.run("bdd-compiler", () -> new Builder(order(model)).build(model));
+    }
+
+    // Pre-order of the tree in which each next sibling is the one with the most constraints in common
+    // with the features placed so far (the first one on ties), as features per level
+    static int[] order(FeatureModel model) {
+        int n = model.size();
+        List<List<Integer>> touching = new ArrayList<>();
+        for (int id = 0; id < n; id++) {
+            touching.add(new ArrayList<>());
+        }
+        for (int c = 0; c < model.getConstraintCount(); c++) {
+            collectVariables(model.getConstraint(c), c, touching);
+        }
+        // Constraints within each subtree, subtrees are contiguous id ranges
+        List<Set<Integer>> within = new ArrayList<>();
+        for (int id = 0; id < n; id++) {
+            within.add(null);
+        }
+        for (int id = n - 1; id >= 0; id--) {
+            Set<Integer> set = new HashSet<>(touching.get(id));
+            for (int child = model.getFirstChild(id); child >= 0; child = model.getNextSibling(child)) {
+                set.addAll(within.get(child));
+            }
+            within.set(id, set);
+        }
+
+        boolean[] placedConstraint = new boolean[model.getConstraintCount()];
+        int[] order = new int[n];
+        int size = 0;
+        int[] stack = new int[n];
+        int top = 0;
+        stack[top++] = 0;
+        List<Integer> children = new ArrayList<>();
+        while (top > 0) {
+            int id = stack[--top];
+            order[size++] = id;
+            for (int c : touching.get(id)) {
+                placedConstraint[c] = true;
+            }
+            children.clear();
+            for (int child = model.getFirstChild(id); child >= 0; child = model.getNextSibling(child)) {
+                children.add(child);
+            }
+            // Picked greedily against what is placed when the siblings are reached; pushed in reverse
+            List<Integer> picked = new ArrayList<>();
+            while (!children.isEmpty()) {
+                int best = 0;
+                int bestScore = -1;
+                for (int i = 0; i < children.size(); i++) {
+                    int score = 0;
+                    for (int c : within.get(children.get(i))) {
+                        if (placedConstraint[c]) {
+                            score++;
+                        }
+                    }
+                    if (score > bestScore) {
+                        best = i;
+                        bestScore = score;
+                    }
+                }
+                int child = children.remove(best);
+                picked.add(child);
+                for (int c : within.get(child)) {
+                    placedConstraint[c] = true;
+                }
+            }
+            for (int i = picked.size() - 1; i >= 0; i--) {
+                stack[top++] = picked.get(i);
+            }
+        }
+        return order;
+    }
+
+    private static void collectVariables(Formula formula, int constraint, List<List<Integer>> touching) {
+        if (formula.getOp() == Formula.VAR) {
+            touching.get(formula.getVar()).add(constraint);
+            return;
+        }
+        for (int i = 0; i < formula.getChildCount(); i++) {
+            collectVariables(formula.getChild(i), constraint, touching);
+        }
+    }
+
+    // Stored diagram of the model when it still matches the XML, otherwise compiled and stored for
+    // the next time. Stored diagrams follow the model snapshots: -Dfop.snapshot.enabled=false skips both.
+    static Bdd load(Path modelFile, FeatureModel model, long xmlSize, long xmlHash) {
+        if (!ModelSnapshot.isEnabled()) {
+            return compile(model);
+        }
+        Path file = modelFile.resolveSibling("." + modelFile.getFileName() + ".fop-bdd");
+        Bdd bdd = read(file, model.size(), xmlSize, xmlHash);
+        if (bdd != null) {
+            return bdd;
+        }
+        bdd = compile(model);
+        try {
+            bdd.write(file, xmlSize, xmlHash);
+        } catch (IOException e) {
+            System.err.println("Could not write BDD " + file + ": " + e.getMessage());
+        }
+        return bdd;
+    }
+
+    private static Bdd read(Path file, int variables, long xmlSize, long xmlHash) {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                    || in.readLong() != xmlSize || in.readLong() != xmlHash
+                    || in.readInt() != variables) {
+                return null;
+            }
+            int[] feature = new int[variables];
+            boolean[] seen = new boolean[variables];
+            for (int i = 0; i < variables; i++) {
+                feature[i] = in.readInt();
+                if (feature[i] < 0 || feature[i] >= variables || seen[feature[i]]) {
+                    return null;
+                }
+                seen[feature[i]] = true;
+            }
+            int count = in.readInt();
+            if (count < 2 || count > in.available() / 12 + 2) {
+                return null;
+            }
+            int[] var = new int[count];
+            int[] low = new int[count];
+            int[] high = new int[count];
+            var[FALSE] = variables;
+            var[TRUE] = variables;
+            for (int node = 2; node < count; node++) {
+                var[node] = in.readInt();
+                low[node] = in.readInt();
+                high[node] = in.readInt();
+                // Children come first and sit on lower levels
+                if (low[node] < 0 || low[node] >= node || high[node] < 0 || high[node] >= node
+                        || low[node] == high[node] || var[node] < 0
+                        || var[node] >= var[low[node]] || var[node] >= var[high[node]]) {
+                    return null;
+                }
+            }
+            int root = in.readInt();
+            if (root < 0 || root >= count) {
+                return null;
+            }
+            return new Bdd(feature, var, low, high, root);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Ignoring unreadable BDD " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void write(Path file, long xmlSize, long xmlHash) throws IOException {
+        Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(xmlSize);
+                out.writeLong(xmlHash);
+                out.writeInt(variables);
+                for (int f : feature) {
+                    out.writeInt(f);
+                }
+                out.writeInt(var.length);
+                for (int node = 2; node < var.length; node++) {
+                    out.writeInt(var[node]);
+                    out.writeInt(low[node]);
+                    out.writeInt(high[node]);
+                }
+                out.writeInt(root);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // Node manager used while compiling: a unique table (open addressing over node ids) and a
+    // direct-mapped operation cache, all in int arrays. Nodes are never freed, the finished diagram
+    // is copied out with only the nodes reachable from its root.
+    private static final class Builder {
+        private static final int AND = 0;
+        private static final int OR = 1;
+        private static final int XOR = 2;
+
+        final int variables;
+        final int[] feature;
+        final int[] level;
+        int[] var = new int[1024];
+        int[] low = new int[1024];
+        int[] high = new int[1024];
+        int nodes;
+
+        // Node id + 1 per slot, 0 is empty
+        int[] unique = new int[2048];
+
+        int[] cacheA = new int[1024];
+        int[] cacheB = new int[1024];
+        int[] cacheOp = new int[1024];
+        int[] cacheResult = new int[1024];
+
+        Builder(int[] feature) {
+            this.variables = feature.length;
+            this.feature = feature;
+            this.level = new int[feature.length];
+            for (int i = 0; i < feature.length; i++) {
+                level[feature[i]] = i;
+            }
+            Arrays.fill(cacheOp, -1);
+            // The terminals sit below the last variable
+            var[FALSE] = variables;
+            var[TRUE] = variables;
+            nodes = 2;
+        }
+
+        Bdd build(FeatureModel model) {
+            // Bottom-up, so every step conjoins with diagrams of the levels below only
+            int result = TRUE;
+            for (int i = variables - 1; i >= 0; i--) {
+                result = apply(AND, result, featureRule(model, feature[i]));
+            }
+            result = apply(AND, result, variable(model.getRoot()));
+            for (int i = 0; i < model.getConstraintCount(); i++) {
+                result = apply(AND, result, formula(model.getConstraint(i)));
+            }
+            return extract(result);
+        }
+
+        // Children need the feature, and a selected feature needs its group satisfied
+        private int featureRule(FeatureModel model, int id) {
+            int first = model.getFirstChild(id);
+            if (first < 0) {
+                return TRUE;
+            }
+            int none = TRUE;
+            int group;
+            switch (model.getGroupType(id)) {
+                case FeatureModel.GROUP_OR:
+                    group = FALSE;
+                    for (int child = first; child >= 0; child = model.getNextSibling(child)) {
+                        group = apply(OR, group, variable(child));
+                    }
+                    break;
+                case FeatureModel.GROUP_ALT: {
+                    int one = FALSE;
+                    int zero = TRUE;
+                    for (int child = first; child >= 0; child = model.getNextSibling(child)) {
+                        int v = variable(child);
+                        one = apply(OR, apply(AND, one, not(v)), apply(AND, zero, v));
+                        zero = apply(AND, zero, not(v));
+                    }
+                    group = one;
+                    break;
+                }
+                default:
+                    group = TRUE;
+                    for (int child = first; child >= 0; child = model.getNextSibling(child)) {
+                        if (model.isMandatory(child)) {
+                            group = apply(AND, group, variable(child));
+                        }
+                    }
+                    break;
+            }
+            for (int child = first; child >= 0; child = model.getNextSibling(child)) {
+                none = apply(AND, none, not(variable(child)));
+            }
+            return make(level[id], none, group);
+        }
+
+        private int formula(Formula formula) {
+            int n = formula.getChildCount();
+            switch (formula.getOp()) {
+                case Formula.VAR:
+                    return variable(formula.getVar());
+                case Formula.NOT:
+                    return not(formula(formula.getChild(0)));
+                case Formula.AND:
+                case Formula.OR: {
+                    int op = formula.getOp() == Formula.AND ? AND : OR;
+                    int result = op == AND ? TRUE : FALSE;
+                    for (int i = 0; i < n; i++) {
+                        result = apply(op, result, formula(formula.getChild(i)));
+                    }
+                    return result;
+                }
+                case Formula.IMP:
+                    return apply(OR, not(formula(formula.getChild(0))), formula(formula.getChild(1)));
+                case Formula.EQ:
+                    return not(apply(XOR, formula(formula.getChild(0)), formula(formula.getChild(1))));
+                case Formula.ATMOST1: {
+                    int zero = TRUE;
+                    int one = FALSE;
+                    for (int i = 0; i < n; i++) {
+                        int child = formula(formula.getChild(i));
+                        one = apply(OR, apply(AND, one, not(child)), apply(AND, zero, child));
+                        zero = apply(AND, zero, not(child));
+                    }
+                    return apply(OR, zero, one);
+                }
+                default:
+                    throw new IllegalArgumentException("Unknown operator " + formula.getOp());
+            }
+        }
+
+        private int variable(int id) {
+            return make(level[id], FALSE, TRUE);
+        }
+
+        private int not(int node) {
+            return apply(XOR, node, TRUE);
+        }
+
+        private int apply(int op, int a, int b) {
+            switch (op) {
+                case AND:
+                    if (a == FALSE || b == FALSE) {
+                        return FALSE;
+                    }
+                    if (a == TRUE || a == b) {
+                        return b;
+                    }
+                    if (b == TRUE) {
+                        return a;
+                    }
+                    break;
+                case OR:
+                    if (a == TRUE || b == TRUE) {
+                        return TRUE;
+                    }
+                    if (a == FALSE || a == b) {
+                        return b;
+                    }
+                    if (b == FALSE) {
+                        return a;
+                    }
+                    break;
+                default:
+                    if (a == b) {
+                        return FALSE;
+                    }
+                    if (a == FALSE) {
+                        return b;
+                    }
+                    if (b == FALSE) {
+                        return a;
+                    }
+                    break;
+            }
+            // All three operations are commutative
+            if (a > b) {
+                int swap = a;
+                a = b;
+                b = swap;
+            }
+            int slot = (int) (mix(op, a, b) & (cacheOp.length - 1));
+            if (cacheOp[slot] == op && cacheA[slot] == a && cacheB[slot] == b) {
+                return cacheResult[slot];
+            }
+
+            int v = Math.min(var[a], var[b]);
+            int aLow = var[a] == v ? low[a] : a;
+            int aHigh = var[a] == v ? high[a] : a;
+            int bLow = var[b] == v ? low[b] : b;
+            int bHigh = var[b] == v ? high[b] : b;
+            int result = make(v, apply(op, aLow, bLow), apply(op, aHigh, bHigh));
+
+            // The tables may have grown during the recursion
+            slot = (int) (mix(op, a, b) & (cacheOp.length - 1));
+            cacheOp[slot] = op;
+            cacheA[slot] = a;
+            cacheB[slot] = b;
+            cacheResult[slot] = result;
+            return result;
+        }
+
+        // Node (v, low, high), shared with an existing equal node and skipped when both children agree
+        private int make(int v, int lowChild, int highChild) {
+            if (lowChild == highChild) {
+                return lowChild;
+            }
+            int mask = unique.length - 1;
+            int slot = (int) (mix(v, lowChild, highChild) & mask);
+            while (unique[slot] != 0) {
+                int node = unique[slot] - 1;
+                if (var[node] == v && low[node] == lowChild && high[node] == highChild) {
+                    return node;
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            if (nodes == MAX_NODES) {
+                throw new IllegalStateException("BDD grew beyond " + MAX_NODES + " nodes");
+            }
+            if (nodes == var.length) {
+                var = Arrays.copyOf(var, nodes * 2);
+                low = Arrays.copyOf(low, nodes * 2);
+                high = Arrays.copyOf(high, nodes * 2);
+            }
+            int node = nodes++;
+            var[node] = v;
+            low[node] = lowChild;
+            high[node] = highChild;
+            unique[slot] = node + 1;
+            if (nodes * 2 > unique.length) {
+                grow();
+            }
+            return node;
+        }
+
+        // Doubles the unique table (rehashing every node) and the operation cache (dropping its entries)
+        private void grow() {
+            unique = new int[unique.length * 2];
+            int mask = unique.length - 1;
+            for (int node = 2; node < nodes; node++) {
+                int slot = (int) (mix(var[node], low[node], high[node]) & mask);
+                while (unique[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                unique[slot] = node + 1;
+            }
+            int size = Math.min(unique.length / 2, 1 << 24);
+            if (size > cacheOp.length) {
+                cacheA = new int[size];
+                cacheB = new int[size];
+                cacheOp = new int[size];
+                cacheResult = new int[size];
+                Arrays.fill(cacheOp, -1);
+            }
+        }
+
+        private static long mix(int a, int b, int c) {
+            long h = a * 0x9E3779B97F4A7C15L + b * 0xC2B2AE3D27D4EB4FL + c * 0x165667B19E3779F9L;
+            return h ^ (h >>> 29);
+        }
+
+        // Copies the nodes reachable from root into a new numbering with children first
+        private Bdd extract(int root) {
+            int[] id = new int[nodes];
+            Arrays.fill(id, -1);
+            id[FALSE] = FALSE;
+            id[TRUE] = TRUE;
+            int[] outVar = new int[nodes];
+            int[] outLow = new int[nodes];
+            int[] outHigh = new int[nodes];
+            outVar[FALSE] = variables;
+            outVar[TRUE] = variables;
+            int count = 2;
+
+            // Post-order walk with an explicit stack, a node is numbered once both children are
+            int[] stack = new int[64];
+            int size = 0;
+            if (id[root] < 0) {
+                stack[size++] = root;
+            }
+            while (size > 0) {
+                int node = stack[size - 1];
+                if (id[node] >= 0) {
+                    size--;
+                    continue;
+                }
+                int l = low[node];
+                int h = high[node];
+                if (id[l] >= 0 && id[h] >= 0) {
+                    size--;
+                    id[node] = count;
+                    outVar[count] = var[node];
+                    outLow[count] = id[l];
+                    outHigh[count] = id[h];
+                    count++;
+                    continue;
+                }
+                if (size + 2 > stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                }
+                if (id[l] < 0) {
+                    stack[size++] = l;
+                }
+                if (id[h] < 0) {
+                    stack[size++] = h;
+                }
+            }
+            return new Bdd(feature, Arrays.copyOf(outVar, count), Arrays.copyOf(outLow, count),
+                    Arrays.copyOf(outHigh, count), id[root]);
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package com.fop.backend;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+// Content-addressed store of composed files on disk, evicted least recently used first.
+// Every entry is a folder named after its key holding the composed files and a .fop-entry list of
+// them with their sizes. A read only counts as a hit when every listed file is there with its size,
+// so an entry that another process or thread evicts while it is being read is a miss, never a partial
+// variant. The sizes and use order of the entries are read from disk once and then kept in memory, so
+// enforcing the budget after a put does not walk the cache; entries other processes add meanwhile
+// count from the next run on.
+public class BuildCache {
+
+    private static final long DEFAULT_MAX_BYTES = 512L * 1024 * 1024;
+
+    static final String ENTRY_FILE = ".fop-entry";
+
+    private static volatile BuildCache variantCache;
+    private static volatile BuildCache fileCache;
+
+    private final Path root;
+    private final long maxBytes;
+    // Entry sizes, least recently used first, and their sum; null until first needed
+    private LinkedHashMap<String, Long> index;
+    private long total;
+
+    public BuildCache(Path root, long maxBytes) {
+        this.root = root;
+        this.maxBytes = maxBytes;
+    }
+
+    // Whole variants. Configured through -Dfop.cache.dir and -Dfop.cache.maxBytes (budget per cache),
+    // -Dfop.cache.enabled=false turns caching off and makes this return null
+    public static BuildCache variants() {
+        if (!isEnabled()) {
+            return null;
+        }
+        if (variantCache == null) {
+            synchronized (BuildCache.class) {
+                if (variantCache == null) {
+                    variantCache = new BuildCache(cacheDir().resolve("variants"), maxBytes());
+                }
+            }
+        }
+        return variantCache;
+    }
+
+    // Composition results of single source paths, see IncrementalComposer
+    public static BuildCache files() {
+        if (!isEnabled()) {
+            return null;
+        }
+        if (fileCache == null) {
+            synchronized (BuildCache.class) {
+                if (fileCache == null) {
+                    fileCache = new BuildCache(cacheDir().resolve("files"), maxBytes());
+                }
+            }
+        }
+        return fileCache;
+    }
+
+    private static boolean isEnabled() {
+        return Boolean.parseBoolean(System.getProperty("fop.cache.enabled", "true"));
+    }
+
+    private static Path cacheDir() {
+        return Paths.get(System.getProperty("fop.cache.dir",
+                Paths.get(System.getProperty("user.home"), ".fop-backend", "cache").toString()));
+    }
+
+    private static long maxBytes() {
+        return Long.getLong("fop.cache.maxBytes", DEFAULT_MAX_BYTES);
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    // Returns null on a miss
+    public ComposedVariant get(String key, List<String> features) {
+        Map<String, byte[]> files = getFiles(key);
+        return files == null ? null : new ComposedVariant(features, files);
+    }
+
+    // Returns null on a miss, including an entry that is incomplete or evicted while it is read
+    public Map<String, byte[]> getFiles(String key) {
+        Path entry = root.resolve(key);
+        Path list = entry.resolve(ENTRY_FILE);
+        if (!Files.isRegularFile(list)) {
+            return null;
+        }
+        try {
+            Map<String, byte[]> files = new HashMap<>();
+            for (String line : Files.readAllLines(list, StandardCharsets.UTF_8)) {
+                int tab = line.indexOf('\t');
+                if (tab < 0) {
+                    return null;
+                }
+                String path = line.substring(tab + 1);
+                byte[] content = Files.readAllBytes(entry.resolve(path.replace('/', File.separatorChar)));
+                if (content.length != Long.parseLong(line.substring(0, tab))) {
+                    return null;
+                }
+                files.put(path, content);
+            }
+            // The folder timestamp is the LRU clock across runs
+            entry.toFile().setLastModified(System.currentTimeMillis());
+            used(key);
+            return files;
+        } catch (IOException | NumberFormatException e) {
+            // Evicted while reading, treat it as a miss
+            return null;
+        }
+    }
+
+    public void put(String key, ComposedVariant variant) throws IOException {
+        store(key, variant.getFiles());
+        evict();
+    }
+
+    // Adds an entry without enforcing the budget, callers storing many entries call evict() once afterwards
+    public void store(String key, Map<String, byte[]> files) throws IOException {
+        Files.createDirectories(root);
+        Path entry = root.resolve(key);
+        long size = 0;
+        for (byte[] content : files.values()) {
+            size += content.length;
+        }
+        if (isComplete(entry)) {
+            added(key, size);
+            return;
+        }
+        // Left half deleted by an eviction, or written before entries had a list
+        VariantComposer.deleteRecursively(entry);
+
+        // Write next to the final location and move it in place, readers never see half an entry
+        Path staging = Files.createTempDirectory(root, key + ".tmp");
+        try {
+            List<String> list = new ArrayList<>();
+            for (Map.Entry<String, byte[]> file : files.entrySet()) {
+                Path target = staging.resolve(file.getKey().replace('/', File.separatorChar));
+                Files.createDirectories(target.getParent());
+                Files.write(target, file.getValue());
+                list.add(file.getValue().length + "\t" + file.getKey());
+            }
+            Files.write(staging.resolve(ENTRY_FILE), list, StandardCharsets.UTF_8);
+            try {
+                Files.move(staging, entry, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(staging, entry);
+            }
+            added(key, size);
+        } catch (FileAlreadyExistsException e) {
+            // Another build stored the same entry first
+            added(key, size);
+        } finally {
+            VariantComposer.deleteRecursively(staging);
+        }
+    }
+
+    // Every listed file present with its size, without reading the contents
+    private static boolean isComplete(Path entry) {
+        Path list = entry.resolve(ENTRY_FILE);
+        if (!Files.isRegularFile(list)) {
+            return false;
+        }
+        try {
+            for (String line : Files.readAllLines(list, StandardCharsets.UTF_8)) {
+                int tab = line.indexOf('\t');
+                if (tab < 0 || Files.size(entry.resolve(line.substring(tab + 1).replace('/', File.separatorChar)))
+                        != Long.parseLong(line.substring(0, tab))) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException | NumberFormatException e) {
+            return false;
+        }
+    }
+
+    // Deletes least recently used entries until the cache fits its budget again
+    public synchronized void evict() throws IOException {
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+        Iterator<Map.Entry<String, Long>> entries = index().entrySet().iterator();
+        while (total > maxBytes && entries.hasNext()) {
+            Map.Entry<String, Long> entry = entries.next();
+            VariantComposer.deleteRecursively(root.resolve(entry.getKey()));
+            total -= entry.getValue();
+            entries.remove();
+        }
+    }
+
+    private synchronized void used(String key) {
+        if (index != null) {
+            index.get(key);
+        }
+    }
+
+    private synchronized void added(String key, long size) {
+        if (index != null && !index.containsKey(key)) {
+            index.put(key, size);
+            total += size;
+        }
+    }
+
+    // Built from the entries on disk, ordered by their folder timestamps
+    private LinkedHashMap<String, Long> index() throws IOException {
+        if (index != null) {
+            return index;
+        }
+        List<Path> entries = new ArrayList<>();
+        try (Stream<Path> paths = Files.list(root)) {
+            paths.filter(Files::isDirectory)
+                    .filter(p -> !p.getFileName().toString().contains(".tmp"))
+                    .forEach(entries::add);
+        }
+        Map<Path, Long> used = new HashMap<>();
+        for (Path entry : entries) {
+            used.put(entry, entry.toFile().lastModified());
+        }
+        entries.sort(Comparator.comparingLong(used::get));
+
+        index = new LinkedHashMap<>(16, 0.75f, true);
+        total = 0;
+        for (Path entry : entries) {
+            long size = sizeOf(entry);
+            index.put(entry.getFileName().toString(), size);
+            total += size;
+        }
+        return index;
+    }
+
+    // The sizes its list gives, entries without one are measured
+    private static long sizeOf(Path entry) throws IOException {
+        Path list = entry.resolve(ENTRY_FILE);
+        if (Files.isRegularFile(list)) {
+            try {
+                long size = 0;
+                for (String line : Files.readAllLines(list, StandardCharsets.UTF_8)) {
+                    size += Long.parseLong(line.substring(0, line.indexOf('\t')));
+                }
+                return size;
+            } catch (IOException | RuntimeException e) {
+                // Measured below
+            }
+        }
+        try (Stream<Path> paths = Files.walk(entry)) {
+            return paths.filter(Files::isRegularFile).mapToLong(p -> p.toFile().length()).sum();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.fop.backend;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+// Progress events of a variant build, every event is emitted as one JSON object (NDJSON)
+public class BuildEvents {
+
+    public static final BuildEvents NONE = new BuildEvents(null);
+
+    private final Consumer<String> sink;
+    private final Map<String, Long> phaseStarts = new ConcurrentHashMap<>();
+
+    public BuildEvents(Consumer<String> sink) {
+        this.sink = sink;
+    }
+
+    // Events of one configuration in a batch, tagged with the configuration they belong to
+    public BuildEvents forConfig(String config) {
+        if (sink == null) {
+            return this;
+        }
+        String tag = "{\"config\":\"" + ModelHandler.escapeJson(config) + "\",";
+        return new BuildEvents(json -> sink.accept(tag + json.substring(1)));
+    }
+
+    public boolean isEnabled() {
+        return sink != null;
+    }
+
+    public void configStarted() {
+        emit("{\"event\":\"configStarted\"}");
+    }
+
+    public void configFinished(boolean ok) {
+        emit("{\"event\":\"configFinished\",\"ok\":" + ok + "}");
+    }
+
+    public void phaseStarted(String phase) {
+        phaseStarts.put(phase, System.nanoTime());
+        emit("{\"event\":\"phaseStarted\",\"phase\":\"" + phase + "\"}");
+    }
+
+    public void phaseFinished(String phase) {
+        Long start = phaseStarts.remove(phase);
+        long millis = start == null ? 0 : (System.nanoTime() - start) / 1_000_000;
+        emit("{\"event\":\"phaseFinished\",\"phase\":\"" + phase + "\",\"millis\":" + millis + "}");
+    }
+
+    public void fileCollected(String feature, String path) {
+        emit("{\"event\":\"fileCollected\",\"feature\":\"" + ModelHandler.escapeJson(feature)
+                + "\",\"path\":\"" + ModelHandler.escapeJson(path) + "\"}");
+    }
+
+    public void cacheLookup(String key, boolean hit) {
+        emit("{\"event\":\"cacheLookup\",\"key\":\"" + key + "\",\"hit\":" + hit + "}");
+    }
+
+    public void incremental(int reusedGroups, int composedGroups) {
+        emit("{\"event\":\"incremental\",\"reusedPaths\":" + reusedGroups + ",\"composedPaths\":" + composedGroups + "}");
+    }
+
+    public void fileComposed(String path) {
+        emit("{\"event\":\"fileComposed\",\"path\":\"" + ModelHandler.escapeJson(path) + "\"}");
+    }
+
+    public void fileWritten(String path) {
+        emit("{\"event\":\"fileWritten\",\"path\":\"" + ModelHandler.escapeJson(path) + "\"}");
+    }
+
+    public void fileRemoved(String path) {
+        emit("{\"event\":\"fileRemoved\",\"path\":\"" + ModelHandler.escapeJson(path) + "\"}");
+    }
+
+    public void summary(int collected, VariantWriter.Changes changes, long millis) {
+        emit("{\"event\":\"summary\",\"filesCollected\":" + collected + ",\"filesWritten\":" + changes.getWritten()
+                + ",\"filesUnchanged\":" + changes.getUnchanged() + ",\"filesRemoved\":" + changes.getRemoved().size()
+                + ",\"millis\":" + millis + "}");
+    }
+
+    private void emit(String json) {
+        if (sink != null) {
+            sink.accept(json);
+        }
+    }
+}
@@ -0,0 +1,366 @@
+package com.fop.backend;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Conjunctive normal form of a feature model: tree semantics plus cross-tree constraints.
+//
+// Literals are DIMACS style ints: variable v > 0 is feature v - 1 of the FeatureModel, -v its negation.
+// Variables above getFeatureCount() are auxiliary ones introduced for constraints that would grow too
+// large by distribution. They are defined by both directions of a Tseitin equivalence, so every
+// configuration of the features extends to exactly one assignment of them: solutions and model counts
+// over the feature variables are the same as the ones of the original model.
+//
+// withSelectors() builds a variant for analyses of the constraints themselves: right after the features
+// come two selector variables per constraint, one switching on the constraint and one its negation.
+// Every clause of a constraint carries the negated selector, so a selector that is not assumed true
+// leaves its clauses free to be satisfied, and one solver answers questions about any subset of the
+// constraints.
+public final class Cnf {
+
+    // Constraints whose distributed CNF has more clauses than this are Tseitin encoded instead
+    private static final int DISTRIBUTION_LIMIT = 256;
+
+    private final int features;
+    private final int variables;
+    private final int[][] clauses;
+    private final int selectors;
+
+    private Cnf(int features, int variables, int[][] clauses, int selectors) {
+        this.features = features;
+        this.variables = variables;
+        this.clauses = clauses;
+        this.selectors = selectors;
+    }
+
+    public int getFeatureCount() {
+        return features;
+    }
+
+    public int getVariableCount() {
+        return variables;
+    }
+
+    // Shared with every user of this Cnf, must not be modified
+    public int[][] getClauses() {
+        return clauses;
+    }
+
+    public static int literal(int feature, boolean selected) {
+        return selected ? feature + 1 : -(feature + 1);
+    }
+
+    // Variable switching on a constraint, or its negation, in a Cnf built withSelectors()
+    public int getSelector(int constraint, boolean negated) {
+        if (constraint < 0 || constraint >= selectors) {
+            throw new IllegalArgumentException("No selector for constraint " + constraint);
+        }
+        return features + 2 * constraint + (negated ? 2 : 1);
+    }
+
+    public static Cnf of(FeatureModel model) {
+        model.checkConstraints();
+        Builder builder = new Builder(model.size(), 0);
+        addTree(model, builder);
+        for (int i = 0; i < model.getConstraintCount(); i++) {
+            builder.addConstraint(model.getConstraint(i), true);
+        }
+        return builder.build();
+    }
+
+    // The tree as in of(), every constraint and its negation behind their selectors
+    public static Cnf withSelectors(FeatureModel model) {
+        model.checkConstraints();
+        int constraints = model.getConstraintCount();
+        Builder builder = new Builder(model.size(), constraints);
+        addTree(model, builder);
+        for (int i = 0; i < constraints; i++) {
+            builder.guard = model.size() + 2 * i + 1;
+            builder.addConstraint(model.getConstraint(i), true);
+            builder.guard = model.size() + 2 * i + 2;
+            builder.addConstraint(model.getConstraint(i), false);
+        }
+        builder.guard = 0;
+        return builder.build();
+    }
+
+    // The clauses over one variable per atomic set instead of per feature, auxiliary variables following
+    // the sets. Clauses within a set, like a mandatory child requiring its parent, become tautologies and
+    // are dropped. Solutions and counts are the same, a set stands for all of its features.
+    public static Cnf collapse(Cnf cnf, AtomicSets sets) {
+        int shift = cnf.features - sets.getSetCount();
+        List<int[]> clauses = new ArrayList<>();
+        for (int[] clause : cnf.clauses) {
+            int[] mapped = new int[clause.length];
+            for (int i = 0; i < clause.length; i++) {
+                int variable = Math.abs(clause[i]);
+                mapped[i] = variable <= cnf.features ? sets.toSetLiteral(clause[i])
+                        : clause[i] > 0 ? variable - shift : -(variable - shift);
+            }
+            int[] normalized = Builder.normalize(mapped);
+            if (normalized != null) {
+                clauses.add(normalized);
+            }
+        }
+        return new Cnf(sets.getSetCount(), cnf.variables - shift, clauses.toArray(new int[0][]), 0);
+    }
+
+    private static void addTree(FeatureModel model, Builder builder) {
+
+        // The root is always selected, every feature requires its parent
+        builder.add(1);
+        for (int id = 1; id < model.size(); id++) {
+            builder.add(-(id + 1), model.getParent(id) + 1);
+        }
+
+        for (int id = 0; id < model.size(); id++) {
+            int first = model.getFirstChild(id);
+            if (first < 0) {
+                continue;
+            }
+            switch (model.getGroupType(id)) {
+                case FeatureModel.GROUP_AND:
+                    // Mandatory only means something in and-groups, as in FeatureIDE
+                    for (int child = first; child >= 0; child = model.getNextSibling(child)) {
+                        if (model.isMandatory(child)) {
+                            builder.add(-(id + 1), child + 1);
+                        }
+                    }
+                    break;
+                case FeatureModel.GROUP_OR:
+                    builder.addGroup(model, id);
+                    break;
+                case FeatureModel.GROUP_ALT:
+                    builder.addGroup(model, id);
+                    for (int a = first; a >= 0; a = model.getNextSibling(a)) {
+                        for (int b = model.getNextSibling(a); b >= 0; b = model.getNextSibling(b)) {
+                            builder.add(-(a + 1), -(b + 1));
+                        }
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    // Negation normal form: literals, and-nodes and or-nodes
+    private static class Nnf {
+        final int literal;
+        final boolean and;
+        final Nnf[] children;
+
+        Nnf(int literal) {
+            this.literal = literal;
+            this.and = false;
+            this.children = null;
+        }
+
+        Nnf(boolean and, List<Nnf> children) {
+            this.literal = 0;
+            this.and = and;
+            this.children = children.toArray(new Nnf[0]);
+        }
+
+        boolean isLiteral() {
+            return children == null;
+        }
+    }
+
+    private static class Builder {
+        final int features;
+        final int selectors;
+        int variables;
+        final List<int[]> clauses = new ArrayList<>();
+        // Selector variable added negated to every clause, 0 for none
+        int guard;
+
+        Builder(int features, int selectors) {
+            this.features = features;
+            this.selectors = selectors;
+            this.variables = features + 2 * selectors;
+        }
+
+        Cnf build() {
+            return new Cnf(features, variables, clauses.toArray(new int[0][]), selectors);
+        }
+
+        void add(int... literals) {
+            if (guard != 0) {
+                literals = Arrays.copyOf(literals, literals.length + 1);
+                literals[literals.length - 1] = -guard;
+            }
+            int[] clause = normalize(literals);
+            if (clause != null) {
+                clauses.add(clause);
+            }
+        }
+
+        // Parent implies at least one child
+        void addGroup(FeatureModel model, int parent) {
+            List<Integer> literals = new ArrayList<>();
+            literals.add(-(parent + 1));
+            for (int child = model.getFirstChild(parent); child >= 0; child = model.getNextSibling(child)) {
+                literals.add(child + 1);
+            }
+            add(toArray(literals));
+        }
+
+        void addConstraint(Formula formula, boolean positive) {
+            Nnf nnf = toNnf(formula, positive);
+            List<int[]> distributed = distribute(nnf);
+            if (distributed != null) {
+                for (int[] clause : distributed) {
+                    add(clause);
+                }
+                return;
+            }
+            add(tseitin(nnf));
+        }
+
+        // Null when the result would exceed DISTRIBUTION_LIMIT clauses
+        private List<int[]> distribute(Nnf node) {
+            if (node.isLiteral()) {
+                List<int[]> single = new ArrayList<>();
+                single.add(new int[]{node.literal});
+                return single;
+            }
+            if (node.and) {
+                List<int[]> result = new ArrayList<>();
+                for (Nnf child : node.children) {
+                    List<int[]> part = distribute(child);
+                    if (part == null || result.size() + part.size() > DISTRIBUTION_LIMIT) {
+                        return null;
+                    }
+                    result.addAll(part);
+                }
+                return result;
+            }
+            // Or: cross product of the children's clauses, an empty or is the empty clause (false)
+            List<int[]> result = new ArrayList<>();
+            result.add(new int[0]);
+            for (Nnf child : node.children) {
+                List<int[]> part = distribute(child);
+                if (part == null || (long) result.size() * part.size() > DISTRIBUTION_LIMIT) {
+                    return null;
+                }
+                List<int[]> product = new ArrayList<>();
+                for (int[] left : result) {
+                    for (int[] right : part) {
+                        int[] merged = Arrays.copyOf(left, left.length + right.length);
+                        System.arraycopy(right, 0, merged, left.length, right.length);
+                        product.add(merged);
+                    }
+                }
+                result = product;
+            }
+            return result;
+        }
+
+        // Literal that is true exactly when the node is, defined through fresh variables
+        private int tseitin(Nnf node) {
+            if (node.isLiteral()) {
+                return node.literal;
+            }
+            int[] literals = new int[node.children.length];
+            for (int i = 0; i < literals.length; i++) {
+                literals[i] = tseitin(node.children[i]);
+            }
+            int x = ++variables;
+            int[] back = new int[literals.length + 1];
+            back[0] = node.and ? x : -x;
+            for (int i = 0; i < literals.length; i++) {
+                // and: x -> l, or: l -> x
+                add(node.and ? new int[]{-x, literals[i]} : new int[]{x, -literals[i]});
+                back[i + 1] = node.and ? -literals[i] : literals[i];
+            }
+            // and: all l -> x, or: x -> some l
+            add(back);
+            return x;
+        }
+
+        private static Nnf toNnf(Formula formula, boolean positive) {
+            int n = formula.getChildCount();
+            List<Nnf> parts = new ArrayList<>();
+            switch (formula.getOp()) {
+                case Formula.VAR:
+                    return new Nnf(positive ? formula.getVar() + 1 : -(formula.getVar() + 1));
+                case Formula.NOT:
+                    return toNnf(formula.getChild(0), !positive);
+                case Formula.AND:
+                case Formula.OR:
+                    for (int i = 0; i < n; i++) {
+                        parts.add(toNnf(formula.getChild(i), positive));
+                    }
+                    // De Morgan flips the connective of a negated and/or
+                    return new Nnf((formula.getOp() == Formula.AND) == positive, parts);
+                case Formula.IMP: {
+                    // a -> b is -a | b, and -(a -> b) is a & -b
+                    parts.add(toNnf(formula.getChild(0), !positive));
+                    parts.add(toNnf(formula.getChild(1), positive));
+                    return new Nnf(!positive, parts);
+                }
+                case Formula.EQ: {
+                    // a <-> b is (-a | b) & (a | -b), and -(a <-> b) is (a | b) & (-a | -b)
+                    Formula a = formula.getChild(0);
+                    Formula b = formula.getChild(1);
+                    parts.add(or(toNnf(a, !positive), toNnf(b, true)));
+                    parts.add(or(toNnf(a, positive), toNnf(b, false)));
+                    return new Nnf(true, parts);
+                }
+                case Formula.ATMOST1: {
+                    // No two children together, negated: some two children together
+                    for (int i = 0; i < n; i++) {
+                        for (int j = i + 1; j < n; j++) {
+                            Nnf x = toNnf(formula.getChild(i), !positive);
+                            Nnf y = toNnf(formula.getChild(j), !positive);
+                            List<Nnf> pair = new ArrayList<>();
+                            pair.add(x);
+                            pair.add(y);
+                            parts.add(new Nnf(!positive, pair));
+                        }
+                    }
+                    return new Nnf(positive, parts);
+                }
+                default:
+                    throw new IllegalArgumentException("Unknown operator " + formula.getOp());
+            }
+        }
+
+        private static Nnf or(Nnf a, Nnf b) {
+            List<Nnf> parts = new ArrayList<>();
+            parts.add(a);
+            parts.add(b);
+            return new Nnf(false, parts);
+        }
+
+        // Sorted and without duplicate literals, null for tautologies
+        private static int[] normalize(int[] literals) {
+            int[] sorted = literals.clone();
+            Arrays.sort(sorted);
+            int size = 0;
+            for (int literal : sorted) {
+                if (size > 0 && sorted[size - 1] == literal) {
+                    continue;
+                }
+                sorted[size++] = literal;
+            }
+            int[] clause = Arrays.copyOf(sorted, size);
+            for (int literal : clause) {
+                if (literal > 0 && Arrays.binarySearch(clause, -literal) >= 0) {
+                    return null;
+                }
+            }
+            return clause;
+        }
+
+        private static int[] toArray(List<Integer> literals) {
+            int[] array = new int[literals.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = literals.get(i);
+            }
+            return array;
+        }
+    }
+}
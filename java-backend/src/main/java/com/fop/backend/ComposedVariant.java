@@ -0,0 +1,31 @@
+package com.fop.backend;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// The result of a composition: every composed file by its path relative to the variant root ('/' separated)
+public class ComposedVariant {
+
+    private final List<String> features;
+    private final Map<String, byte[]> files;
+
+    public ComposedVariant(List<String> features, Map<String, byte[]> files) {
+        this.features = Collections.unmodifiableList(new ArrayList<>(features));
+        this.files = Collections.unmodifiableMap(new TreeMap<>(files));
+    }
+
+    public List<String> getFeatures() {
+        return features;
+    }
+
+    public Map<String, byte[]> getFiles() {
+        return files;
+    }
+
+    public int size() {
+        return files.size();
+    }
+}
@@ -0,0 +1,72 @@
+package com.fop.backend;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+// Worker side of the WorkerPool: runs one FeatureHouse composition per request line.
+//
+// Request:  {"args":["--expression","...","--base-directory","...","--output-directory","..."]}
+// Response: {"status":"ok"} or {"status":"error","message":"..."}
+public class CompositionWorker {
+
+    private final InputStream in;
+    private final Writer out;
+
+    public CompositionWorker(InputStream in, OutputStream out) {
+        this.in = in;
+        this.out = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    }
+
+    public void serve() {
+        // FeatureHouse prints to System.out, which is the protocol channel here
+        System.setOut(System.err);
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                String response;
+                try {
+                    new composer.FSTGenComposer().run(parseArgs(line));
+                    response = "{\"status\":\"ok\"}";
+                } catch (Exception e) {
+                    response = "{\"status\":\"error\",\"message\":\""
+                            + ModelHandler.escapeJson(e.getClass().getName() + ": " + e.getMessage()) + "\"}";
+                }
+                out.write(response);
+                out.write('\n');
+                out.flush();
+            }
+        } catch (IOException e) {
+            System.err.println("Composition worker stopped: " + e.getMessage());
+        }
+    }
+
+    private static String[] parseArgs(String line) throws IOException {
+        JsonReader reader = new JsonReader(line);
+        List<String> args = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("args")) {
+                args = reader.nextStringArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (args == null) {
+            throw new IOException("Missing args");
+        }
+        return args.toArray(new String[0]);
+    }
+}
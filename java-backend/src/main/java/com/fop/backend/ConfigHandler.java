@@ -2,15 +2,21 @@ package com.fop.backend;
 
 import org.w3c.dom.*;
 import javax.xml.parsers.*;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 
 public class ConfigHandler {
 
     public static String makeFeatureFileFromConfig(File configPath, File outputPath) throws Exception {
-        List<String> selectedFeatures = getByAttribute(configPath,"selected");
+        return makeFeatureFile(getSelectedFeatures(configPath), outputPath);
+    }
 
+    public static String makeFeatureFile(List<String> selectedFeatures, File outputPath) throws IOException {
         BufferedWriter writer = new BufferedWriter(new FileWriter(outputPath));
         for (String feature : selectedFeatures) {
             writer.write(feature);
@@ -20,6 +26,33 @@ public class ConfigHandler {
         return "Selected features written to: " + outputPath.getAbsolutePath();
     }
 
+    public static List<String> getSelectedFeatures(File configPath) throws Exception {
+        return getByAttribute(configPath, "selected");
+    }
+
+    // Writes a complete configuration in FeatureIDE's format. Features fixed by the model itself are
+    // automatic, the others manual. Unselected features carry no "selected" attribute.
+    public static void writeConfiguration(FeatureModel model, boolean[] selected, boolean[] fixed, File outputPath)
+            throws IOException, XMLStreamException {
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outputPath), StandardCharsets.UTF_8))) {
+            XMLStreamWriter xml = XMLOutputFactory.newInstance().createXMLStreamWriter(out);
+            xml.writeStartDocument("UTF-8", "1.0");
+            xml.writeCharacters("\n");
+            xml.writeStartElement("configuration");
+            for (int id = 0; id < model.size(); id++) {
+                xml.writeCharacters("\n\t");
+                xml.writeEmptyElement("feature");
+                xml.writeAttribute(fixed[id] ? "automatic" : "manual", selected[id] ? "selected" : "unselected");
+                xml.writeAttribute("name", model.getName(id));
+            }
+            xml.writeCharacters("\n");
+            xml.writeEndElement();
+            xml.writeCharacters("\n");
+            xml.writeEndDocument();
+            xml.close();
+        }
+    }
+
     // Get the names of each "feature" which has an attribute with the value "match" 
     private static List<String> getByAttribute(File configFile, String match) throws Exception {
 
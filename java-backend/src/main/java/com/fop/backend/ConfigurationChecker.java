@@ -0,0 +1,126 @@
+package com.fop.backend;
+
+import java.util.Arrays;
+
+// Decision propagation for partial configurations: whether the selection can still be completed,
+// and which features it forces on or off.
+//
+// Everything runs on the model's shared SatSolver, under assumptions, so learned clauses carry over
+// from one click in the configurator to the next. Forced features are the backbone of the model under
+// the selection. Unit propagation finds most of them for free. For every other feature one query checks
+// whether it can take the opposite of its value in a first solution. Each solution found on the way
+// rules out all features it gives a different value.
+public class ConfigurationChecker {
+
+    public static final class Result {
+        final boolean satisfiable;
+        final boolean valid;
+        // Per feature 1 forced on, -1 forced off, 0 open (or fixed by the selection itself)
+        final byte[] forced;
+        // Features of the selection that cannot hold together, when unsatisfiable
+        final int[] conflict;
+
+        Result(boolean satisfiable, boolean valid, byte[] forced, int[] conflict) {
+            this.satisfiable = satisfiable;
+            this.valid = valid;
+            this.forced = forced;
+            this.conflict = conflict;
+        }
+
+        public boolean isSatisfiable() {
+            return satisfiable;
+        }
+
+        // Whether the selection plus the forced features, with every open feature deselected, is a
+        // valid configuration as it stands
+        public boolean isValid() {
+            return valid;
+        }
+
+        public int getForced(int feature) {
+            return forced[feature];
+        }
+
+        public int[] getConflict() {
+            return conflict.clone();
+        }
+    }
+
+    // assumptions are feature literals (Cnf.literal)
+    public static Result check(FeatureModel model, int[] assumptions) {
+        int features = model.size();
+        SatSolver solver = model.getSolver();
+        synchronized (solver) {
+            byte[] forced = new byte[features];
+            if (!solver.solve(assumptions)) {
+                // A feature both selected and deselected shows up with both literals
+                int[] conflict = Arrays.stream(solver.getConflict()).map(literal -> Math.abs(literal) - 1)
+                        .distinct().toArray();
+                return new Result(false, false, forced, conflict);
+            }
+
+            boolean[] value = new boolean[features];
+            boolean[] candidate = new boolean[features];
+            for (int f = 0; f < features; f++) {
+                value[f] = solver.getModelValue(f + 1);
+                candidate[f] = true;
+            }
+            for (int literal : assumptions) {
+                candidate[Math.abs(literal) - 1] = false;
+            }
+            for (int literal : solver.propagateAssumptions(assumptions)) {
+                int f = Math.abs(literal) - 1;
+                if (f < features && candidate[f]) {
+                    forced[f] = (byte) (literal > 0 ? 1 : -1);
+                    candidate[f] = false;
+                }
+            }
+
+            // Known forced literals go along as assumptions, they only make later queries easier
+            int[] query = new int[assumptions.length + features + 1];
+            System.arraycopy(assumptions, 0, query, 0, assumptions.length);
+            int known = assumptions.length;
+            for (int f = 0; f < features; f++) {
+                if (forced[f] != 0) {
+                    query[known++] = Cnf.literal(f, forced[f] > 0);
+                }
+            }
+            for (int f = 0; f < features; f++) {
+                if (!candidate[f]) {
+                    continue;
+                }
+                // Lean every open candidate towards its other value, so one solution rules out many
+                for (int g = f + 1; g < features; g++) {
+                    if (candidate[g]) {
+                        solver.setPhase(Cnf.literal(g, !value[g]));
+                    }
+                }
+                query[known] = Cnf.literal(f, !value[f]);
+                if (solver.solve(Arrays.copyOf(query, known + 1))) {
+                    for (int g = f; g < features; g++) {
+                        if (candidate[g] && solver.getModelValue(g + 1) != value[g]) {
+                            candidate[g] = false;
+                        }
+                    }
+                } else {
+                    forced[f] = (byte) (value[f] ? 1 : -1);
+                    query[known++] = Cnf.literal(f, value[f]);
+                }
+            }
+
+            // Fully decided: the selection and the forced features as they are, nothing else selected
+            int[] complete = new int[features];
+            boolean[] selected = new boolean[features];
+            for (int literal : assumptions) {
+                if (literal > 0) {
+                    selected[literal - 1] = true;
+                }
+            }
+            for (int f = 0; f < features; f++) {
+                complete[f] = Cnf.literal(f, selected[f] || forced[f] > 0);
+            }
+            boolean valid = solver.solve(complete);
+            return new Result(true, valid, forced, new int[0]);
+        }
+    }
+}
@@ -0,0 +1,545 @@
+package com.fop.backend;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Deterministic decomposable negation normal form of a Cnf, compiled once per FeatureModel for
+// exact configuration counting.
+//
+// The compiler is an exhaustive DPLL search: decide a variable, unit propagate, split what is left
+// into independent components and compile those separately, caching components by their variables
+// and open clauses. Every branch accounts for each variable of its component (decided, propagated,
+// inside a subcomponent or explicitly free), so the result is smooth. Counting under a partial
+// configuration is then one bottom-up pass, and one top-down pass of derivatives gives the count
+// with every single feature selected as well. Tseitin variables of the Cnf are determined by the
+// features, so counts over all variables are counts of feature configurations.
+//
+// Compiled from a Cnf collapsed to atomic sets, the circuit has one variable per set. Assumptions and
+// per feature counts still go by feature, mapped to their sets on the way.
+public final class DDnnf {
+
+    private static final byte LITERAL = 0;
+    private static final byte AND = 1;
+    private static final byte OR = 2;
+
+    // Node 0 is false (an empty or), node 1 true (an empty and)
+    private static final int FALSE = 0;
+    private static final int TRUE = 1;
+
+    private static final int CACHED_RESULTS = 64;
+
+    private final int features;
+    private final int variables;
+    // Set of each feature when compiled over atomic sets, otherwise null
+    private final AtomicSets sets;
+    private final byte[] kind;
+    private final int[] literal;
+    private final int[] childStart;
+    private final int[] children;
+    private final int root;
+    // Node of each literal, -1 when the literal occurs nowhere (it is false in every configuration)
+    private final int[] literalNode;
+
+    private final Map<String, Counts> results = new LinkedHashMap<String, Counts>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Counts> eldest) {
+            return size() > CACHED_RESULTS;
+        }
+    };
+
+    private DDnnf(Compiler compiler, int root, AtomicSets sets) {
+        this.sets = sets;
+        this.features = compiler.cnf.getFeatureCount();
+        this.variables = compiler.cnf.getVariableCount();
+        this.kind = Arrays.copyOf(compiler.kind, compiler.nodes);
+        this.literal = Arrays.copyOf(compiler.literal, compiler.nodes);
+        this.childStart = Arrays.copyOf(compiler.childStart, compiler.nodes + 1);
+        this.childStart[compiler.nodes] = compiler.childCount;
+        this.children = Arrays.copyOf(compiler.children, compiler.childCount);
+        this.root = root;
+        this.literalNode = compiler.literalNode;
+    }
+
+    public static DDnnf compile(Cnf cnf) {
+        return compile(cnf, null);
+    }
+
+    // cnf is over the atomic sets, Cnf.collapse(), when sets is given
+    public static DDnnf compile(Cnf cnf, AtomicSets sets) {
+        Compiler compiler = new Compiler(cnf);
+        int root = DeepRecursion.run("ddnnf-compiler", compiler::compileAll);
+        return new DDnnf(compiler, root, sets);
+    }
+
+    public int getNodeCount() {
+        return kind.length;
+    }
+
+    // Number of configurations extending the given feature literals (Cnf.literal), and per feature the
+    // number of those in which it is selected. Results are kept for the most recent partial configurations.
+    public Counts count(int[] assumptions) {
+        int[] sorted = assumptions.clone();
+        Arrays.sort(sorted);
+        String key = Arrays.toString(sorted);
+        synchronized (results) {
+            Counts cached = results.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        Counts counts = evaluate(sorted);
+        synchronized (results) {
+            results.put(key, counts);
+        }
+        return counts;
+    }
+
+    private Counts evaluate(int[] assumptions) {
+        // 1 allowed, 0 ruled out by an assumption, indexed like literalNode
+        byte[] allowed = new byte[2 * (variables + 1)];
+        Arrays.fill(allowed, (byte) 1);
+        for (int assumption : assumptions) {
+            if (assumption == 0 || Math.abs(assumption) > (sets != null ? sets.getFeatureCount() : features)) {
+                throw new IllegalArgumentException("No feature literal: " + assumption);
+            }
+            allowed[index(-(sets != null ? sets.toSetLiteral(assumption) : assumption))] = 0;
+        }
+
+        // Children always come before their parents, so both passes are plain loops over the ids
+        int nodes = kind.length;
+        BigInteger[] value = new BigInteger[nodes];
+        for (int node = 0; node < nodes; node++) {
+            if (kind[node] == LITERAL) {
+                value[node] = allowed[index(literal[node])] == 1 ? BigInteger.ONE : BigInteger.ZERO;
+            } else if (kind[node] == AND) {
+                BigInteger product = BigInteger.ONE;
+                for (int i = childStart[node]; i < childStart[node + 1] && product.signum() != 0; i++) {
+                    product = product.multiply(value[children[i]]);
+                }
+                value[node] = product;
+            } else {
+                BigInteger sum = BigInteger.ZERO;
+                for (int i = childStart[node]; i < childStart[node + 1]; i++) {
+                    sum = sum.add(value[children[i]]);
+                }
+                value[node] = sum;
+            }
+        }
+
+        BigInteger[] derivative = new BigInteger[nodes];
+        Arrays.fill(derivative, BigInteger.ZERO);
+        derivative[root] = BigInteger.ONE;
+        for (int node = root; node >= 0; node--) {
+            BigInteger d = derivative[node];
+            if (d.signum() == 0 || kind[node] == LITERAL) {
+                continue;
+            }
+            if (kind[node] == OR) {
+                for (int i = childStart[node]; i < childStart[node + 1]; i++) {
+                    derivative[children[i]] = derivative[children[i]].add(d);
+                }
+                continue;
+            }
+            // And: the derivative of a child is the product of its siblings
+            int zeros = 0;
+            BigInteger nonZero = BigInteger.ONE;
+            for (int i = childStart[node]; i < childStart[node + 1]; i++) {
+                BigInteger v = value[children[i]];
+                if (v.signum() == 0) {
+                    zeros++;
+                } else {
+                    nonZero = nonZero.multiply(v);
+                }
+            }
+            if (zeros > 1) {
+                continue;
+            }
+            for (int i = childStart[node]; i < childStart[node + 1]; i++) {
+                BigInteger v = value[children[i]];
+                BigInteger siblings;
+                if (zeros == 1) {
+                    if (v.signum() != 0) {
+                        continue;
+                    }
+                    siblings = nonZero;
+                } else {
+                    siblings = nonZero.divide(v);
+                }
+                derivative[children[i]] = derivative[children[i]].add(d.multiply(siblings));
+            }
+        }
+
+        BigInteger[] selected = new BigInteger[features];
+        for (int feature = 0; feature < features; feature++) {
+            int node = literalNode[index(Cnf.literal(feature, true))];
+            selected[feature] = node < 0 ? BigInteger.ZERO : derivative[node].multiply(value[node]);
+        }
+        return new Counts(value[root], selected, sets);
+    }
+
+    private static int index(int literal) {
+        return literal > 0 ? 2 * literal : -2 * literal + 1;
+    }
+
+    public static final class Counts {
+        private final BigInteger total;
+        // Per variable of the circuit, feature or atomic set
+        private final BigInteger[] selected;
+        private final AtomicSets sets;
+
+        Counts(BigInteger total, BigInteger[] selected, AtomicSets sets) {
+            this.total = total;
+            this.selected = selected;
+            this.sets = sets;
+        }
+
+        public BigInteger getTotal() {
+            return total;
+        }
+
+        public BigInteger getSelected(int feature) {
+            return selected[sets != null ? sets.getSet(feature) : feature];
+        }
+    }
+
+    private static final class Compiler {
+        final Cnf cnf;
+        final int[][] clauses;
+        // Clauses containing each literal, indexed like literalNode
+        final int[][] occurrences;
+        final byte[] value;
+        final int[] trail;
+        int trailSize;
+
+        byte[] kind = new byte[256];
+        int[] literal = new int[256];
+        int[] childStart = new int[257];
+        int[] children = new int[1024];
+        int nodes;
+        int childCount;
+        final int[] literalNode;
+        final int[] freeNode;
+        final Map<Key, Integer> cache = new HashMap<>();
+
+        // Marks for splitting into components, compared against a fresh stamp on every split
+        final int[] varMark;
+        final int[] clauseMark;
+        int stamp;
+
+        Compiler(Cnf cnf) {
+            this.cnf = cnf;
+            this.clauses = cnf.getClauses();
+            int variables = cnf.getVariableCount();
+            this.value = new byte[variables + 1];
+            this.trail = new int[variables];
+            this.literalNode = new int[2 * (variables + 1)];
+            this.freeNode = new int[variables + 1];
+            this.varMark = new int[variables + 1];
+            this.clauseMark = new int[clauses.length];
+            Arrays.fill(literalNode, -1);
+            Arrays.fill(freeNode, -1);
+
+            int[] counts = new int[2 * (variables + 1)];
+            for (int[] clause : clauses) {
+                for (int lit : clause) {
+                    counts[index(lit)]++;
+                }
+            }
+            occurrences = new int[counts.length][];
+            for (int i = 0; i < counts.length; i++) {
+                occurrences[i] = new int[counts[i]];
+                counts[i] = 0;
+            }
+            for (int c = 0; c < clauses.length; c++) {
+                for (int lit : clauses[c]) {
+                    occurrences[index(lit)][counts[index(lit)]++] = c;
+                }
+            }
+
+            addNode(OR, 0, new int[0], 0);
+            addNode(AND, 0, new int[0], 0);
+        }
+
+        int compileAll() {
+            int[] vars = new int[cnf.getVariableCount()];
+            for (int v = 0; v < vars.length; v++) {
+                vars[v] = v + 1;
+            }
+            int[] all = new int[clauses.length];
+            for (int c = 0; c < all.length; c++) {
+                all[c] = c;
+            }
+            for (int[] clause : clauses) {
+                if (clause.length == 0) {
+                    return FALSE;
+                }
+                if (clause.length == 1 && !assign(clause[0])) {
+                    return FALSE;
+                }
+            }
+            if (!propagate(0)) {
+                return FALSE;
+            }
+            return conjoin(0, vars, all);
+        }
+
+        // Component given by its unassigned variables and open clauses, no unit clauses pending
+        private int compile(int[] vars, int[] clauseIds) {
+            Key key = new Key(vars, clauseIds);
+            Integer cached = cache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+
+            // Most frequent variable first, ties go to the lower id (closer to the root)
+            int best = 0;
+            int bestCount = -1;
+            for (int v : vars) {
+                int count = occurrences[index(v)].length + occurrences[index(-v)].length;
+                if (count > bestCount) {
+                    best = v;
+                    bestCount = count;
+                }
+            }
+
+            int positive = decide(best, vars, clauseIds);
+            int negative = decide(-best, vars, clauseIds);
+            int node;
+            if (positive == FALSE) {
+                node = negative;
+            } else if (negative == FALSE) {
+                node = positive;
+            } else {
+                node = addNode(OR, 0, new int[]{positive, negative}, 2);
+            }
+            cache.put(key, node);
+            return node;
+        }
+
+        private int decide(int lit, int[] vars, int[] clauseIds) {
+            int mark = trailSize;
+            int node = FALSE;
+            if (assign(lit) && propagate(mark)) {
+                node = conjoin(mark, vars, clauseIds);
+            }
+            while (trailSize > mark) {
+                value[Math.abs(trail[--trailSize])] = 0;
+            }
+            return node;
+        }
+
+        // And of the literals assigned since mark, the free variables and the components of what
+        // remains of vars and clauseIds
+        private int conjoin(int mark, int[] vars, int[] clauseIds) {
+            List<Integer> parts = new ArrayList<>();
+            for (int i = mark; i < trailSize; i++) {
+                parts.add(literalNode(trail[i]));
+            }
+
+            int current = ++stamp;
+            List<Integer> open = new ArrayList<>();
+            for (int c : clauseIds) {
+                if (!isSatisfied(clauses[c])) {
+                    clauseMark[c] = current;
+                    open.add(c);
+                }
+            }
+            for (int v : vars) {
+                if (value[v] == 0) {
+                    varMark[v] = current;
+                }
+            }
+
+            // Each unvisited variable of an open clause starts a component, found by a walk over
+            // the clauses its variables occur in
+            List<int[][]> components = new ArrayList<>();
+            int visited = ++stamp;
+            List<Integer> componentVars = new ArrayList<>();
+            List<Integer> componentClauses = new ArrayList<>();
+            for (int start : open) {
+                if (clauseMark[start] != current) {
+                    continue;
+                }
+                componentVars.clear();
+                componentClauses.clear();
+                clauseMark[start] = visited;
+                componentClauses.add(start);
+                for (int next = 0; next < componentClauses.size(); next++) {
+                    for (int lit : clauses[componentClauses.get(next)]) {
+                        int v = Math.abs(lit);
+                        if (varMark[v] != current) {
+                            continue;
+                        }
+                        varMark[v] = visited;
+                        componentVars.add(v);
+                        collect(occurrences[index(v)], current, visited, componentClauses);
+                        collect(occurrences[index(-v)], current, visited, componentClauses);
+                    }
+                }
+                components.add(new int[][]{sorted(componentVars), sorted(componentClauses)});
+            }
+            for (int v : vars) {
+                if (varMark[v] == current) {
+                    parts.add(freeNode(v));
+                }
+            }
+
+            for (int[][] component : components) {
+                int node = compile(component[0], component[1]);
+                if (node == FALSE) {
+                    return FALSE;
+                }
+                parts.add(node);
+            }
+            if (parts.isEmpty()) {
+                return TRUE;
+            }
+            if (parts.size() == 1) {
+                return parts.get(0);
+            }
+            int[] list = new int[parts.size()];
+            for (int i = 0; i < list.length; i++) {
+                list[i] = parts.get(i);
+            }
+            return addNode(AND, 0, list, list.length);
+        }
+
+        private void collect(int[] clauseIds, int current, int visited, List<Integer> into) {
+            for (int c : clauseIds) {
+                if (clauseMark[c] == current) {
+                    clauseMark[c] = visited;
+                    into.add(c);
+                }
+            }
+        }
+
+        private boolean isSatisfied(int[] clause) {
+            for (int lit : clause) {
+                if (value[Math.abs(lit)] == (lit > 0 ? 1 : -1)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // False when lit is already false
+        private boolean assign(int lit) {
+            int v = Math.abs(lit);
+            byte wanted = (byte) (lit > 0 ? 1 : -1);
+            if (value[v] != 0) {
+                return value[v] == wanted;
+            }
+            value[v] = wanted;
+            trail[trailSize++] = lit;
+            return true;
+        }
+
+        // Unit propagation of the trail from position from on, false on a conflict
+        private boolean propagate(int from) {
+            for (int head = from; head < trailSize; head++) {
+                for (int c : occurrences[index(-trail[head])]) {
+                    int unassigned = 0;
+                    int last = 0;
+                    boolean satisfied = false;
+                    for (int lit : clauses[c]) {
+                        byte v = value[Math.abs(lit)];
+                        if (v == 0) {
+                            unassigned++;
+                            last = lit;
+                        } else if (v == (lit > 0 ? 1 : -1)) {
+                            satisfied = true;
+                            break;
+                        }
+                    }
+                    if (satisfied) {
+                        continue;
+                    }
+                    if (unassigned == 0) {
+                        return false;
+                    }
+                    if (unassigned == 1) {
+                        assign(last);
+                    }
+                }
+            }
+            return true;
+        }
+
+        private int literalNode(int lit) {
+            int i = index(lit);
+            if (literalNode[i] < 0) {
+                literalNode[i] = addNode(LITERAL, lit, new int[0], 0);
+            }
+            return literalNode[i];
+        }
+
+        // v or -v
+        private int freeNode(int v) {
+            if (freeNode[v] < 0) {
+                int positive = literalNode(v);
+                int negative = literalNode(-v);
+                freeNode[v] = addNode(OR, 0, new int[]{positive, negative}, 2);
+            }
+            return freeNode[v];
+        }
+
+        private int addNode(byte type, int lit, int[] list, int count) {
+            if (nodes + 1 >= kind.length) {
+                kind = Arrays.copyOf(kind, kind.length * 2);
+                literal = Arrays.copyOf(literal, literal.length * 2);
+                childStart = Arrays.copyOf(childStart, childStart.length * 2);
+            }
+            while (childCount + count > children.length) {
+                children = Arrays.copyOf(children, children.length * 2);
+            }
+            kind[nodes] = type;
+            literal[nodes] = lit;
+            childStart[nodes] = childCount;
+            System.arraycopy(list, 0, children, childCount, count);
+            childCount += count;
+            return nodes++;
+        }
+
+        private static int[] sorted(List<Integer> values) {
+            int[] array = new int[values.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = values.get(i);
+            }
+            Arrays.sort(array);
+            return array;
+        }
+    }
+
+    // Component cache key: its variables and open clauses. Under any assignment reaching it the clauses
+    // restricted to the variables are the same, and so is the compiled node.
+    private static final class Key {
+        final int[] vars;
+        final int[] clauses;
+        final int hash;
+
+        Key(int[] vars, int[] clauses) {
+            this.vars = vars;
+            this.clauses = clauses;
+            this.hash = 31 * Arrays.hashCode(vars) + Arrays.hashCode(clauses);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return hash == key.hash && Arrays.equals(vars, key.vars) && Arrays.equals(clauses, key.clauses);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.fop.backend;
+
+import java.util.concurrent.Callable;
+import java.util.function.Supplier;
+
+// Runs recursive model algorithms (parsing and converting constraints, d-DNNF and BDD compilation) on
+// a thread with a large stack. Their recursion depth grows with the number of features and the nesting
+// of constraints, which the default stack of a server thread cannot take on big models. Running out of
+// even this stack is reported as an IllegalStateException, like any other model error.
+final class DeepRecursion {
+
+    private static final long STACK_SIZE = 1L << 28;
+
+    private DeepRecursion() {
+    }
+
+    static <T> T run(String name, Supplier<T> task) {
+        try {
+            return call(name, task::get);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            // A Supplier throws no checked exceptions
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static <T> T call(String name, Callable<T> task) throws Exception {
+        Object[] result = new Object[1];
+        Throwable[] failure = new Throwable[1];
+        Thread thread = new Thread(null, () -> {
+            try {
+                result[0] = task.call();
+            } catch (StackOverflowError e) {
+                failure[0] = new IllegalStateException("Model too deep for " + name, e);
+            } catch (Throwable e) {
+                failure[0] = e;
+            }
+        }, name, STACK_SIZE);
+        thread.start();
+        // A cancelled caller passes the interrupt on and waits for the task to stop, so nothing it
+        // writes to shared output overlaps with the caller's error handling
+        boolean interrupted = false;
+        while (true) {
+            try {
+                thread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+                thread.interrupt();
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure[0] instanceof Exception) {
+            throw (Exception) failure[0];
+        }
+        if (failure[0] instanceof Error) {
+            throw (Error) failure[0];
+        }
+        @SuppressWarnings("unchecked")
+        T value = (T) result[0];
+        return value;
+    }
+}
@@ -1,8 +1,20 @@
 package com.fop.backend;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class FeatureHouseInvoker {
 
@@ -10,6 +22,16 @@ public class FeatureHouseInvoker {
             String configFilePath,
             String featuresFolderPath,
             String outputFolderPath) {
+        return buildVariant(configFilePath, featuresFolderPath, outputFolderPath, BuildEvents.NONE);
+    }
+
+    // {"status","message","files","cached","millis","changes"}, the same fields as one entry of
+    // buildVariants, so an editor learns which files it has to reload
+    public static String buildVariant(
+            String configFilePath,
+            String featuresFolderPath,
+            String outputFolderPath,
+            BuildEvents events) {
         File configFile = new File(configFilePath);
         File featuresFolder = new File(featuresFolderPath);
 
@@ -19,54 +41,186 @@ public class FeatureHouseInvoker {
         String outputPath = outputFolderPath.substring(0, i);
 
         if (!configFile.exists()) {
-            return "Cannot find config file";
+            return BuildResult.failed("Cannot find config file").toJson();
         }
 
         if (!featuresFolder.isDirectory()) {
-            return "Cannot find features folder";
+            return BuildResult.failed("Cannot find features folder").toJson();
         }
         File outputPathFile = new File(outputPath);
         if (!outputPathFile.exists()) {
             outputPathFile.mkdirs();
         }
 
-        // Generate unique temporary folder name with timestamp-based UUID
-        String tmpFilePath = outputFolderPath + ".features";
-        File tmpFile = new File(tmpFilePath);
+        FeatureSources sources = new FeatureSources(featuresFolder.toPath());
+        return build(configFile, sources, Paths.get(outputFolderPath), events).toJson();
+    }
+
+    // Builds every configuration of a folder (*.xml) or a manifest in one JVM, sharing the scanned
+    // feature modules between them. A manifest lists one "<configFile> [outputFolder]" per line,
+    // relative paths are resolved against the manifest; without an output folder a configuration is
+    // built into <outputRoot>/<config name>. Up to parallelism configurations are built at once.
+    public static String buildVariants(
+            String configsPath,
+            String featuresFolderPath,
+            String outputRootPath,
+            int parallelism,
+            BuildEvents events) {
+        File configs = new File(configsPath);
+        File featuresFolder = new File(featuresFolderPath);
+        Path outputRoot = Paths.get(outputRootPath).toAbsolutePath();
+
+        if (!configs.exists()) {
+            return "{\"status\":\"error\",\"message\":\"Cannot find configurations: " + ModelHandler.escapeJson(configsPath) + "\"}";
+        }
+        if (!featuresFolder.isDirectory()) {
+            return "{\"status\":\"error\",\"message\":\"Cannot find features folder\"}";
+        }
+
+        List<Path[]> jobs;
+        try {
+            jobs = configs.isDirectory() ? listConfigs(configs.toPath(), outputRoot) : readManifest(configs.toPath(), outputRoot);
+        } catch (IOException e) {
+            return "{\"status\":\"error\",\"message\":\"" + ModelHandler.escapeJson(e.getMessage()) + "\"}";
+        }
+
+        return buildAll(jobs, new FeatureSources(featuresFolder.toPath()), parallelism, events);
+    }
 
-        //System.out.println("Temp file path: " + tmpFilePath);
+    private static String buildAll(List<Path[]> jobs, FeatureSources sources, int parallelism, BuildEvents events) {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, jobs.size())));
+        List<Future<BuildResult>> futures = new ArrayList<>();
+        for (Path[] job : jobs) {
+            Path config = job[0];
+            Path output = job[1];
+            BuildEvents configEvents = events.forConfig(config.toString());
+            futures.add(executor.submit(() -> {
+                configEvents.configStarted();
+                BuildResult result = config.toFile().isFile()
+                        ? build(config.toFile(), sources, output, configEvents)
+                        : BuildResult.failed("Cannot find config file");
+                configEvents.configFinished(result.ok);
+                return result;
+            }));
+        }
 
+        StringBuilder json = new StringBuilder("{\"status\":\"ok\",\"results\":[");
+        int failed = 0;
         try {
-            ConfigHandler.makeFeatureFileFromConfig(
-                    configFile, tmpFile);
+            for (int j = 0; j < jobs.size(); j++) {
+                BuildResult result = await(futures.get(j));
+                if (!result.ok) {
+                    failed++;
+                }
+                if (j > 0) {
+                    json.append(',');
+                }
+                json.append("{\"config\":\"").append(ModelHandler.escapeJson(jobs.get(j)[0].toString()))
+                        .append("\",\"output\":\"").append(ModelHandler.escapeJson(jobs.get(j)[1].toString()))
+                        .append("\",");
+                result.appendFields(json);
+                json.append('}');
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        json.append("],\"built\":").append(jobs.size() - failed).append(",\"failed\":").append(failed).append('}');
+        return json.toString();
+    }
+
+    private static BuildResult await(Future<BuildResult> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            // Cancelled batch, the remaining builds get interrupted by shutdownNow
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            return BuildResult.failed("Build cancelled");
+        } catch (ExecutionException e) {
+            return BuildResult.failed("Build failed: " + e.getCause());
+        }
+    }
+
+    static BuildResult build(File configFile, FeatureSources sources, Path outputFolder, BuildEvents events) {
+        long buildStart = System.nanoTime();
+
+        events.phaseStarted("configure");
+        List<String> selectedFeatures;
+        try {
+            selectedFeatures = ConfigHandler.getSelectedFeatures(configFile);
         } catch (Exception e) {
-            return "Error creating feature file from configuration: " + e.getMessage();
+            return BuildResult.failed("Error reading selected features from configuration: " + e.getMessage());
         }
+        events.phaseFinished("configure");
 
-        // Call FeatureHouse directly instead of spawning a process
+        // FeatureHouse reports on System.out, which every entry point points at stderr once at startup
+        // (see BackendMain), so results and events written to their own stream stay clean
         try {
+            int collected = 0;
+            if (events.isEnabled()) {
+                events.phaseStarted("collect");
+                collected = collectSourceFiles(sources, selectedFeatures, events);
+                events.phaseFinished("collect");
+            }
 
-            String[] fhArgs = {
-                    "--expression", tmpFilePath,
-                    "--base-directory", featuresFolderPath,
-                    "--output-directory", outputPath
-            };
+            ComposedVariant variant = null;
+            String cacheKey = null;
+            BuildCache cache = BuildCache.variants();
+            if (cache != null) {
+                events.phaseStarted("cache");
+                cacheKey = sources.variantKey(selectedFeatures);
+                variant = cache.get(cacheKey, selectedFeatures);
+                events.cacheLookup(cacheKey, variant != null);
+                events.phaseFinished("cache");
+            }
+
+            boolean cached = variant != null;
+            if (variant == null) {
+                events.phaseStarted("compose");
+                BuildCache fileCache = BuildCache.files();
+                if (fileCache != null) {
+                    IncrementalComposer composer = new IncrementalComposer(sources, fileCache);
+                    variant = composer.compose(selectedFeatures);
+                    events.incremental(composer.getReusedGroups(), composer.getComposedGroups());
+                } else {
+                    variant = VariantComposer.compose(selectedFeatures, sources.getFeaturesFolder().toFile());
+                }
+                for (String file : variant.getFiles().keySet()) {
+                    events.fileComposed(file);
+                }
+                events.phaseFinished("compose");
 
-            //System.out.println("Calling FeatureHouse with args:");
-            //System.out.println("  --expression: \n" + tmpFilePath);
-            //System.out.println("  --base-directory: \n" + featuresFolderPath);
-            //System.out.println("  --output-directory: \n" + outputPath + "\n\n");
-            // Invoke FeatureHouse main method
-            composer.FSTGenComposer.main(fhArgs);
+                // If we get here, FeatureHouse succeeded
+                System.err.println("FeatureHouse completed successfully");
 
-            // If we get here, FeatureHouse succeeded
-            System.out.println("\nFeatureHouse completed successfully");
+                if (cache != null) {
+                    try {
+                        cache.put(cacheKey, variant);
+                    } catch (IOException e) {
+                        System.err.println("Could not store variant in build cache: " + e.getMessage());
+                    }
+                }
+            } else {
+                System.err.println("Variant restored from build cache");
+            }
 
-            boolean tmpFileDeleted = tmpFile.delete();
-            System.out.println("Deleted temp .features file: " + tmpFileDeleted);
+            // Composition in this JVM cannot be interrupted and runs to its end after a cancel, but a
+            // cancelled build leaves the output folder as it was. Once writing started it completes, so
+            // the folder never holds half a variant.
+            if (Thread.currentThread().isInterrupted()) {
+                return BuildResult.failed("Build cancelled");
+            }
+            events.phaseStarted("write");
+            VariantWriter.Changes changes = VariantWriter.write(variant, outputFolder, events);
+            events.phaseFinished("write");
+            long millis = (System.nanoTime() - buildStart) / 1_000_000;
+            events.summary(collected, changes, millis);
 
-            return "Built Variant Successfully";
+            return new BuildResult(true, "Built Variant Successfully", variant.size(), cached, millis, changes);
 
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return BuildResult.failed("Build cancelled");
         } catch (Exception e) {
             // Build detailed error message
             StringBuilder errorMsg = new StringBuilder();
@@ -77,7 +231,94 @@ public class FeatureHouseInvoker {
             if (e.getCause() != null) {
                 errorMsg.append("\nCause: ").append(e.getCause().getMessage());
             }
-            return errorMsg.toString();
+            return BuildResult.failed(errorMsg.toString());
+        }
+    }
+
+    // Reports every source file FeatureHouse is going to parse for the selected features
+    private static int collectSourceFiles(FeatureSources sources, List<String> features, BuildEvents events)
+            throws IOException {
+        int count = 0;
+        for (String feature : features) {
+            for (String file : sources.hashes(feature).keySet()) {
+                events.fileCollected(feature, file);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static List<Path[]> listConfigs(Path folder, Path outputRoot) throws IOException {
+        List<Path[]> jobs = new ArrayList<>();
+        try (Stream<Path> files = Files.list(folder)) {
+            for (Path config : files.filter(p -> p.toString().endsWith(".xml")).sorted().collect(Collectors.toList())) {
+                jobs.add(new Path[]{config, outputRoot.resolve(baseName(config))});
+            }
+        }
+        return jobs;
+    }
+
+    private static List<Path[]> readManifest(Path manifest, Path outputRoot) throws IOException {
+        List<Path[]> jobs = new ArrayList<>();
+        Path base = manifest.toAbsolutePath().getParent();
+        try (BufferedReader reader = Files.newBufferedReader(manifest, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] parts = line.split("\\s+", 2);
+                Path config = base.resolve(parts[0]);
+                Path output = parts.length > 1 ? base.resolve(parts[1]) : outputRoot.resolve(baseName(config));
+                jobs.add(new Path[]{config, output});
+            }
+        }
+        return jobs;
+    }
+
+    private static String baseName(Path config) {
+        String name = config.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    static class BuildResult {
+        final boolean ok;
+        final String message;
+        final int files;
+        final boolean cached;
+        final long millis;
+        final VariantWriter.Changes changes;
+
+        BuildResult(boolean ok, String message, int files, boolean cached, long millis, VariantWriter.Changes changes) {
+            this.ok = ok;
+            this.message = message;
+            this.files = files;
+            this.cached = cached;
+            this.millis = millis;
+            this.changes = changes;
+        }
+
+        static BuildResult failed(String message) {
+            return new BuildResult(false, message, 0, false, 0, null);
+        }
+
+        String toJson() {
+            StringBuilder json = new StringBuilder("{");
+            appendFields(json);
+            return json.append('}').toString();
+        }
+
+        void appendFields(StringBuilder json) {
+            json.append("\"status\":\"").append(ok ? "ok" : "error")
+                    .append("\",\"message\":\"").append(ModelHandler.escapeJson(message))
+                    .append("\",\"files\":").append(files)
+                    .append(",\"cached\":").append(cached)
+                    .append(",\"millis\":").append(millis);
+            if (changes != null) {
+                json.append(",\"changes\":").append(changes.toJson());
+            }
         }
     }
 }
@@ -0,0 +1,126 @@
+package com.fop.backend;
+
+import java.lang.reflect.InvocationTargetException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.CodeSource;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Runs FeatureHouse in isolated class loaders so several compositions can run in parallel.
+//
+// FSTGenComposer and its helpers keep their state in statics. Every class loader of the pool loads its
+// own copy of the FeatureHouse classes, so those statics exist once per loader and a loader serves one
+// composition at a time. Loaders are created on demand up to the pool size and reused afterwards.
+public class FeatureHousePool {
+
+    private static final String COMPOSER_CLASS = "composer.FSTGenComposer";
+
+    private static volatile FeatureHousePool defaultPool;
+    private static volatile boolean defaultResolved;
+
+    private final URL[] classpath;
+    private final int size;
+    private final BlockingQueue<ClassLoader> idle = new LinkedBlockingQueue<>();
+    private int created = 0;
+
+    public FeatureHousePool(URL[] classpath, int size) {
+        this.classpath = classpath;
+        this.size = Math.max(1, size);
+    }
+
+    // Number of compositions that may run at once, -Dfop.parallelism, defaults to the processor count
+    public static int defaultParallelism() {
+        return Math.max(1, Integer.getInteger("fop.parallelism", Runtime.getRuntime().availableProcessors()));
+    }
+
+    // Null when isolation is switched off (-Dfop.isolation=false) or FeatureHouse' location is unknown
+    public static FeatureHousePool getDefault() {
+        if (!defaultResolved) {
+            synchronized (FeatureHousePool.class) {
+                if (!defaultResolved) {
+                    defaultPool = createDefault();
+                    defaultResolved = true;
+                }
+            }
+        }
+        return defaultPool;
+    }
+
+    private static FeatureHousePool createDefault() {
+        if (!Boolean.parseBoolean(System.getProperty("fop.isolation", "true"))) {
+            return null;
+        }
+        CodeSource source = composer.FSTGenComposer.class.getProtectionDomain().getCodeSource();
+        if (source == null || source.getLocation() == null) {
+            System.err.println("FeatureHouse location unknown, compositions run one at a time");
+            return null;
+        }
+        return new FeatureHousePool(new URL[]{source.getLocation()}, defaultParallelism());
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public void run(String[] args) throws Exception {
+        ClassLoader loader = acquire();
+        boolean healthy = false;
+        Thread thread = Thread.currentThread();
+        ClassLoader previous = thread.getContextClassLoader();
+        try {
+            thread.setContextClassLoader(loader);
+            Class<?> composerClass = Class.forName(COMPOSER_CLASS, true, loader);
+            Object composer = composerClass.getConstructor().newInstance();
+            composerClass.getMethod("run", String[].class).invoke(composer, (Object) args);
+            healthy = true;
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            // A failed composition can leave the statics of this loader in any state
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw new Exception("FeatureHouse failed: " + cause, cause);
+        } finally {
+            thread.setContextClassLoader(previous);
+            release(loader, healthy);
+        }
+    }
+
+    private ClassLoader acquire() throws InterruptedException {
+        while (true) {
+            ClassLoader loader = idle.poll();
+            if (loader != null) {
+                return loader;
+            }
+            synchronized (this) {
+                if (created < size) {
+                    created++;
+                    return new URLClassLoader(classpath, ClassLoader.getPlatformClassLoader());
+                }
+            }
+            // Poll instead of take, a dropped loader frees a slot without ever coming back to the queue
+            loader = idle.poll(100, TimeUnit.MILLISECONDS);
+            if (loader != null) {
+                return loader;
+            }
+        }
+    }
+
+    private void release(ClassLoader loader, boolean healthy) {
+        if (healthy) {
+            idle.offer(loader);
+            return;
+        }
+        // Drop the loader, a fresh one is created the next time the pool runs dry
+        synchronized (this) {
+            created--;
+        }
+        try {
+            ((URLClassLoader) loader).close();
+        } catch (Exception e) {
+            System.err.println("Could not close FeatureHouse class loader: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package com.fop.backend;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Immutable feature tree with features numbered 0..size-1 in document order (pre-order, the root is 0),
+// plus the cross-tree constraints of the model.
+//
+// Everything about a feature lives in primitive arrays indexed by its id: parent, first child, next
+// sibling, group type and the mandatory/abstract flags. Names map to ids in O(1). Instances come from
+// ModelRegistry, which keeps them per model file, so analyses and builds share one parsed copy.
+public final class FeatureModel {
+
+    public static final byte GROUP_AND = 0;
+    public static final byte GROUP_OR = 1;
+    public static final byte GROUP_ALT = 2;
+
+    static final byte MANDATORY = 1;
+    static final byte ABSTRACT = 2;
+
+    private final String[] names;
+    private final String[] tagTable;
+    private final byte[] tags;
+    private final byte[] flags;
+    private final int[] parent;
+    private final int[] firstChild;
+    private final int[] nextSibling;
+    private final byte[] groupType;
+    private final Map<String, Integer> ids;
+    private final Formula[] constraints;
+
+    private volatile Cnf cnf;
+    private volatile DDnnf ddnnf;
+    private volatile AtomicSets atomicSets;
+    private SatSolver solver;
+
+    // Arrays are taken over, callers must not change them afterwards. Names must be unique, constraints
+    // and configurations refer to features by name.
+    FeatureModel(String[] names, String[] tagTable, byte[] tags, byte[] flags, int[] parent, Formula[] constraints) {
+        this.names = names;
+        this.tagTable = tagTable;
+        this.tags = tags;
+        this.flags = flags;
+        this.parent = parent;
+        this.constraints = constraints;
+        this.firstChild = new int[names.length];
+        this.nextSibling = new int[names.length];
+        this.groupType = new byte[names.length];
+
+        Arrays.fill(firstChild, -1);
+        Arrays.fill(nextSibling, -1);
+        // Features are in document order, so walking backwards and prepending keeps the children in order
+        for (int id = names.length - 1; id > 0; id--) {
+            int p = parent[id];
+            nextSibling[id] = firstChild[p];
+            firstChild[p] = id;
+        }
+
+        Map<String, Integer> ids = new HashMap<>(names.length * 2);
+        for (int id = 0; id < names.length; id++) {
+            String tag = tagTable[tags[id] & 0xff];
+            groupType[id] = tag.equals("or") ? GROUP_OR : tag.equals("alt") ? GROUP_ALT : GROUP_AND;
+            if (ids.putIfAbsent(names[id], id) != null) {
+                throw new IllegalStateException("Feature name " + names[id] + " is used more than once");
+            }
+        }
+        this.ids = Collections.unmodifiableMap(ids);
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public int getRoot() {
+        return 0;
+    }
+
+    public String getName(int id) {
+        return names[id];
+    }
+
+    // -1 for unknown names
+    public int getId(String name) {
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    // -1 for the root
+    public int getParent(int id) {
+        return parent[id];
+    }
+
+    // -1 for leaves
+    public int getFirstChild(int id) {
+        return firstChild[id];
+    }
+
+    // -1 for the last child
+    public int getNextSibling(int id) {
+        return nextSibling[id];
+    }
+
+    public int getChildCount(int id) {
+        int count = 0;
+        for (int child = firstChild[id]; child >= 0; child = nextSibling[child]) {
+            count++;
+        }
+        return count;
+    }
+
+    // Group type of the children: GROUP_AND, GROUP_OR or GROUP_ALT (leaves count as GROUP_AND)
+    public byte getGroupType(int id) {
+        return groupType[id];
+    }
+
+    // Element name in the XML: and, or, alt or feature
+    public String getType(int id) {
+        return tagTable[tags[id] & 0xff];
+    }
+
+    public boolean isMandatory(int id) {
+        return (flags[id] & MANDATORY) != 0;
+    }
+
+    public boolean isAbstract(int id) {
+        return (flags[id] & ABSTRACT) != 0;
+    }
+
+    // Feature ids of a subtree are contiguous in pre-order, this is the first id after the subtree of id
+    public int getSubtreeEnd(int id) {
+        for (int node = id; node >= 0; node = parent[node]) {
+            if (nextSibling[node] >= 0) {
+                return nextSibling[node];
+            }
+        }
+        return names.length;
+    }
+
+    public int getConstraintCount() {
+        return constraints.length;
+    }
+
+    public Formula getConstraint(int index) {
+        return constraints[index];
+    }
+
+    // Names in the constraint that are no feature of the model, empty for a usable constraint
+    public List<String> getUnknownFeatures(int index) {
+        List<String> names = new ArrayList<>();
+        constraints[index].collectUnknown(names);
+        return names;
+    }
+
+    // Analyses need every constraint as a formula over features; a constraint left with a removed or
+    // misspelled name is an error rather than a rule to ignore
+    public void checkConstraints() {
+        for (int i = 0; i < constraints.length; i++) {
+            List<String> unknown = getUnknownFeatures(i);
+            if (!unknown.isEmpty()) {
+                throw new IllegalStateException("Constraint " + i + " names unknown features: " + String.join(", ", unknown));
+            }
+        }
+    }
+
+    FeatureModel withConstraints(Formula[] constraints) {
+        return new FeatureModel(names, tagTable, tags, flags, parent, constraints);
+    }
+
+    // Built on first use and kept with the model
+    public Cnf getCnf() {
+        Cnf result = cnf;
+        if (result == null) {
+            result = Cnf.of(this);
+            cnf = result;
+        }
+        return result;
+    }
+
+    // Computed on first use and kept with the model
+    public AtomicSets getAtomicSets() {
+        AtomicSets result = atomicSets;
+        if (result == null) {
+            result = AtomicSets.compute(this);
+            atomicSets = result;
+        }
+        return result;
+    }
+
+    // Compiled from the Cnf collapsed to atomic sets on first use, for counting configurations
+    public DDnnf getDDnnf() {
+        DDnnf result = ddnnf;
+        if (result == null) {
+            AtomicSets sets = AtomicSets.ofTree(this);
+            result = DDnnf.compile(Cnf.collapse(getCnf(), sets), sets);
+            ddnnf = result;
+        }
+        return result;
+    }
+
+    // One solver per model that keeps what it learned between queries. Not thread safe: callers
+    // synchronize on it for as long as they use it.
+    public synchronized SatSolver getSolver() {
+        if (solver == null) {
+            solver = new SatSolver(getCnf());
+        }
+        return solver;
+    }
+
+    // Raw arrays for the snapshot format
+    String[] tagTable() {
+        return tagTable;
+    }
+
+    byte tag(int id) {
+        return tags[id];
+    }
+
+    byte flags(int id) {
+        return flags[id];
+    }
+
+    void writeConstraintsJson(JsonWriter json) throws IOException {
+        json.beginArray();
+        for (Formula constraint : constraints) {
+            constraint.writeJson(json, this);
+        }
+        json.endArray();
+    }
+
+    // The constraints with unknown names, as in the streaming loader
+    void writeConstraintErrorsJson(JsonWriter json) throws IOException {
+        json.beginArray();
+        for (int i = 0; i < constraints.length; i++) {
+            List<String> unknown = getUnknownFeatures(i);
+            if (!unknown.isEmpty()) {
+                ModelHandler.writeConstraintError(json, i, unknown);
+            }
+        }
+        json.endArray();
+    }
+
+    // Same JSON as the streaming loader, written without recursion
+    void writeJson(JsonWriter json) throws IOException {
+        int node = 0;
+        while (true) {
+            json.beginObject();
+            json.name("name").value(names[node]);
+            json.name("type").value(getType(node));
+            json.name("mandatory").value(isMandatory(node));
+            json.name("abstract").value(isAbstract(node));
+            json.name("children").beginArray();
+            if (firstChild[node] >= 0) {
+                node = firstChild[node];
+                continue;
+            }
+            // Close finished features until one has a next sibling
+            while (true) {
+                json.endArray().endObject();
+                if (nextSibling[node] >= 0) {
+                    node = nextSibling[node];
+                    break;
+                }
+                node = parent[node];
+                if (node < 0) {
+                    return;
+                }
+            }
+        }
+    }
+}
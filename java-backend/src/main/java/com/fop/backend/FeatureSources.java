@@ -0,0 +1,115 @@
+package com.fop.backend;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+// Content hashes of the source files inside feature folders. An instance remembers the hashes of
+// every feature it has seen, so several compositions over the same folder scan each feature once.
+public class FeatureSources {
+
+    // Bump when the composition output could change for the same inputs
+    private static final String KEY_VERSION = "fop-variant-1";
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Path featuresFolder;
+    private final Map<String, SortedMap<String, String>> features = new ConcurrentHashMap<>();
+
+    public FeatureSources(Path featuresFolder) {
+        this.featuresFolder = featuresFolder;
+    }
+
+    public Path getFeaturesFolder() {
+        return featuresFolder;
+    }
+
+    public SortedMap<String, String> hashes(String feature) throws IOException {
+        SortedMap<String, String> hashes = features.get(feature);
+        if (hashes == null) {
+            hashes = hashFeature(featuresFolder.resolve(feature));
+            features.put(feature, hashes);
+        }
+        return hashes;
+    }
+
+    // Key of a variant: the ordered feature selection plus the content of every participating file
+    public String variantKey(List<String> selection) throws IOException {
+        MessageDigest digest = newDigest();
+        update(digest, KEY_VERSION);
+        for (String feature : selection) {
+            update(digest, "feature " + feature);
+            for (Map.Entry<String, String> file : hashes(feature).entrySet()) {
+                update(digest, file.getKey() + " " + file.getValue());
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    // Relative path ('/' separated) to SHA-256 of every file in a feature folder, empty if the folder is missing
+    public static SortedMap<String, String> hashFeature(Path featureFolder) throws IOException {
+        SortedMap<String, String> hashes = new TreeMap<>();
+        if (!Files.isDirectory(featureFolder)) {
+            return hashes;
+        }
+        try (Stream<Path> paths = Files.walk(featureFolder)) {
+            for (Path file : (Iterable<Path>) paths.filter(Files::isRegularFile)::iterator) {
+                hashes.put(VariantComposer.toRelativePath(featureFolder, file), hashFile(file));
+            }
+        }
+        return Collections.unmodifiableSortedMap(hashes);
+    }
+
+    public static String hashFile(Path file) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[8192];
+        try (InputStream in = Files.newInputStream(file)) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    public static String hashLines(List<String> lines) {
+        MessageDigest digest = newDigest();
+        for (String line : lines) {
+            update(digest, line);
+        }
+        return toHex(digest.digest());
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static void update(MessageDigest digest, String line) {
+        digest.update(line.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) '\n');
+    }
+
+    static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,256 @@
+package com.fop.backend;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Immutable propositional formula of a cross-tree constraint, variables are FeatureModel ids.
+//
+// The operators are the ones of FeatureIDE's <rule> elements. In XML and JSON a formula keeps that
+// shape: <imp><var>A</var><not><var>B</var></not></imp> is
+// {"type":"imp","children":[{"type":"var","name":"A"},{"type":"not","children":[{"type":"var","name":"B"}]}]}
+//
+// A variable naming no feature of the model keeps its name, so the constraint survives loading and
+// saving unchanged. Such a constraint cannot be encoded; FeatureModel.checkConstraints() reports it.
+public final class Formula {
+
+    public static final byte VAR = 0;
+    public static final byte NOT = 1;
+    public static final byte AND = 2;
+    public static final byte OR = 3;
+    public static final byte IMP = 4;
+    public static final byte EQ = 5;
+    public static final byte ATMOST1 = 6;
+
+    private static final String[] TAGS = {"var", "not", "conj", "disj", "imp", "eq", "atmost1"};
+    private static final Formula[] NO_CHILDREN = new Formula[0];
+
+    private final byte op;
+    private final int var;
+    // Name of a variable without feature, null otherwise
+    private final String unknown;
+    private final Formula[] children;
+
+    private Formula(byte op, int var, String unknown, Formula[] children) {
+        this.op = op;
+        this.var = var;
+        this.unknown = unknown;
+        this.children = children;
+    }
+
+    public static Formula var(int feature) {
+        return new Formula(VAR, feature, null, NO_CHILDREN);
+    }
+
+    // A variable whose name is no feature of the model
+    static Formula unknown(String name) {
+        return new Formula(VAR, -1, name, NO_CHILDREN);
+    }
+
+    public static Formula of(byte op, Formula... children) {
+        if (op == VAR || op < 0 || op >= TAGS.length) {
+            throw new IllegalArgumentException("Not an operator: " + op);
+        }
+        if (!hasValidArity(op, children.length)) {
+            throw new IllegalArgumentException(TAGS[op] + " cannot have " + children.length + " operands");
+        }
+        return new Formula(op, -1, null, children.clone());
+    }
+
+    public byte getOp() {
+        return op;
+    }
+
+    // Feature id of a VAR, -1 otherwise and for a variable naming no feature
+    public int getVar() {
+        return var;
+    }
+
+    // Adds the variable names that are no feature of the model, in order of appearance
+    public void collectUnknown(List<String> names) {
+        if (unknown != null) {
+            names.add(unknown);
+        }
+        for (Formula child : children) {
+            child.collectUnknown(names);
+        }
+    }
+
+    public int getChildCount() {
+        return children.length;
+    }
+
+    public Formula getChild(int index) {
+        return children[index];
+    }
+
+    // not takes one operand, imp and eq two, the others any number
+    static boolean hasValidArity(byte op, int operands) {
+        switch (op) {
+            case NOT:
+                return operands == 1;
+            case IMP:
+            case EQ:
+                return operands == 2;
+            default:
+                return true;
+        }
+    }
+
+    public static String tag(byte op) {
+        return TAGS[op];
+    }
+
+    // -1 for elements that are no formula (description, tags, ...)
+    public static byte opOf(String tag) {
+        for (byte op = 0; op < TAGS.length; op++) {
+            if (TAGS[op].equals(tag)) {
+                return op;
+            }
+        }
+        return -1;
+    }
+
+    public void writeJson(JsonWriter json, FeatureModel model) throws IOException {
+        json.beginObject();
+        json.name("type").value(TAGS[op]);
+        if (op == VAR) {
+            json.name("name").value(unknown != null ? unknown : model.getName(var));
+        } else {
+            json.name("children").beginArray();
+            for (Formula child : children) {
+                child.writeJson(json, model);
+            }
+            json.endArray();
+        }
+        json.endObject();
+    }
+
+    // Reads the formula element the reader is positioned on, up to and including its end tag.
+    // Variables naming no feature of the model keep their name, see unknown().
+    static Formula readXml(XMLStreamReader reader, FeatureModel model) throws XMLStreamException {
+        byte op = opOf(reader.getLocalName());
+        if (op < 0) {
+            throw new XMLStreamException("Unknown constraint element " + reader.getLocalName(), reader.getLocation());
+        }
+        if (op == VAR) {
+            String name = reader.getElementText().trim();
+            int id = model.getId(name);
+            return id < 0 ? unknown(name) : var(id);
+        }
+        List<Formula> children = new ArrayList<>();
+        while (true) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                children.add(readXml(reader, model));
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                break;
+            }
+        }
+        if (!hasValidArity(op, children.size())) {
+            throw new XMLStreamException(TAGS[op] + " cannot have " + children.size() + " operands", reader.getLocation());
+        }
+        return new Formula(op, -1, null, children.toArray(NO_CHILDREN));
+    }
+
+    // Copies the formula element the reader is positioned on to JSON without resolving any names, they
+    // are added to names
+    static void streamJson(XMLStreamReader reader, JsonWriter json, List<String> names) throws XMLStreamException, IOException {
+        byte op = opOf(reader.getLocalName());
+        if (op < 0) {
+            throw new XMLStreamException("Unknown constraint element " + reader.getLocalName(), reader.getLocation());
+        }
+        json.beginObject();
+        json.name("type").value(TAGS[op]);
+        if (op == VAR) {
+            String name = reader.getElementText().trim();
+            names.add(name);
+            json.name("name").value(name);
+        } else {
+            json.name("children").beginArray();
+            while (true) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    streamJson(reader, json, names);
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    break;
+                }
+            }
+            json.endArray();
+        }
+        json.endObject();
+    }
+
+    // Moves into the next <rule> of a <constraints> element and onto its formula element. Returns
+    // false at </constraints>. After reading the formula, ModelHandler.skipToEnd leaves the rule.
+    static boolean nextRule(XMLStreamReader reader) throws XMLStreamException {
+        boolean inRule = false;
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if (!inRule && reader.getLocalName().equals("rule")) {
+                    inRule = true;
+                } else if (inRule && opOf(reader.getLocalName()) >= 0) {
+                    return true;
+                } else {
+                    ModelHandler.skipToEnd(reader);
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                if (!inRule) {
+                    return false;
+                }
+                // A rule without formula
+                inRule = false;
+            }
+        }
+        return false;
+    }
+
+    // Pre-order: op, then the variable (-1 and the name for an unknown one) or the child count, then the
+    // children
+    void write(DataOutputStream out) throws IOException {
+        out.writeByte(op);
+        if (op == VAR) {
+            out.writeInt(var);
+            if (unknown != null) {
+                out.writeUTF(unknown);
+            }
+            return;
+        }
+        out.writeInt(children.length);
+        for (Formula child : children) {
+            child.write(out);
+        }
+    }
+
+    static Formula read(DataInputStream in, int features) throws IOException {
+        byte op = in.readByte();
+        if (op == VAR) {
+            int id = in.readInt();
+            if (id == -1) {
+                return unknown(in.readUTF());
+            }
+            if (id < 0 || id >= features) {
+                throw new IOException("Variable out of range");
+            }
+            return var(id);
+        }
+        if (op < 0 || op >= TAGS.length) {
+            throw new IOException("Unknown operator " + op);
+        }
+        int count = in.readInt();
+        if (count < 0 || count > in.available() || !hasValidArity(op, count)) {
+            throw new IOException("Invalid child count " + count);
+        }
+        Formula[] children = new Formula[count];
+        for (int i = 0; i < children.length; i++) {
+            children[i] = read(in, features);
+        }
+        return new Formula(op, -1, null, children);
+    }
+}
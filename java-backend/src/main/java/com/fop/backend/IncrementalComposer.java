@@ -0,0 +1,127 @@
+package com.fop.backend;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Recomposes only the source paths whose inputs changed.
+//
+// FeatureHouse superimposes the files of a variant path by path: the composed Client.java only depends
+// on the Client.java files of the selected features, in selection order. Each path therefore forms a
+// group keyed by its ordered (feature, content hash) list, and the composition result of every group is
+// cached. A build reuses all cached groups and hands FeatureHouse only the files of the groups that
+// changed, so the work scales with the size of the change rather than the size of the product line.
+public class IncrementalComposer {
+
+    private static final String GROUP_VERSION = "fop-group-1";
+
+    private final FeatureSources sources;
+    private final BuildCache cache;
+
+    private int reusedGroups;
+    private int composedGroups;
+
+    public IncrementalComposer(FeatureSources sources, BuildCache cache) {
+        this.sources = sources;
+        this.cache = cache;
+    }
+
+    public int getReusedGroups() {
+        return reusedGroups;
+    }
+
+    public int getComposedGroups() {
+        return composedGroups;
+    }
+
+    public ComposedVariant compose(List<String> features) throws Exception {
+        // Relative path -> the features providing it, in selection order
+        Map<String, List<String>> providers = new TreeMap<>();
+        for (String feature : features) {
+            for (String path : sources.hashes(feature).keySet()) {
+                providers.computeIfAbsent(path, p -> new ArrayList<>()).add(feature);
+            }
+        }
+
+        Map<String, byte[]> files = new HashMap<>();
+        Map<String, String> staleGroups = new LinkedHashMap<>();
+        for (Map.Entry<String, List<String>> group : providers.entrySet()) {
+            String key = groupKey(group.getKey(), group.getValue());
+            Map<String, byte[]> cached = cache.getFiles(key);
+            if (cached != null) {
+                files.putAll(cached);
+            } else {
+                staleGroups.put(group.getKey(), key);
+            }
+        }
+        reusedGroups = providers.size() - staleGroups.size();
+        composedGroups = staleGroups.size();
+
+        if (!staleGroups.isEmpty()) {
+            Map<String, byte[]> composed = composeSubset(features, providers, staleGroups.keySet());
+            files.putAll(composed);
+            storeGroups(composed, staleGroups);
+        }
+        return new ComposedVariant(features, files);
+    }
+
+    // Runs FeatureHouse over a copy of the feature folders reduced to the given paths
+    private Map<String, byte[]> composeSubset(List<String> features, Map<String, List<String>> providers,
+                                              Iterable<String> paths) throws Exception {
+        Path base = Files.createTempDirectory("fop-incremental");
+        try {
+            for (String path : paths) {
+                for (String feature : providers.get(path)) {
+                    String relative = path.replace('/', File.separatorChar);
+                    Path target = base.resolve(feature).resolve(relative);
+                    Files.createDirectories(target.getParent());
+                    Files.copy(sources.getFeaturesFolder().resolve(feature).resolve(relative), target,
+                            StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            return VariantComposer.compose(features, base.toFile()).getFiles();
+        } finally {
+            VariantComposer.deleteRecursively(base);
+        }
+    }
+
+    private void storeGroups(Map<String, byte[]> composed, Map<String, String> staleGroups) {
+        // Only cache when every output can be attributed to the source path it came from
+        for (String output : composed.keySet()) {
+            if (!staleGroups.containsKey(output)) {
+                return;
+            }
+        }
+        try {
+            for (Map.Entry<String, String> group : staleGroups.entrySet()) {
+                Map<String, byte[]> groupFiles = new HashMap<>();
+                byte[] content = composed.get(group.getKey());
+                if (content != null) {
+                    groupFiles.put(group.getKey(), content);
+                }
+                cache.store(group.getValue(), groupFiles);
+            }
+            cache.evict();
+        } catch (IOException e) {
+            System.err.println("Could not store composed files in build cache: " + e.getMessage());
+        }
+    }
+
+    private String groupKey(String path, List<String> features) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add(GROUP_VERSION);
+        lines.add(path);
+        for (String feature : features) {
+            lines.add(feature + " " + sources.hashes(feature).get(path));
+        }
+        return FeatureSources.hashLines(lines);
+    }
+}
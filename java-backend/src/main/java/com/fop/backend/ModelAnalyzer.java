@@ -0,0 +1,321 @@
+package com.fop.backend;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Anomalies of a feature model: dead features (in no configuration), core features (in all of them),
+// false-optional features (optional, not core, but selected whenever their parent is), redundant
+// constraints (implied by the tree and the other constraints) and, when the model has no configuration
+// at all, the constraints that contradict each other.
+//
+// Every question is one SAT query under assumptions on Cnf.withSelectors(), so constraints are switched
+// on and off without building another CNF. The queries are split over a few workers, each with its own
+// solver that keeps what it learned from one query to the next. Each solution found rules out every
+// dead, core or false-optional verdict it contradicts, which saves most of the queries. Results are
+// kept per SHA-256 of the model file, so asking again for an unchanged model costs one hash.
+public final class ModelAnalyzer {
+
+    public static final class Result {
+        final String hash;
+        final boolean empty;
+        final int[] dead;
+        final int[] core;
+        final int[] falseOptional;
+        final int[] redundant;
+        final int[] contradicting;
+
+        Result(String hash, boolean empty, int[] dead, int[] core, int[] falseOptional, int[] redundant,
+               int[] contradicting) {
+            this.hash = hash;
+            this.empty = empty;
+            this.dead = dead;
+            this.core = core;
+            this.falseOptional = falseOptional;
+            this.redundant = redundant;
+            this.contradicting = contradicting;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        // Whether the model has no valid configuration
+        public boolean isVoid() {
+            return empty;
+        }
+
+        // Feature ids, in id order
+        public int[] getDead() {
+            return dead.clone();
+        }
+
+        public int[] getCore() {
+            return core.clone();
+        }
+
+        public int[] getFalseOptional() {
+            return falseOptional.clone();
+        }
+
+        // Constraint indices, in model order
+        public int[] getRedundant() {
+            return redundant.clone();
+        }
+
+        // Constraints that leave no configuration together, only for a void model. Empty when the tree
+        // alone has none.
+        public int[] getContradicting() {
+            return contradicting.clone();
+        }
+    }
+
+    // Results of the most recently analyzed models (-Dfop.analysis.cached)
+    private static final int CAPACITY = Math.max(1, Integer.getInteger("fop.analysis.cached", 8));
+
+    private static final Map<String, Result> RESULTS = new LinkedHashMap<String, Result>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Result> eldest) {
+            return size() > CAPACITY;
+        }
+    };
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final FeatureModel model;
+    private final Cnf cnf;
+    private final int features;
+    // Every constraint switched on
+    private final int[] constraints;
+    private final SatSolver[] solvers;
+    // Per feature: seen selected, seen deselected, seen deselected under a selected parent
+    private final boolean[][] seen;
+
+    private ModelAnalyzer(FeatureModel model, int workers) {
+        this.model = model;
+        this.cnf = Cnf.withSelectors(model);
+        this.features = model.size();
+        this.constraints = new int[model.getConstraintCount()];
+        for (int i = 0; i < constraints.length; i++) {
+            constraints[i] = cnf.getSelector(i, false);
+        }
+        this.solvers = new SatSolver[workers];
+        this.seen = new boolean[3][features];
+    }
+
+    // Analysis of the model file, from the cache while its content is unchanged
+    public static Result analyze(String modelPath, int parallelism) throws Exception {
+        Path path = Paths.get(modelPath).toAbsolutePath().normalize();
+        String hash = hash(path);
+        synchronized (RESULTS) {
+            Result cached = RESULTS.get(hash);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        // Computed outside of the lock, like models in the ModelRegistry
+        Result result = new ModelAnalyzer(ModelRegistry.get(modelPath), Math.max(1, parallelism)).run(hash);
+        synchronized (RESULTS) {
+            RESULTS.put(hash, result);
+        }
+        return result;
+    }
+
+    private Result run(String hash) {
+        SatSolver base = solver(0);
+        if (!base.solve(constraints)) {
+            // The selectors in the conflict are the constraints that cannot hold together
+            int[] contradicting = Arrays.stream(base.getConflict()).map(literal -> (literal - features - 1) / 2)
+                    .sorted().toArray();
+            return new Result(hash, true, new int[0], new int[0], new int[0], new int[0], contradicting);
+        }
+        record(base, seen);
+
+        // Dead and core first, false-optional features depend on them
+        byte[] fixed = new byte[features];
+        parallel(features, (solver, local, f) -> {
+            aim(solver, local);
+            if (!seen[0][f] && !local[0][f]) {
+                if (!solve(solver, local, withConstraints(Cnf.literal(f, true)))) {
+                    fixed[f] = -1;
+                    return;
+                }
+            }
+            if (!seen[1][f] && !local[1][f] && !solve(solver, local, withConstraints(Cnf.literal(f, false)))) {
+                fixed[f] = 1;
+            }
+        });
+
+        boolean[] falseOptional = new boolean[features];
+        boolean[] redundant = new boolean[constraints.length];
+        parallel(features + constraints.length, (solver, local, q) -> {
+            if (q < features) {
+                int f = q;
+                int parent = model.getParent(f);
+                if (parent < 0 || fixed[f] != 0 || isMandatory(f) || seen[2][f] || local[2][f]) {
+                    return;
+                }
+                aimOptional(solver, local, fixed);
+                falseOptional[f] = !solve(solver, local,
+                        withConstraints(Cnf.literal(parent, true), Cnf.literal(f, false)));
+                return;
+            }
+            // The other constraints on, this one negated. Not recorded, such a solution is no configuration.
+            int c = q - features;
+            int[] assumptions = constraints.clone();
+            assumptions[c] = cnf.getSelector(c, true);
+            redundant[c] = !solver.solve(assumptions);
+        });
+
+        List<Integer> dead = new ArrayList<>();
+        List<Integer> core = new ArrayList<>();
+        List<Integer> optional = new ArrayList<>();
+        for (int f = 0; f < features; f++) {
+            if (fixed[f] < 0) {
+                dead.add(f);
+            } else if (fixed[f] > 0) {
+                core.add(f);
+            } else if (falseOptional[f]) {
+                optional.add(f);
+            }
+        }
+        List<Integer> implied = new ArrayList<>();
+        for (int c = 0; c < constraints.length; c++) {
+            if (redundant[c]) {
+                implied.add(c);
+            }
+        }
+        return new Result(hash, false, toArray(dead), toArray(core), toArray(optional), toArray(implied),
+                new int[0]);
+    }
+
+    private interface Query {
+        void run(SatSolver solver, boolean[][] seen, int index);
+    }
+
+    // Runs the queries 0..count-1 striped over the workers, each on its own solver and with its own
+    // record of what solutions it has seen, merged into seen afterwards
+    private void parallel(int count, Query query) {
+        int workers = Math.max(1, Math.min(solvers.length, count));
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<boolean[][]>> parts = new ArrayList<>();
+            for (int worker = 0; worker < workers; worker++) {
+                int first = worker;
+                parts.add(executor.submit(() -> {
+                    SatSolver solver = solver(first);
+                    boolean[][] local = new boolean[3][features];
+                    for (int i = first; i < count; i += workers) {
+                        if (Thread.currentThread().isInterrupted()) {
+                            throw new IllegalStateException("Analysis cancelled");
+                        }
+                        query.run(solver, local, i);
+                    }
+                    return local;
+                }));
+            }
+            for (Future<boolean[][]> part : parts) {
+                boolean[][] local = part.get();
+                for (int k = 0; k < seen.length; k++) {
+                    for (int f = 0; f < features; f++) {
+                        seen[k][f] |= local[k][f];
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Analysis cancelled");
+        } catch (Exception e) {
+            throw new IllegalStateException(e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // A worker's solver is created on first use and kept for all later queries
+    private SatSolver solver(int worker) {
+        if (solvers[worker] == null) {
+            solvers[worker] = new SatSolver(cnf);
+        }
+        return solvers[worker];
+    }
+
+    // Points the solver's phases at the values not seen yet, so that each solution rules out as many
+    // dead and core candidates as it can instead of repeating the last one
+    private void aim(SatSolver solver, boolean[][] local) {
+        for (int f = 0; f < features; f++) {
+            if (!seen[0][f] && !local[0][f]) {
+                solver.setPhase(Cnf.literal(f, true));
+            } else if (!seen[1][f] && !local[1][f]) {
+                solver.setPhase(Cnf.literal(f, false));
+            }
+        }
+    }
+
+    // The same for false-optional candidates: they are deselected, every other feature selected so their
+    // parents tend to be
+    private void aimOptional(SatSolver solver, boolean[][] local, byte[] fixed) {
+        for (int f = 0; f < features; f++) {
+            solver.setPhase(Cnf.literal(f, fixed[f] == 0 && (seen[2][f] || local[2][f])));
+        }
+    }
+
+    // Every constraint on, plus the literals
+    private int[] withConstraints(int... literals) {
+        int[] assumptions = Arrays.copyOf(constraints, constraints.length + literals.length);
+        System.arraycopy(literals, 0, assumptions, constraints.length, literals.length);
+        return assumptions;
+    }
+
+    // Records a solution in seen
+    private boolean solve(SatSolver solver, boolean[][] seen, int[] assumptions) {
+        if (!solver.solve(assumptions)) {
+            return false;
+        }
+        record(solver, seen);
+        return true;
+    }
+
+    private void record(SatSolver solver, boolean[][] seen) {
+        for (int f = 0; f < features; f++) {
+            boolean selected = solver.getModelValue(f + 1);
+            seen[selected ? 0 : 1][f] = true;
+            int parent = model.getParent(f);
+            if (!selected && parent >= 0 && solver.getModelValue(parent + 1)) {
+                seen[2][f] = true;
+            }
+        }
+    }
+
+    // Mandatory only counts in and-groups, as in the Cnf
+    private boolean isMandatory(int feature) {
+        return model.isMandatory(feature) && model.getGroupType(model.getParent(feature)) == FeatureModel.GROUP_AND;
+    }
+
+    private static String hash(Path path) throws Exception {
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(path));
+        char[] hex = new char[2 * digest.length];
+        for (int i = 0; i < digest.length; i++) {
+            hex[2 * i] = HEX[(digest[i] >> 4) & 0xf];
+            hex[2 * i + 1] = HEX[digest[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    private static int[] toArray(List<Integer> values) {
+        int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+}
@@ -5,93 +5,589 @@ import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.transform.*;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
 
 public class ModelHandler {
 
     public static String loadModel(String path) {
+        StringWriter out = new StringWriter();
         try {
-            File xmlFile = new File(path);
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document doc = builder.parse(xmlFile);
-            doc.getDocumentElement().normalize();
+            loadModel(path, out);
+        } catch (IOException e) {
+            return "{\"status\":\"error\",\"message\":\"" + escapeJson(e.getMessage()) + "\"}";
+        }
+        return out.toString();
+    }
 
-            NodeList structNodes = doc.getElementsByTagName("struct");
-            if (structNodes.getLength() == 0) {
-                return "{\"status\":\"error\",\"message\":\"No struct element found\"}";
+    // Writes the model as JSON to out. With snapshots enabled the feature tree comes from the
+    // ModelRegistry (backed by the binary snapshot next to the model), otherwise the
+    // <struct> section is streamed with StAX straight into the JSON, so no DOM is built. Constraints
+    // naming features the tree does not have are returned all the same and listed in
+    // "constraintErrors", both ways, so that saving the model does not lose them. "status" is written
+    // last: when the XML turns out to be broken half way, the open JSON is closed and the document ends
+    // with the error instead.
+    public static void loadModel(String path, Writer out) throws IOException {
+        if (ModelSnapshot.isEnabled()) {
+            runModelCommand(path, out, (model, json) -> {
+                json.name("root");
+                model.writeJson(json);
+                json.name("constraints");
+                model.writeConstraintsJson(json);
+                json.name("constraintErrors");
+                model.writeConstraintErrorsJson(json);
+            });
+            return;
+        }
+
+        JsonWriter json = new JsonWriter(out);
+        json.beginObject();
+        try {
+            // Constraints are streamed recursively, deeply nested ones need the large stack
+            DeepRecursion.call("model-reader", () -> {
+                streamModel(path, json);
+                return null;
+            });
+        } catch (Exception e) {
+            json.closeTo(1);
+            writeError(json, e.getMessage());
+        }
+        json.endObject();
+        json.flush();
+    }
+
+    private static void streamModel(String path, JsonWriter json) throws Exception {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(path))) {
+            XMLStreamReader reader = newXmlInputFactory().createXMLStreamReader(in);
+            try {
+                if (!skipToElement(reader, "struct")) {
+                    writeError(json, "No struct element found");
+                } else if (!nextFeature(reader)) {
+                    writeError(json, "No root feature found");
+                } else {
+                    Set<String> names = new HashSet<>();
+                    json.name("root");
+                    streamFeature(reader, json, names);
+                    json.name("constraints");
+                    Map<Integer, List<String>> errors = streamConstraints(reader, json, names);
+                    json.name("constraintErrors").beginArray();
+                    for (Map.Entry<Integer, List<String>> error : errors.entrySet()) {
+                        writeConstraintError(json, error.getKey(), error.getValue());
+                    }
+                    json.endArray();
+                    json.name("status").value("ok");
+                }
+            } finally {
+                reader.close();
             }
+        }
+    }
 
-            Element structElement = (Element) structNodes.item(0);
-            NodeList children = structElement.getChildNodes();
-            
-            Element rootFeature = null;
-            for (int i = 0; i < children.getLength(); i++) {
-                Node node = children.item(i);
-                if (node.getNodeType() == Node.ELEMENT_NODE) {
-                    rootFeature = (Element) node;
-                    break;
+    static XMLInputFactory newXmlInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    // CNF of the feature tree and constraints as int literals, variable v is names[v - 1] for
+    // v <= features, higher variables are auxiliary ones of Tseitin encoded constraints
+    public static void loadCnf(String path, Writer out) throws IOException {
+        runModelCommand(path, out, (model, json) -> {
+            Cnf cnf = model.getCnf();
+            json.name("variables").value(cnf.getVariableCount());
+            json.name("features").value(cnf.getFeatureCount());
+            json.name("names").beginArray();
+            for (int id = 0; id < model.size(); id++) {
+                json.value(model.getName(id));
+            }
+            json.endArray();
+            json.name("clauses").beginArray();
+            for (int[] clause : cnf.getClauses()) {
+                json.beginArray();
+                for (int literal : clause) {
+                    json.value(literal);
                 }
+                json.endArray();
             }
+            json.endArray();
+        });
+    }
+
+    // Compiles (or loads the stored) BDD of the model and reports its size and configuration count
+    public static void compileBdd(String path, Writer out) throws IOException {
+        runModelCommand(path, out, (model, json) -> {
+            Bdd bdd = ModelRegistry.getBdd(path);
+            json.name("variables").value(bdd.getVariableCount());
+            json.name("nodes").value(bdd.getNodeCount());
+            json.name("count").value(bdd.count().toString());
+        });
+    }
 
-            if (rootFeature == null) {
-                return "{\"status\":\"error\",\"message\":\"No root feature found\"}";
+    // Exact number of configurations of the model, optionally only those extending a partial
+    // configuration {"selected":[names],"deselected":[names]}, and per feature the number of them
+    // selecting it. Counts are strings, they easily outgrow a double.
+    public static void countConfigurations(String path, String selectionJson, Writer out) throws IOException {
+        runModelCommand(path, out, (model, json) -> {
+            int[] literals = parseSelection(model, selectionJson);
+
+            DDnnf.Counts counts = model.getDDnnf().count(literals);
+            json.name("count").value(counts.getTotal().toString());
+            json.name("features").beginObject();
+            for (int id = 0; id < model.size(); id++) {
+                json.name(model.getName(id)).value(counts.getSelected(id).toString());
             }
+            json.endObject();
+        });
+    }
 
-            StringBuilder json = new StringBuilder();
-            json.append("{\"status\":\"ok\",\"root\":");
-            json.append(parseFeature(rootFeature));
-            json.append("}");
+    // Whether a partial configuration can still be completed, and which features it forces on
+    // ("selected") or off ("deselected"), besides the ones it names itself. "valid" tells whether it
+    // is a valid configuration as it stands, with all open features deselected. When it cannot be
+    // completed, "conflict" names the features of the selection that contradict each other.
+    public static void checkConfiguration(String path, String selectionJson, Writer out) throws IOException {
+        runModelCommand(path, out, (model, json) -> {
+            ConfigurationChecker.Result result = ConfigurationChecker.check(model, parseSelection(model, selectionJson));
+            json.name("satisfiable").value(result.isSatisfiable());
+            json.name("valid").value(result.isValid());
+            json.name("selected").beginArray();
+            for (int id = 0; id < model.size(); id++) {
+                if (result.getForced(id) > 0) {
+                    json.value(model.getName(id));
+                }
+            }
+            json.endArray();
+            json.name("deselected").beginArray();
+            for (int id = 0; id < model.size(); id++) {
+                if (result.getForced(id) < 0) {
+                    json.value(model.getName(id));
+                }
+            }
+            json.endArray();
+            json.name("conflict").beginArray();
+            for (int id : result.getConflict()) {
+                json.value(model.getName(id));
+            }
+            json.endArray();
+        });
+    }
 
-            return json.toString();
+    // Dead, core and false-optional features by name, redundant and (for a void model) contradicting
+    // constraints as {"index":i,"constraint":rule} with i their index in "constraints" of loadModel, the
+    // atomic sets, and the hash the result is cached under
+    public static void analyzeModel(String path, Writer out) throws IOException {
+        runModelCommand(path, out, (model, json) -> {
+            ModelAnalyzer.Result result = ModelAnalyzer.analyze(path, FeatureHousePool.defaultParallelism());
+            json.name("hash").value(result.getHash());
+            json.name("void").value(result.isVoid());
+            writeNames(json, "dead", model, result.getDead());
+            writeNames(json, "core", model, result.getCore());
+            writeNames(json, "falseOptional", model, result.getFalseOptional());
+            writeConstraints(json, "redundant", model, result.getRedundant());
+            writeConstraints(json, "contradicting", model, result.getContradicting());
+            // Atomic sets of more than one feature, each a list of names
+            AtomicSets sets = model.getAtomicSets();
+            List<List<String>> members = new ArrayList<>();
+            for (int set = 0; set < sets.getSetCount(); set++) {
+                members.add(new ArrayList<>());
+            }
+            for (int id = 0; id < model.size(); id++) {
+                members.get(sets.getSet(id)).add(model.getName(id));
+            }
+            json.name("atomicSets").beginArray();
+            for (List<String> set : members) {
+                if (set.size() > 1) {
+                    json.beginArray();
+                    for (String name : set) {
+                        json.value(name);
+                    }
+                    json.endArray();
+                }
+            }
+            json.endArray();
+        });
+    }
+
+    private static void writeNames(JsonWriter json, String name, FeatureModel model, int[] ids) throws IOException {
+        json.name(name).beginArray();
+        for (int id : ids) {
+            json.value(model.getName(id));
+        }
+        json.endArray();
+    }
+
+    // Each constraint with its index, so the result cannot be matched against another list by mistake
+    private static void writeConstraints(JsonWriter json, String name, FeatureModel model, int[] indices)
+            throws IOException {
+        json.name(name).beginArray();
+        for (int index : indices) {
+            json.beginObject();
+            json.name("index").value(index);
+            json.name("constraint");
+            model.getConstraint(index).writeJson(json, model);
+            json.endObject();
+        }
+        json.endArray();
+    }
 
+    // Writes a t-wise covering sample as sample-N.xml configurations into outputFolder, replacing the
+    // samples of an earlier run
+    public static void sampleConfigurations(String path, String outputFolder, int t, Writer out) throws IOException {
+        runModelCommand(path, out, (model, json) -> {
+            TWiseSampler.Sample sample = TWiseSampler.sample(model, t, FeatureHousePool.defaultParallelism());
+            List<boolean[]> configurations = sample.getConfigurations();
+
+            File folder = outputFolder(outputFolder, "sample");
+            boolean[] fixed = new boolean[model.size()];
+            for (int id = 0; id < model.size(); id++) {
+                fixed[id] = sample.isFixed(id);
+            }
+            String name = "sample-%0" + String.valueOf(configurations.size()).length() + "d.xml";
+            json.name("t").value(t);
+            json.name("configurations").beginArray();
+            for (int c = 0; c < configurations.size(); c++) {
+                File file = new File(folder, String.format(name, c + 1));
+                ConfigHandler.writeConfiguration(model, configurations.get(c), fixed, file);
+                json.value(file.getPath());
+            }
+            json.endArray();
+            json.name("interactions").value(sample.getInteractions());
+            json.name("covered").value(sample.getCovered());
+        });
+    }
+
+    // Draws n configurations uniformly at random from all valid ones, the same ones for the same seed.
+    // They are written as uniform-N.xml into outputFolder when given, otherwise as lists of selected
+    // features; either way each one goes out as soon as it is drawn.
+    public static void sampleUniform(String path, int n, long seed, String outputFolder, Writer out) throws IOException {
+        runModelCommand(path, out, (model, json) -> {
+            Bdd bdd = ModelRegistry.getBdd(path);
+            if (bdd.count().signum() == 0) {
+                throw new IllegalArgumentException("The model has no valid configuration");
+            }
+            File folder = outputFolder != null ? outputFolder(outputFolder, "uniform") : null;
+            boolean[] fixed = new boolean[model.size()];
+            if (folder != null) {
+                ConfigurationChecker.Result core = ConfigurationChecker.check(model, new int[0]);
+                for (int id = 0; id < model.size(); id++) {
+                    fixed[id] = core.getForced(id) != 0;
+                }
+            }
+            Random random = new Random(seed);
+            String name = "uniform-%0" + String.valueOf(n).length() + "d.xml";
+            json.name("seed").value(seed);
+            json.name("count").value(bdd.count().toString());
+            json.name("configurations").beginArray();
+            for (int c = 0; c < n; c++) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new IllegalStateException("Sampling cancelled");
+                }
+                boolean[] selected = bdd.sample(random);
+                if (folder != null) {
+                    File file = new File(folder, String.format(name, c + 1));
+                    ConfigHandler.writeConfiguration(model, selected, fixed, file);
+                    json.value(file.getPath());
+                } else {
+                    json.beginArray();
+                    for (int id = 0; id < model.size(); id++) {
+                        if (selected[id]) {
+                            json.value(model.getName(id));
+                        }
+                    }
+                    json.endArray();
+                }
+            }
+            json.endArray();
+        });
+    }
+
+    // Streams the valid configurations with index from up to to (exclusive, the end when null), in the
+    // order of Bdd.configuration. Each is a hex bitset over the feature ids in "features", or with an
+    // outputFolder a config-<index>.xml there. "next" is the cursor to resume from, null at the end.
+    public static void enumerateConfigurations(String path, BigInteger from, BigInteger to, String outputFolder,
+                                               Writer out) throws IOException {
+        runModelCommand(path, out, (model, json) -> {
+            Bdd bdd = ModelRegistry.getBdd(path);
+            BigInteger total = bdd.count();
+            BigInteger end = to == null || to.compareTo(total) > 0 ? total : to;
+            if (from.signum() < 0) {
+                throw new IllegalArgumentException("Invalid cursor: " + from);
+            }
+            File folder = null;
+            boolean[] fixed = new boolean[model.size()];
+            if (outputFolder != null) {
+                // Shards may share the folder, so nothing in it is removed
+                folder = new File(outputFolder);
+                if (!folder.isDirectory() && !folder.mkdirs()) {
+                    throw new IOException("Cannot create " + outputFolder);
+                }
+                if (total.signum() > 0) {
+                    ConfigurationChecker.Result core = ConfigurationChecker.check(model, new int[0]);
+                    for (int id = 0; id < model.size(); id++) {
+                        fixed[id] = core.getForced(id) != 0;
+                    }
+                }
+            }
+            json.name("count").value(total.toString());
+            json.name("from").value(from.toString());
+            if (folder == null) {
+                json.name("features").beginArray();
+                for (int id = 0; id < model.size(); id++) {
+                    json.value(model.getName(id));
+                }
+                json.endArray();
+            }
+            json.name("configurations").beginArray();
+            BigInteger index = from;
+            Iterator<boolean[]> configurations = bdd.iterator(from);
+            char[] bits = new char[(model.size() + 3) / 4];
+            while (index.compareTo(end) < 0 && configurations.hasNext()) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new IllegalStateException("Enumeration cancelled");
+                }
+                boolean[] selected = configurations.next();
+                if (folder != null) {
+                    File file = new File(folder, "config-" + index + ".xml");
+                    ConfigHandler.writeConfiguration(model, selected, fixed, file);
+                    json.value(file.getPath());
+                } else {
+                    json.value(new String(toHex(selected, bits)));
+                }
+                index = index.add(BigInteger.ONE);
+            }
+            json.endArray();
+            json.name("next").value(index.compareTo(total) < 0 ? index.toString() : null);
+        });
+    }
+
+    // Hex digit k holds features 4k to 4k + 3, the lowest id in the lowest bit
+    private static char[] toHex(boolean[] selected, char[] digits) {
+        for (int k = 0; k < digits.length; k++) {
+            int value = 0;
+            for (int j = 0; j < 4 && 4 * k + j < selected.length; j++) {
+                if (selected[4 * k + j]) {
+                    value |= 1 << j;
+                }
+            }
+            digits[k] = Character.forDigit(value, 16);
+        }
+        return digits;
+    }
+
+    // Creates the folder if needed and removes the <prefix>-N.xml files of an earlier run
+    private static File outputFolder(String outputFolder, String prefix) throws IOException {
+        File folder = new File(outputFolder);
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            throw new IOException("Cannot create " + outputFolder);
+        }
+        File[] previous = folder.listFiles((dir, name) -> name.matches(prefix + "-\\d+\\.xml"));
+        if (previous != null) {
+            for (File file : previous) {
+                Files.delete(file.toPath());
+            }
+        }
+        return folder;
+    }
+
+    // Feature literals (Cnf.literal) of a partial configuration {"selected":[names],"deselected":[names]}
+    private static int[] parseSelection(FeatureModel model, String selectionJson) throws IOException {
+        List<Integer> assumptions = new ArrayList<>();
+        if (selectionJson != null && !selectionJson.trim().isEmpty()) {
+            JsonReader reader = new JsonReader(selectionJson);
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String key = reader.nextName();
+                if (!key.equals("selected") && !key.equals("deselected")) {
+                    reader.skipValue();
+                    continue;
+                }
+                for (String name : reader.nextStringArray()) {
+                    int id = model.getId(name);
+                    if (id < 0) {
+                        throw new IllegalArgumentException("Unknown feature: " + name);
+                    }
+                    assumptions.add(Cnf.literal(id, key.equals("selected")));
+                }
+            }
+            reader.endObject();
+        }
+        int[] literals = new int[assumptions.size()];
+        for (int i = 0; i < literals.length; i++) {
+            literals[i] = assumptions.get(i);
+        }
+        return literals;
+    }
+
+    // The fields a model command writes into its result, given the model of its path
+    private interface ModelCommand {
+        void writeTo(FeatureModel model, JsonWriter json) throws Exception;
+    }
+
+    // Writes {<fields>,"status":"ok"}, or when the model cannot be loaded or the command fails, closes
+    // whatever it had opened and ends with the error
+    private static void runModelCommand(String path, Writer out, ModelCommand command) throws IOException {
+        JsonWriter json = new JsonWriter(out);
+        json.beginObject();
+        try {
+            // Loading the model and converting its constraints recurse along their nesting
+            DeepRecursion.call("model-command", () -> {
+                command.writeTo(ModelRegistry.get(path), json);
+                return null;
+            });
+            json.name("status").value("ok");
+        } catch (NoSuchFileException e) {
+            json.closeTo(1);
+            writeError(json, e.getMessage() + " (No such file or directory)");
         } catch (Exception e) {
-            return "{\"status\":\"error\",\"message\":\"" + escapeJson(e.getMessage()) + "\"}";
+            json.closeTo(1);
+            writeError(json, e.getMessage());
         }
+        json.endObject();
+        json.flush();
     }
 
-    private static String parseFeature(Element element) {
-        StringBuilder json = new StringBuilder();
-        json.append("{");
+    private static void writeError(JsonWriter json, String message) throws IOException {
+        json.name("status").value("error");
+        json.name("message").value(message == null ? "" : message);
+    }
 
-        // Get feature name
-        String name = element.getAttribute("name");
-        json.append("\"name\":\"").append(escapeJson(name)).append("\",");
+    static boolean skipToElement(XMLStreamReader reader, String localName) throws XMLStreamException {
+        while (reader.hasNext()) {
+            if (reader.next() == XMLStreamConstants.START_ELEMENT && reader.getLocalName().equals(localName)) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-        // Get feature type (and, or, alt, feature)
-        String type = element.getTagName();
-        json.append("\"type\":\"").append(type).append("\",");
+    // Consumes events up to the end tag of the element the reader is in (or positioned on)
+    static void skipToEnd(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
 
-        // Get mandatory attribute
-        String mandatory = element.getAttribute("mandatory");
-        json.append("\"mandatory\":").append(mandatory.equals("true") ? "true" : "false").append(",");
+    // Moves to the next feature element inside the current one, false when the current one ends first
+    static boolean nextFeature(XMLStreamReader reader) throws XMLStreamException {
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                return true;
+            }
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                return false;
+            }
+        }
+        return false;
+    }
 
-        // Get abstract attribute
-        String abstractAttr = element.getAttribute("abstract");
-        json.append("\"abstract\":").append(abstractAttr.equals("true") ? "true" : "false").append(",");
+    // Writes the feature the reader is positioned on and its subtree and adds the feature names to names
+    private static void streamFeature(XMLStreamReader reader, JsonWriter json, Set<String> names)
+            throws XMLStreamException, IOException {
+        int depth = 0;
+        int event = reader.getEventType();
+        while (true) {
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String name = writeFeatureStart(reader, json);
+                if (!names.add(name)) {
+                    throw new IOException("Feature name " + name + " is used more than once");
+                }
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                json.endArray().endObject();
+                if (--depth == 0) {
+                    return;
+                }
+            }
+            event = reader.next();
+        }
+    }
 
-        // Parse children
-        List<String> childrenJson = new ArrayList<>();
-        NodeList children = element.getChildNodes();
-        for (int i = 0; i < children.getLength(); i++) {
-            Node node = children.item(i);
-            if (node.getNodeType() == Node.ELEMENT_NODE) {
-                Element childElement = (Element) node;
-                childrenJson.add(parseFeature(childElement));
+    // Copies the rules of the <constraints> section after </struct>, returns the names that are not in
+    // features by constraint index
+    private static Map<Integer, List<String>> streamConstraints(XMLStreamReader reader, JsonWriter json,
+                                                                Set<String> features)
+            throws XMLStreamException, IOException {
+        Map<Integer, List<String>> errors = new TreeMap<>();
+        json.beginArray();
+        skipToEnd(reader);
+        if (skipToElement(reader, "constraints")) {
+            List<String> names = new ArrayList<>();
+            for (int index = 0; Formula.nextRule(reader); index++) {
+                names.clear();
+                Formula.streamJson(reader, json, names);
+                skipToEnd(reader);
+                List<String> unknown = new ArrayList<>();
+                for (String name : names) {
+                    if (!features.contains(name)) {
+                        unknown.add(name);
+                    }
+                }
+                if (!unknown.isEmpty()) {
+                    errors.put(index, unknown);
+                }
             }
         }
+        json.endArray();
+        return errors;
+    }
+
+    // {"constraint":index,"message":...} for a constraint naming features the model does not have
+    static void writeConstraintError(JsonWriter json, int index, List<String> unknown) throws IOException {
+        json.beginObject();
+        json.name("constraint").value(index);
+        json.name("message").value("Unknown features: " + String.join(", ", unknown));
+        json.endObject();
+    }
+
+    // Returns the feature name
+    private static String writeFeatureStart(XMLStreamReader reader, JsonWriter json) throws IOException {
+        json.beginObject();
 
-        json.append("\"children\":[");
-        json.append(String.join(",", childrenJson));
-        json.append("]}");
+        // Get feature name
+        String name = reader.getAttributeValue(null, "name");
+        json.name("name").value(name == null ? "" : name);
 
-        return json.toString();
+        // Get feature type (and, or, alt, feature)
+        json.name("type").value(reader.getLocalName());
+
+        // Get mandatory and abstract attributes
+        json.name("mandatory").value("true".equals(reader.getAttributeValue(null, "mandatory")));
+        json.name("abstract").value("true".equals(reader.getAttributeValue(null, "abstract")));
+
+        // Children follow as the next elements
+        json.name("children").beginArray();
+        return name == null ? "" : name;
     }
 
     public static String saveModel(String path, String jsonData) {
@@ -129,16 +625,28 @@ public class ModelHandler {
             Element newRootFeature = buildXmlFromFeature(doc, rootFeature);
             structElement.appendChild(newRootFeature);
 
+            // Constraints are only replaced when the JSON has them, a bare feature tree keeps the existing ones
+            if (rootFeature.constraints != null) {
+                NodeList constraintNodes = doc.getElementsByTagName("constraints");
+                Element constraintsElement;
+                if (constraintNodes.getLength() > 0) {
+                    constraintsElement = (Element) constraintNodes.item(0);
+                    while (constraintsElement.getFirstChild() != null) {
+                        constraintsElement.removeChild(constraintsElement.getFirstChild());
+                    }
+                } else {
+                    constraintsElement = doc.createElement("constraints");
+                    rootElement.insertBefore(constraintsElement, structElement.getNextSibling());
+                }
+                for (ConstraintData constraint : rootFeature.constraints) {
+                    Element rule = doc.createElement("rule");
+                    rule.appendChild(buildXmlFromConstraint(doc, constraint));
+                    constraintsElement.appendChild(rule);
+                }
+            }
+
             // Write back to file
-            TransformerFactory transformerFactory = TransformerFactory.newInstance();
-            Transformer transformer = transformerFactory.newTransformer();
-            transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-            transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
-            transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "4");
-            
-            DOMSource source = new DOMSource(doc);
-            StreamResult result = new StreamResult(xmlFile);
-            transformer.transform(source, result);
+            writeDocument(doc, xmlFile);
 
             return "{\"status\":\"ok\",\"message\":\"Model saved successfully\"}";
         } catch (Exception e) {
@@ -147,7 +655,19 @@ public class ModelHandler {
         }
     }
 
-    private static void removeWhitespaceNodes(Element element) {
+    static void writeDocument(Document doc, File xmlFile) throws TransformerException {
+        TransformerFactory transformerFactory = TransformerFactory.newInstance();
+        Transformer transformer = transformerFactory.newTransformer();
+        transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+        transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+        transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "4");
+
+        DOMSource source = new DOMSource(doc);
+        StreamResult result = new StreamResult(xmlFile);
+        transformer.transform(source, result);
+    }
+
+    static void removeWhitespaceNodes(Element element) {
         NodeList children = element.getChildNodes();
         List<Node> nodesToRemove = new ArrayList<>();
         
@@ -169,95 +689,137 @@ public class ModelHandler {
     }
 
     private static class FeatureData {
-        String name;
-        String type;
+        String name = "";
+        String type = "";
         boolean mandatory;
         boolean abstractFlag;
         List<FeatureData> children = new ArrayList<>();
+        // Only on the root, null when the JSON has no "constraints"
+        List<ConstraintData> constraints;
     }
 
-    private static FeatureData parseJsonFeature(String json) {
-        FeatureData feature = new FeatureData();
-        
-        // Simple manual JSON parsing
-        feature.name = extractJsonString(json, "name");
-        feature.type = extractJsonString(json, "type");
-        feature.mandatory = extractJsonBoolean(json, "mandatory");
-        feature.abstractFlag = extractJsonBoolean(json, "abstract");
-        
-        // Parse children array
-        String childrenStr = extractJsonArray(json, "children");
-        if (childrenStr != null && !childrenStr.trim().isEmpty() && !childrenStr.equals("[]")) {
-            feature.children = parseJsonArray(childrenStr);
+    private static class ConstraintData {
+        String type = "";
+        String name = "";
+        List<ConstraintData> children = new ArrayList<>();
+    }
+
+    // Single pass over the JSON with JsonReader, accepts a feature object or an object holding it as "root",
+    // the constraints are read from a "constraints" array next to the root feature
+    private static FeatureData parseJsonFeature(String json) throws IOException {
+        JsonReader reader = new JsonReader(json);
+        FeatureData feature = readFeature(reader);
+        if (reader.peek() != JsonReader.Token.END_DOCUMENT) {
+            throw new IOException("Malformed JSON: trailing data after the feature model");
         }
-        
         return feature;
     }
 
-    private static List<FeatureData> parseJsonArray(String arrayJson) {
-        List<FeatureData> features = new ArrayList<>();
-        if (arrayJson == null || arrayJson.trim().isEmpty()) return features;
-        
-        int depth = 0;
-        int start = -1;
-        
-        for (int i = 0; i < arrayJson.length(); i++) {
-            char c = arrayJson.charAt(i);
-            if (c == '{') {
-                if (depth == 0) start = i;
-                depth++;
-            } else if (c == '}') {
-                depth--;
-                if (depth == 0 && start >= 0) {
-                    String objJson = arrayJson.substring(start, i + 1);
-                    features.add(parseJsonFeature(objJson));
-                    start = -1;
-                }
+    private static FeatureData readFeature(JsonReader reader) throws IOException {
+        FeatureData feature = new FeatureData();
+        FeatureData root = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "name":
+                    feature.name = reader.nextString();
+                    break;
+                case "type":
+                    feature.type = reader.nextString();
+                    break;
+                case "mandatory":
+                    feature.mandatory = readFlag(reader);
+                    break;
+                case "abstract":
+                    feature.abstractFlag = readFlag(reader);
+                    break;
+                case "children":
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        feature.children.add(readFeature(reader));
+                    }
+                    reader.endArray();
+                    break;
+                case "root":
+                    root = readFeature(reader);
+                    break;
+                case "constraints":
+                    feature.constraints = new ArrayList<>();
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        feature.constraints.add(readConstraint(reader));
+                    }
+                    reader.endArray();
+                    break;
+                default:
+                    reader.skipValue();
             }
         }
-        
-        return features;
+        reader.endObject();
+
+        if (root != null) {
+            if (feature.constraints != null) {
+                root.constraints = feature.constraints;
+            }
+            return root;
+        }
+        if (feature.name.isEmpty() || feature.type.isEmpty()) {
+            throw new IOException("Feature without name or type");
+        }
+        return feature;
     }
 
-    private static String extractJsonString(String json, String key) {
-        String pattern = "\"" + key + "\"\\s*:\\s*\"([^\"]*)\"";
-        java.util.regex.Pattern p = java.util.regex.Pattern.compile(pattern);
-        java.util.regex.Matcher m = p.matcher(json);
-        if (m.find()) {
-            return m.group(1);
+    private static ConstraintData readConstraint(JsonReader reader) throws IOException {
+        ConstraintData constraint = new ConstraintData();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "type":
+                    constraint.type = reader.nextString();
+                    break;
+                case "name":
+                    constraint.name = reader.nextString();
+                    break;
+                case "children":
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        constraint.children.add(readConstraint(reader));
+                    }
+                    reader.endArray();
+                    break;
+                default:
+                    reader.skipValue();
+            }
         }
-        return "";
+        reader.endObject();
+
+        byte op = Formula.opOf(constraint.type);
+        if (op < 0) {
+            throw new IOException("Unknown constraint type " + constraint.type);
+        }
+        if (op == Formula.VAR ? constraint.name.isEmpty() : !Formula.hasValidArity(op, constraint.children.size())) {
+            throw new IOException("Invalid " + constraint.type + " constraint");
+        }
+        return constraint;
     }
 
-    private static boolean extractJsonBoolean(String json, String key) {
-        String pattern = "\"" + key + "\"\\s*:\\s*(true|false)";
-        java.util.regex.Pattern p = java.util.regex.Pattern.compile(pattern);
-        java.util.regex.Matcher m = p.matcher(json);
-        if (m.find()) {
-            return Boolean.parseBoolean(m.group(1));
+    private static Element buildXmlFromConstraint(Document doc, ConstraintData constraint) {
+        Element element = doc.createElement(constraint.type);
+        if (constraint.type.equals("var")) {
+            element.setTextContent(constraint.name);
         }
-        return false;
+        for (ConstraintData child : constraint.children) {
+            element.appendChild(buildXmlFromConstraint(doc, child));
+        }
+        return element;
     }
 
-    private static String extractJsonArray(String json, String key) {
-        String pattern = "\"" + key + "\"\\s*:\\s*\\[";
-        java.util.regex.Pattern p = java.util.regex.Pattern.compile(pattern);
-        java.util.regex.Matcher m = p.matcher(json);
-        if (m.find()) {
-            int start = m.end() - 1; // Position of '['
-            int depth = 0;
-            for (int i = start; i < json.length(); i++) {
-                char c = json.charAt(i);
-                if (c == '[') depth++;
-                else if (c == ']') {
-                    depth--;
-                    if (depth == 0) {
-                        return json.substring(start + 1, i);
-                    }
-                }
-            }
+    private static boolean readFlag(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonReader.Token.NULL) {
+            reader.nextNull();
+            return false;
         }
-        return null;
+        return reader.nextBoolean();
     }
 
     private static Element buildXmlFromFeature(Document doc, FeatureData feature) {
@@ -280,12 +842,25 @@ public class ModelHandler {
         return element;
     }
 
-    private static String escapeJson(String str) {
+    static String escapeJson(String str) {
         if (str == null) return "";
-        return str.replace("\\", "\\\\")
-                  .replace("\"", "\\\"")
-                  .replace("\n", "\\n")
-                  .replace("\r", "\\r")
-                  .replace("\t", "\\t");
+        StringBuilder sb = new StringBuilder(str.length() + 16);
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            switch (c) {
+                case '\\': sb.append("\\\\"); break;
+                case '"': sb.append("\\\""); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.toString();
     }
 }
@@ -0,0 +1,75 @@
+package com.fop.backend;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Parsed FeatureModels of the model files the backend works with, shared between commands.
+//
+// A cached model is reused while its file keeps the same size and checksum (see ModelSnapshot.hash);
+// otherwise it is loaded again (from the binary snapshot when that one is still valid). Only the most recently used
+// models are kept (-Dfop.models.cached, default 8), each with its BDD once one was asked for.
+public class ModelRegistry {
+
+    private static final int CAPACITY = Math.max(1, Integer.getInteger("fop.models.cached", 8));
+
+    private static final Map<Path, Cached> MODELS = new LinkedHashMap<Path, Cached>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, Cached> eldest) {
+            return size() > CAPACITY;
+        }
+    };
+
+    public static FeatureModel get(String modelPath) throws Exception {
+        return entry(modelPath).model;
+    }
+
+    // Compiled BDD of the model, kept with the cached model and stored next to the file
+    public static Bdd getBdd(String modelPath) throws Exception {
+        Cached entry = entry(modelPath);
+        synchronized (entry) {
+            if (entry.bdd == null) {
+                entry.bdd = Bdd.load(entry.path, entry.model, entry.size, entry.hash);
+            }
+            return entry.bdd;
+        }
+    }
+
+    private static Cached entry(String modelPath) throws Exception {
+        Path path = Paths.get(modelPath).toAbsolutePath().normalize();
+        long size = Files.size(path);
+        long hash = ModelSnapshot.hash(path);
+
+        synchronized (MODELS) {
+            Cached entry = MODELS.get(path);
+            if (entry != null && entry.size == size && entry.hash == hash) {
+                return entry;
+            }
+        }
+
+        // Loaded outside of the lock, two threads may load the same file but never block each other
+        FeatureModel model = ModelSnapshot.load(path, size, hash);
+        Cached entry = new Cached(path, model, size, hash);
+        synchronized (MODELS) {
+            MODELS.put(path, entry);
+        }
+        return entry;
+    }
+
+    private static class Cached {
+        final Path path;
+        final FeatureModel model;
+        final long size;
+        final long hash;
+        Bdd bdd;
+
+        Cached(Path path, FeatureModel model, long size, long hash) {
+            this.path = path;
+            this.model = model;
+            this.size = size;
+            this.hash = hash;
+        }
+    }
+}
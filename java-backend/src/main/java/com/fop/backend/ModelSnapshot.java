@@ -0,0 +1,247 @@
+package com.fop.backend;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+// Compact binary copy of a model's FeatureModel, stored next to the XML as .<model file>.fop-snapshot.
+//
+// The feature arrays are written in id order: name, element type (an index into a small table of
+// interned type names), mandatory/abstract flags and parent id, followed by the constraints. The snapshot remembers the size and
+// a CRC-32C of the XML it was made from and is only used while both still match; reading it is one
+// sequential read of the file. Modification times are not trusted: an edit keeping the size within
+// their granularity, or a restored time, would go unnoticed.
+public class ModelSnapshot {
+
+    private static final int MAGIC = 0x464f5053; // "FOPS"
+    private static final int VERSION = 4;
+
+    // Snapshot of the model file, read from disk when it is still valid, otherwise parsed from the
+    // XML and stored for the next time (-Dfop.snapshot.enabled=false never touches snapshot files).
+    // size and hash describe the XML as the caller found it, see hash().
+    public static FeatureModel load(Path model, long size, long hash) throws IOException, XMLStreamException {
+        if (!isEnabled()) {
+            return parse(model);
+        }
+
+        Path file = snapshotPath(model);
+        FeatureModel snapshot = read(file, size, hash);
+        if (snapshot != null) {
+            return snapshot;
+        }
+        snapshot = parse(model);
+        try {
+            write(snapshot, file, size, hash);
+        } catch (IOException e) {
+            // Read-only folders just go without a snapshot
+            System.err.println("Could not write model snapshot " + file + ": " + e.getMessage());
+        }
+        return snapshot;
+    }
+
+    static boolean isEnabled() {
+        return Boolean.parseBoolean(System.getProperty("fop.snapshot.enabled", "true"));
+    }
+
+    // Checksum of the XML the snapshot and the stored BDD are checked against, cheap next to parsing it
+    static long hash(Path model) throws IOException {
+        CRC32C crc = new CRC32C();
+        byte[] buffer = new byte[1 << 16];
+        try (InputStream in = Files.newInputStream(model)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                crc.update(buffer, 0, read);
+            }
+        }
+        return crc.getValue();
+    }
+
+    static Path snapshotPath(Path model) {
+        return model.resolveSibling("." + model.getFileName() + ".fop-snapshot");
+    }
+
+    // Null when there is no snapshot, it belongs to another version of the XML or cannot be read
+    static FeatureModel read(Path file, long xmlSize, long xmlHash) {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                    || in.readLong() != xmlSize || in.readLong() != xmlHash) {
+                return null;
+            }
+            String[] typeTable = new String[in.readUnsignedByte()];
+            for (int i = 0; i < typeTable.length; i++) {
+                typeTable[i] = in.readUTF();
+            }
+            int count = in.readInt();
+            String[] names = new String[count];
+            byte[] types = new byte[count];
+            byte[] flags = new byte[count];
+            int[] parent = new int[count];
+            for (int i = 0; i < count; i++) {
+                names[i] = in.readUTF();
+                types[i] = in.readByte();
+                flags[i] = in.readByte();
+                parent[i] = in.readInt();
+                // Ids are in pre-order, so every parent comes before its children
+                if (i == 0 ? parent[i] != -1 : parent[i] < 0 || parent[i] >= i) {
+                    return null;
+                }
+            }
+            Formula[] constraints = new Formula[in.readInt()];
+            for (int i = 0; i < constraints.length; i++) {
+                constraints[i] = Formula.read(in, count);
+            }
+            return new FeatureModel(names, typeTable, types, flags, parent, constraints);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Ignoring unreadable model snapshot " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    static void write(FeatureModel model, Path file, long xmlSize, long xmlHash) throws IOException {
+        // Written to a temporary file first, readers never see half a snapshot
+        Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(xmlSize);
+                out.writeLong(xmlHash);
+                String[] typeTable = model.tagTable();
+                out.writeByte(typeTable.length);
+                for (String type : typeTable) {
+                    out.writeUTF(type);
+                }
+                out.writeInt(model.size());
+                for (int id = 0; id < model.size(); id++) {
+                    out.writeUTF(model.getName(id));
+                    out.writeByte(model.tag(id));
+                    out.writeByte(model.flags(id));
+                    out.writeInt(model.getParent(id));
+                }
+                out.writeInt(model.getConstraintCount());
+                for (int i = 0; i < model.getConstraintCount(); i++) {
+                    model.getConstraint(i).write(out);
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // Reads the <struct> section with StAX straight into the arrays, then the <constraints> following it
+    // (FeatureIDE always writes them in that order). Constraints naming unknown features are kept as
+    // they are, see FeatureModel.checkConstraints().
+    static FeatureModel parse(Path model) throws IOException, XMLStreamException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(model))) {
+            XMLStreamReader reader = ModelHandler.newXmlInputFactory().createXMLStreamReader(in);
+            try {
+                if (!ModelHandler.skipToElement(reader, "struct")) {
+                    throw new IOException("No struct element found");
+                }
+                if (!ModelHandler.nextFeature(reader)) {
+                    throw new IOException("No root feature found");
+                }
+                FeatureModel features = parseFeatures(reader);
+                ModelHandler.skipToEnd(reader);
+                if (!ModelHandler.skipToElement(reader, "constraints")) {
+                    return features;
+                }
+                return features.withConstraints(parseConstraints(reader, features));
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    private static FeatureModel parseFeatures(XMLStreamReader reader) throws XMLStreamException, IOException {
+        List<String> names = new ArrayList<>();
+        List<String> typeTable = new ArrayList<>();
+        Map<String, Integer> typeIds = new HashMap<>();
+        byte[] types = new byte[64];
+        byte[] flags = new byte[64];
+        int[] parent = new int[64];
+        int[] open = new int[16];
+        int depth = 0;
+
+        int event = reader.getEventType();
+        while (true) {
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                int id = names.size();
+                if (id == types.length) {
+                    types = Arrays.copyOf(types, id * 2);
+                    flags = Arrays.copyOf(flags, id * 2);
+                    parent = Arrays.copyOf(parent, id * 2);
+                }
+                String name = reader.getAttributeValue(null, "name");
+                names.add(name == null ? "" : name);
+
+                Integer type = typeIds.get(reader.getLocalName());
+                if (type == null) {
+                    if (typeTable.size() == 255) {
+                        throw new IOException("Too many different feature element types");
+                    }
+                    type = typeTable.size();
+                    typeTable.add(reader.getLocalName());
+                    typeIds.put(reader.getLocalName(), type);
+                }
+                types[id] = (byte) (int) type;
+
+                byte flag = 0;
+                if ("true".equals(reader.getAttributeValue(null, "mandatory"))) {
+                    flag |= FeatureModel.MANDATORY;
+                }
+                if ("true".equals(reader.getAttributeValue(null, "abstract"))) {
+                    flag |= FeatureModel.ABSTRACT;
+                }
+                flags[id] = flag;
+                parent[id] = depth == 0 ? -1 : open[depth - 1];
+
+                if (depth == open.length) {
+                    open = Arrays.copyOf(open, depth * 2);
+                }
+                open[depth++] = id;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                if (--depth == 0) {
+                    break;
+                }
+            }
+            event = reader.next();
+        }
+
+        int count = names.size();
+        return new FeatureModel(names.toArray(new String[0]), typeTable.toArray(new String[0]),
+                Arrays.copyOf(types, count), Arrays.copyOf(flags, count), Arrays.copyOf(parent, count),
+                new Formula[0]);
+    }
+
+    private static Formula[] parseConstraints(XMLStreamReader reader, FeatureModel features)
+            throws XMLStreamException {
+        List<Formula> constraints = new ArrayList<>();
+        while (Formula.nextRule(reader)) {
+            constraints.add(Formula.readXml(reader, features));
+            // Rest of the <rule>
+            ModelHandler.skipToEnd(reader);
+        }
+        return constraints.toArray(new Formula[0]);
+    }
+}
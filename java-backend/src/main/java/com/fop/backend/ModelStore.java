@@ -0,0 +1,604 @@
+package com.fop.backend;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Feature models opened by applyModelEdits, kept in memory as DOM documents between edits.
+//
+// Features are addressed by their name path from the root (["ChatApp", "UI", "GUI"]) and found through a
+// name index, and the constraints' <var> elements through a second index by the name they hold, so an
+// edit only touches the elements it changes. In serve mode the file is written behind:
+// an edit schedules a write after -Dfop.model.flushDelay milliseconds and every edit arriving meanwhile
+// goes into the same write. Commands that read the model file flush pending edits first. A write
+// serializes the whole document, so its cost grows with the model even when an edit touches one element;
+// a one-shot CLI run pays it on every call.
+//
+// Edits: {"op":"add","path":[parent],"feature":{"name","type","mandatory","abstract"},"index":n}
+//        {"op":"remove","path":[feature]}   (also removes the constraints naming a removed feature)
+//        {"op":"move","path":[feature],"to":[new parent],"index":n}
+//        {"op":"rename","path":[feature],"name":"New"}
+//        {"op":"set","path":[feature],"attribute":"type|mandatory|abstract","value":...}
+public class ModelStore {
+
+    private static final Set<String> FEATURE_TYPES = new HashSet<>(Arrays.asList("and", "or", "alt", "feature"));
+
+    private static final Map<Path, Entry> ENTRIES = new ConcurrentHashMap<>();
+
+    private static volatile boolean writeBehind = false;
+    private static ScheduledExecutorService flusher;
+
+    // Enabled by the serve mode, a one-shot CLI run writes its edits before it exits
+    public static void setWriteBehind(boolean enabled) {
+        writeBehind = enabled;
+    }
+
+    public static String applyEdits(String modelPath, String editsJson) {
+        List<Edit> edits;
+        try {
+            edits = readEdits(editsJson);
+        } catch (IOException e) {
+            return result(e.getMessage() == null ? "" : e.getMessage(), 0, new ArrayList<>());
+        }
+
+        Entry entry;
+        try {
+            entry = open(modelPath);
+        } catch (Exception e) {
+            return result(e.getMessage() == null ? "" : e.getMessage(), 0, new ArrayList<>());
+        }
+
+        synchronized (entry) {
+            // Edits apply in order; when one fails, the ones before it stay applied
+            int applied = 0;
+            String error = null;
+            List<Element> removedRules = new ArrayList<>();
+            for (Edit edit : edits) {
+                try {
+                    apply(entry, edit, removedRules);
+                    applied++;
+                } catch (IllegalArgumentException e) {
+                    error = "Edit " + applied + " (" + edit.op + "): " + e.getMessage();
+                    break;
+                }
+            }
+            if (applied > 0) {
+                entry.dirty = true;
+                try {
+                    persist(entry);
+                } catch (Exception e) {
+                    error = "Could not write model: " + e.getMessage();
+                }
+            }
+            return result(error, applied, removedRules);
+        }
+    }
+
+    // {"status","message" (on error),"applied","removedConstraints"}, the removed rules in the JSON
+    // shape of loadModel
+    private static String result(String error, int applied, List<Element> removedRules) {
+        StringWriter out = new StringWriter();
+        try {
+            JsonWriter json = new JsonWriter(out);
+            json.beginObject();
+            json.name("status").value(error == null ? "ok" : "error");
+            if (error != null) {
+                json.name("message").value(error);
+            }
+            json.name("applied").value(applied);
+            json.name("removedConstraints").beginArray();
+            for (Element rule : removedRules) {
+                for (Node child = rule.getFirstChild(); child != null; child = child.getNextSibling()) {
+                    if (child.getNodeType() == Node.ELEMENT_NODE && Formula.opOf(child.getNodeName()) >= 0) {
+                        writeFormula((Element) child, json);
+                        break;
+                    }
+                }
+            }
+            json.endArray();
+            json.endObject();
+            json.flush();
+        } catch (IOException e) {
+            // A StringWriter does not fail
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+
+    private static void writeFormula(Element element, JsonWriter json) throws IOException {
+        json.beginObject();
+        json.name("type").value(element.getNodeName());
+        if (Formula.opOf(element.getNodeName()) == Formula.VAR) {
+            json.name("name").value(element.getTextContent().trim());
+        } else {
+            json.name("children").beginArray();
+            for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+                if (child.getNodeType() == Node.ELEMENT_NODE) {
+                    writeFormula((Element) child, json);
+                }
+            }
+            json.endArray();
+        }
+        json.endObject();
+    }
+
+    // Writes pending edits of a model, if it is open
+    public static void flush(String modelPath) {
+        Entry entry = ENTRIES.get(key(modelPath));
+        if (entry != null) {
+            flushQuietly(entry);
+        }
+    }
+
+    public static void flushAll() {
+        for (Entry entry : ENTRIES.values()) {
+            flushQuietly(entry);
+        }
+    }
+
+    // Forgets a model after its file was rewritten by someone else, pending edits are written first
+    public static void invalidate(String modelPath) {
+        Entry entry = ENTRIES.remove(key(modelPath));
+        if (entry != null) {
+            flushQuietly(entry);
+        }
+    }
+
+    private static Path key(String modelPath) {
+        return Paths.get(modelPath).toAbsolutePath().normalize();
+    }
+
+    private static Entry open(String modelPath) throws Exception {
+        Path path = key(modelPath);
+        Entry entry = ENTRIES.computeIfAbsent(path, Entry::new);
+        synchronized (entry) {
+            // Reloaded when the file changed on disk, unless there are edits of our own still to write
+            if (entry.doc == null || (!entry.dirty && entry.isStale())) {
+                entry.load();
+            }
+        }
+        return entry;
+    }
+
+    private static void persist(Entry entry) throws Exception {
+        if (!writeBehind) {
+            entry.write();
+            return;
+        }
+        if (!entry.flushScheduled) {
+            entry.flushScheduled = true;
+            flusher().schedule(() -> flushQuietly(entry), Long.getLong("fop.model.flushDelay", 500), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static synchronized ScheduledExecutorService flusher() {
+        if (flusher == null) {
+            flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "fop-model-flush");
+                thread.setDaemon(true);
+                return thread;
+            });
+            Runtime.getRuntime().addShutdownHook(new Thread(ModelStore::flushAll));
+        }
+        return flusher;
+    }
+
+    private static void flushQuietly(Entry entry) {
+        synchronized (entry) {
+            entry.flushScheduled = false;
+            try {
+                entry.write();
+            } catch (Exception e) {
+                // Stays dirty, the next edit or flush tries again
+                System.err.println("Could not write model " + entry.path + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static void apply(Entry entry, Edit edit, List<Element> removedRules) {
+        switch (edit.op) {
+            case "add":
+                add(entry, edit);
+                break;
+            case "remove":
+                remove(entry, edit, removedRules);
+                break;
+            case "move":
+                move(entry, edit);
+                break;
+            case "rename":
+                rename(entry, edit);
+                break;
+            case "set":
+                set(entry, edit);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown operation");
+        }
+    }
+
+    private static void add(Entry entry, Edit edit) {
+        Element parent = entry.resolve(edit.path);
+        if (edit.name == null || edit.name.isEmpty()) {
+            throw new IllegalArgumentException("Missing feature name");
+        }
+        entry.checkUnused(edit.name);
+        String type = edit.type == null ? "feature" : edit.type;
+        checkType(type);
+
+        Element feature = entry.doc.createElement(type);
+        feature.setAttribute("name", edit.name);
+        setFlag(feature, "mandatory", edit.mandatory);
+        setFlag(feature, "abstract", edit.abstractFlag);
+        insert(parent, feature, edit.index);
+        entry.features.put(edit.name, feature);
+    }
+
+    // The subtree goes, and with it every rule naming one of its features: left in place, such a rule
+    // could no longer be used by any analysis. The rules removed are reported back.
+    private static void remove(Entry entry, Edit edit, List<Element> removedRules) {
+        Element feature = entry.resolve(edit.path);
+        if (feature == entry.root()) {
+            throw new IllegalArgumentException("Cannot remove the root feature");
+        }
+        feature.getParentNode().removeChild(feature);
+        Set<String> removed = new HashSet<>();
+        entry.unindex(feature, removed);
+
+        Set<Element> naming = new HashSet<>();
+        for (String name : removed) {
+            for (Element var : entry.vars.getOrDefault(name, Collections.emptyList())) {
+                Node rule = var.getParentNode();
+                while (rule != null && !rule.getNodeName().equals("rule")) {
+                    rule = rule.getParentNode();
+                }
+                if (rule != null) {
+                    naming.add((Element) rule);
+                }
+            }
+        }
+        // Reported in the order of the file
+        List<Element> ordered = new ArrayList<>(naming);
+        ordered.sort((a, b) -> a == b ? 0 : (a.compareDocumentPosition(b) & Node.DOCUMENT_POSITION_FOLLOWING) != 0 ? -1 : 1);
+        for (Element rule : ordered) {
+            rule.getParentNode().removeChild(rule);
+            entry.unindexVars(rule);
+        }
+        removedRules.addAll(ordered);
+    }
+
+    private static void move(Entry entry, Edit edit) {
+        Element feature = entry.resolve(edit.path);
+        Element parent = entry.resolve(edit.to);
+        if (feature == entry.root()) {
+            throw new IllegalArgumentException("Cannot move the root feature");
+        }
+        for (Node node = parent; node != null; node = node.getParentNode()) {
+            if (node == feature) {
+                throw new IllegalArgumentException("Cannot move a feature below itself");
+            }
+        }
+        feature.getParentNode().removeChild(feature);
+        insert(parent, feature, edit.index);
+    }
+
+    private static void rename(Entry entry, Edit edit) {
+        Element feature = entry.resolve(edit.path);
+        if (edit.name == null || edit.name.isEmpty()) {
+            throw new IllegalArgumentException("Missing new name");
+        }
+        String oldName = feature.getAttribute("name");
+        if (oldName.equals(edit.name)) {
+            return;
+        }
+        entry.checkUnused(edit.name);
+        feature.setAttribute("name", edit.name);
+        entry.features.remove(oldName);
+        entry.features.put(edit.name, feature);
+
+        // Constraints refer to features by name
+        List<Element> naming = entry.vars.remove(oldName);
+        if (naming != null) {
+            for (Element var : naming) {
+                var.setTextContent(edit.name);
+            }
+            entry.vars.computeIfAbsent(edit.name, name -> new ArrayList<>()).addAll(naming);
+        }
+    }
+
+    private static void set(Entry entry, Edit edit) {
+        Element feature = entry.resolve(edit.path);
+        if (edit.attribute == null) {
+            throw new IllegalArgumentException("Missing attribute");
+        }
+        switch (edit.attribute) {
+            case "type":
+                checkType(edit.value);
+                if (!feature.getTagName().equals(edit.value)) {
+                    Element renamed = (Element) entry.doc.renameNode(feature, null, edit.value);
+                    entry.features.put(renamed.getAttribute("name"), renamed);
+                }
+                break;
+            case "mandatory":
+            case "abstract":
+                setFlag(feature, edit.attribute, "true".equals(edit.value));
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported attribute " + edit.attribute);
+        }
+    }
+
+    private static void checkType(String type) {
+        if (type == null || !FEATURE_TYPES.contains(type)) {
+            throw new IllegalArgumentException("Invalid feature type " + type);
+        }
+    }
+
+    // Written the way saveModel writes them: present when true, left out otherwise
+    private static void setFlag(Element feature, String attribute, boolean value) {
+        if (value) {
+            feature.setAttribute(attribute, "true");
+        } else {
+            feature.removeAttribute(attribute);
+        }
+    }
+
+    private static void insert(Element parent, Element feature, int index) {
+        Node before = null;
+        if (index >= 0) {
+            int position = 0;
+            for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+                if (child.getNodeType() == Node.ELEMENT_NODE && position++ == index) {
+                    before = child;
+                    break;
+                }
+            }
+        }
+        parent.insertBefore(feature, before);
+    }
+
+    private static List<Edit> readEdits(String json) throws IOException {
+        JsonReader reader = new JsonReader(json);
+        List<Edit> edits = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            edits.add(readEdit(reader));
+        }
+        reader.endArray();
+        return edits;
+    }
+
+    private static Edit readEdit(JsonReader reader) throws IOException {
+        Edit edit = new Edit();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "op":
+                    edit.op = reader.nextString();
+                    break;
+                case "path":
+                    edit.path = reader.nextStringArray();
+                    break;
+                case "to":
+                    edit.to = reader.nextStringArray();
+                    break;
+                case "index":
+                    edit.index = reader.nextInt();
+                    break;
+                case "name":
+                    edit.name = reader.nextString();
+                    break;
+                case "attribute":
+                    edit.attribute = reader.nextString();
+                    break;
+                case "value":
+                    edit.value = reader.peek() == JsonReader.Token.BOOLEAN
+                            ? Boolean.toString(reader.nextBoolean())
+                            : reader.nextString();
+                    break;
+                case "feature":
+                    readNewFeature(reader, edit);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (edit.op == null) {
+            throw new IOException("Edit without op");
+        }
+        return edit;
+    }
+
+    private static void readNewFeature(JsonReader reader, Edit edit) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "name":
+                    edit.name = reader.nextString();
+                    break;
+                case "type":
+                    edit.type = reader.nextString();
+                    break;
+                case "mandatory":
+                    edit.mandatory = reader.nextBoolean();
+                    break;
+                case "abstract":
+                    edit.abstractFlag = reader.nextBoolean();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private static class Edit {
+        String op;
+        List<String> path;
+        List<String> to;
+        int index = -1;
+        String name;
+        String type;
+        boolean mandatory;
+        boolean abstractFlag;
+        String attribute;
+        String value;
+    }
+
+    private static class Entry {
+        final Path path;
+        final Map<String, Element> features = new HashMap<>();
+        // <var> elements of the constraints by the feature name they hold, names of no feature included
+        final Map<String, List<Element>> vars = new HashMap<>();
+        Document doc;
+        Element struct;
+        long lastModified;
+        long size;
+        boolean dirty;
+        boolean flushScheduled;
+
+        Entry(Path path) {
+            this.path = path;
+        }
+
+        void load() throws Exception {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            Document loaded = factory.newDocumentBuilder().parse(path.toFile());
+            loaded.getDocumentElement().normalize();
+            // Same clean-up as saveModel, so the transformer indents the written file consistently
+            ModelHandler.removeWhitespaceNodes(loaded.getDocumentElement());
+
+            NodeList structNodes = loaded.getElementsByTagName("struct");
+            if (structNodes.getLength() == 0) {
+                throw new IOException("No struct element found");
+            }
+            doc = loaded;
+            struct = (Element) structNodes.item(0);
+            features.clear();
+            index(struct);
+            vars.clear();
+            NodeList constraintNodes = loaded.getElementsByTagName("constraints");
+            if (constraintNodes.getLength() > 0) {
+                NodeList varNodes = ((Element) constraintNodes.item(0)).getElementsByTagName("var");
+                for (int i = 0; i < varNodes.getLength(); i++) {
+                    Element var = (Element) varNodes.item(i);
+                    vars.computeIfAbsent(var.getTextContent().trim(), name -> new ArrayList<>()).add(var);
+                }
+            }
+            if (root() == null) {
+                throw new IOException("No root feature found");
+            }
+            lastModified = Files.getLastModifiedTime(path).toMillis();
+            size = Files.size(path);
+            dirty = false;
+        }
+
+        boolean isStale() throws IOException {
+            return Files.getLastModifiedTime(path).toMillis() != lastModified || Files.size(path) != size;
+        }
+
+        void write() throws Exception {
+            if (!dirty) {
+                return;
+            }
+            File file = path.toFile();
+            ModelHandler.writeDocument(doc, file);
+            lastModified = Files.getLastModifiedTime(path).toMillis();
+            size = Files.size(path);
+            dirty = false;
+        }
+
+        Element root() {
+            for (Node child = struct.getFirstChild(); child != null; child = child.getNextSibling()) {
+                if (child.getNodeType() == Node.ELEMENT_NODE) {
+                    return (Element) child;
+                }
+            }
+            return null;
+        }
+
+        // Looks up the last name and checks that its ancestors match the rest of the path
+        Element resolve(List<String> names) {
+            if (names == null || names.isEmpty()) {
+                throw new IllegalArgumentException("Missing feature path");
+            }
+            Element feature = features.get(names.get(names.size() - 1));
+            Node node = feature;
+            for (int i = names.size() - 1; i >= 0 && node != null; i--) {
+                if (node == struct || !names.get(i).equals(((Element) node).getAttribute("name"))) {
+                    node = null;
+                    break;
+                }
+                node = node.getParentNode();
+            }
+            if (node != struct) {
+                throw new IllegalArgumentException("No feature at " + String.join("/", names));
+            }
+            return feature;
+        }
+
+        void checkUnused(String name) {
+            if (features.containsKey(name)) {
+                throw new IllegalArgumentException("Feature " + name + " already exists");
+            }
+        }
+
+        private void index(Element element) throws IOException {
+            for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+                if (child.getNodeType() == Node.ELEMENT_NODE) {
+                    Element feature = (Element) child;
+                    if (features.put(feature.getAttribute("name"), feature) != null) {
+                        throw new IOException("Feature name " + feature.getAttribute("name") + " is used more than once");
+                    }
+                    index(feature);
+                }
+            }
+        }
+
+        // Drops the subtree from the index, adding its names to removed
+        void unindex(Element element, Set<String> removed) {
+            String name = element.getAttribute("name");
+            features.remove(name);
+            removed.add(name);
+            for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+                if (child.getNodeType() == Node.ELEMENT_NODE) {
+                    unindex((Element) child, removed);
+                }
+            }
+        }
+
+        // Drops the <var> elements of a removed rule from the index
+        void unindexVars(Element rule) {
+            NodeList varNodes = rule.getElementsByTagName("var");
+            for (int i = 0; i < varNodes.getLength(); i++) {
+                Element var = (Element) varNodes.item(i);
+                String name = var.getTextContent().trim();
+                List<Element> naming = vars.get(name);
+                if (naming != null && naming.remove(var) && naming.isEmpty()) {
+                    vars.remove(name);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,640 @@
+package com.fop.backend;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// CDCL SAT solver over DIMACS style literals, made for many small queries on one model.
+//
+// The usual MiniSat design: two watched literals per clause, first-UIP conflict analysis with learned
+// clause minimization, VSIDS variable activities in a binary heap, phase saving, Luby restarts and a
+// learned clause database that drops its less active half when it grows too large. Queries are
+// solved under assumptions, which are decided first and never become clauses, so everything learned
+// stays valid for the next query. An instance is not thread safe.
+public final class SatSolver {
+
+    private static final int RESTART_BASE = 100;
+    private static final double VAR_DECAY = 0.95;
+    private static final double CLAUSE_DECAY = 0.999;
+
+    private final int variables;
+    // Per variable: 1 true, -1 false, 0 unassigned
+    private final byte[] assigns;
+    private final int[] level;
+    private final Clause[] reason;
+    private final boolean[] phase;
+    private final boolean[] seen;
+
+    // Watch lists per internal literal (2 * var + sign)
+    private final Clause[][] watches;
+    private final int[] watchCount;
+
+    private final int[] trail;
+    private int trailSize;
+    private int propagated;
+    private int[] trailLim = new int[16];
+    private int decisionLevel;
+
+    private final double[] activity;
+    private double varIncrement = 1;
+    private final int[] heap;
+    private final int[] heapIndex;
+    private int heapSize;
+
+    private final List<Clause> learnts = new ArrayList<>();
+    private double clauseIncrement = 1;
+    private double maxLearnts = 1000;
+
+    private boolean ok = true;
+    private final boolean[] model;
+    private int[] conflict = new int[0];
+    private long conflicts;
+
+    private static final class Clause {
+        final int[] lits;
+        final boolean learnt;
+        double activity;
+        boolean deleted;
+
+        Clause(int[] lits, boolean learnt) {
+            this.lits = lits;
+            this.learnt = learnt;
+        }
+    }
+
+    public SatSolver(int variables) {
+        this.variables = variables;
+        assigns = new byte[variables];
+        level = new int[variables];
+        reason = new Clause[variables];
+        phase = new boolean[variables];
+        seen = new boolean[variables];
+        watches = new Clause[2 * variables][];
+        watchCount = new int[2 * variables];
+        for (int i = 0; i < watches.length; i++) {
+            watches[i] = new Clause[4];
+        }
+        trail = new int[variables];
+        activity = new double[variables];
+        heap = new int[variables];
+        heapIndex = new int[variables];
+        Arrays.fill(heapIndex, -1);
+        for (int v = 0; v < variables; v++) {
+            heapInsert(v);
+        }
+        model = new boolean[variables];
+    }
+
+    public SatSolver(Cnf cnf) {
+        this(cnf.getVariableCount());
+        for (int[] clause : cnf.getClauses()) {
+            addClause(clause);
+        }
+        maxLearnts = Math.max(1000, cnf.getClauses().length / 3.0);
+    }
+
+    public int getVariableCount() {
+        return variables;
+    }
+
+    // False once the clauses are unsatisfiable on their own
+    public boolean isOk() {
+        return ok;
+    }
+
+    public long getConflicts() {
+        return conflicts;
+    }
+
+    // Adds a clause of DIMACS literals, only between queries
+    public boolean addClause(int... literals) {
+        if (!ok) {
+            return false;
+        }
+        int[] lits = new int[literals.length];
+        int size = 0;
+        for (int literal : literals) {
+            int lit = internal(literal);
+            int value = value(lit);
+            if (value > 0) {
+                return true;
+            }
+            boolean duplicate = false;
+            for (int i = 0; i < size; i++) {
+                if (lits[i] == lit) {
+                    duplicate = true;
+                } else if (lits[i] == (lit ^ 1)) {
+                    return true;
+                }
+            }
+            if (!duplicate && value == 0) {
+                lits[size++] = lit;
+            }
+        }
+        if (size == 0) {
+            ok = false;
+        } else if (size == 1) {
+            enqueue(lits[0], null);
+            ok = propagate() == null;
+        } else {
+            attach(new Clause(Arrays.copyOf(lits, size), false));
+        }
+        return ok;
+    }
+
+    // Whether the clauses and the assumptions (DIMACS literals) can all be true. Afterwards
+    // getModelValue() reads the solution, or getConflict() the assumptions that cannot hold together.
+    public boolean solve(int... assumptions) {
+        conflict = new int[0];
+        if (!ok) {
+            return false;
+        }
+        int[] assumed = new int[assumptions.length];
+        for (int i = 0; i < assumed.length; i++) {
+            assumed[i] = internal(assumptions[i]);
+        }
+        try {
+            for (int restart = 0; ; restart++) {
+                int result = search(RESTART_BASE * luby(restart), assumed);
+                if (result != 0) {
+                    return result > 0;
+                }
+            }
+        } finally {
+            cancelUntil(0);
+        }
+    }
+
+    // Literals implied by unit propagation of the assumptions alone, the assumptions included; null on a
+    // conflict. Much cheaper than solve() and often already most of what is forced.
+    public int[] propagateAssumptions(int... assumptions) {
+        if (!ok) {
+            return null;
+        }
+        try {
+            for (int assumption : assumptions) {
+                int lit = internal(assumption);
+                int value = value(lit);
+                if (value < 0) {
+                    return null;
+                }
+                if (value == 0) {
+                    newDecisionLevel();
+                    enqueue(lit, null);
+                    if (propagate() != null) {
+                        return null;
+                    }
+                }
+            }
+            int[] result = new int[trailSize];
+            for (int i = 0; i < trailSize; i++) {
+                result[i] = external(trail[i]);
+            }
+            return result;
+        } finally {
+            cancelUntil(0);
+        }
+    }
+
+    // Preferred value for the next decisions on the variable of a DIMACS literal, until phase saving
+    // overwrites it
+    public void setPhase(int literal) {
+        phase[Math.abs(literal) - 1] = literal > 0;
+    }
+
+    // Value of a variable (1-based) in the last solution
+    public boolean getModelValue(int variable) {
+        return model[variable - 1];
+    }
+
+    // Subset of the assumptions of the last failed solve() that already contradict each other
+    public int[] getConflict() {
+        return conflict.clone();
+    }
+
+    // 1 satisfiable, -1 unsatisfiable, 0 when the conflict budget ran out and it is time to restart
+    private int search(int conflictBudget, int[] assumptions) {
+        int budget = conflictBudget;
+        while (true) {
+            Clause confl = propagate();
+            if (confl != null) {
+                conflicts++;
+                if (decisionLevel == 0) {
+                    ok = false;
+                    return -1;
+                }
+                List<Integer> learnt = new ArrayList<>();
+                int backtrack = analyze(confl, learnt);
+                cancelUntil(backtrack);
+                if (learnt.size() == 1) {
+                    enqueue(learnt.get(0), null);
+                } else {
+                    int[] lits = new int[learnt.size()];
+                    for (int i = 0; i < lits.length; i++) {
+                        lits[i] = learnt.get(i);
+                    }
+                    Clause clause = new Clause(lits, true);
+                    attach(clause);
+                    learnts.add(clause);
+                    bumpClause(clause);
+                    enqueue(lits[0], clause);
+                }
+                varIncrement /= VAR_DECAY;
+                clauseIncrement /= CLAUSE_DECAY;
+                budget--;
+                continue;
+            }
+
+            if (budget <= 0) {
+                cancelUntil(0);
+                return 0;
+            }
+            if (learnts.size() - trailSize >= maxLearnts) {
+                reduceLearnts();
+            }
+
+            int next = -1;
+            while (decisionLevel < assumptions.length) {
+                int p = assumptions[decisionLevel];
+                int value = value(p);
+                if (value > 0) {
+                    // Already true, keep the levels in step with the assumptions
+                    newDecisionLevel();
+                } else if (value < 0) {
+                    analyzeFinal(p, assumptions);
+                    return -1;
+                } else {
+                    next = p;
+                    break;
+                }
+            }
+            if (next < 0) {
+                int v = pickBranchVariable();
+                if (v < 0) {
+                    for (int i = 0; i < variables; i++) {
+                        model[i] = assigns[i] > 0;
+                    }
+                    return 1;
+                }
+                next = 2 * v + (phase[v] ? 0 : 1);
+            }
+            newDecisionLevel();
+            enqueue(next, null);
+        }
+    }
+
+    // First UIP learning: the learned clause goes to out with the asserting literal first, returns the
+    // level to go back to
+    private int analyze(Clause confl, List<Integer> out) {
+        out.add(-1);
+        int pathCount = 0;
+        int p = -1;
+        int index = trailSize - 1;
+        Clause clause = confl;
+        do {
+            if (clause.learnt) {
+                bumpClause(clause);
+            }
+            for (int j = p < 0 ? 0 : 1; j < clause.lits.length; j++) {
+                int q = clause.lits[j];
+                int v = q >> 1;
+                if (!seen[v] && level[v] > 0) {
+                    bumpVariable(v);
+                    seen[v] = true;
+                    if (level[v] >= decisionLevel) {
+                        pathCount++;
+                    } else {
+                        out.add(q);
+                    }
+                }
+            }
+            while (!seen[trail[index] >> 1]) {
+                index--;
+            }
+            p = trail[index];
+            index--;
+            clause = reason[p >> 1];
+            seen[p >> 1] = false;
+            pathCount--;
+        } while (pathCount > 0);
+        out.set(0, p ^ 1);
+
+        // Drop literals whose reason only has literals already in the clause (or fixed at level 0)
+        int[] marked = new int[out.size()];
+        for (int i = 1; i < out.size(); i++) {
+            marked[i] = out.get(i) >> 1;
+        }
+        int kept = 1;
+        for (int i = 1; i < out.size(); i++) {
+            int q = out.get(i);
+            Clause r = reason[q >> 1];
+            boolean redundant = r != null;
+            if (r != null) {
+                for (int j = 1; j < r.lits.length; j++) {
+                    int w = r.lits[j] >> 1;
+                    if (!seen[w] && level[w] > 0) {
+                        redundant = false;
+                        break;
+                    }
+                }
+            }
+            if (!redundant) {
+                out.set(kept++, q);
+            }
+        }
+        for (int i = 1; i < marked.length; i++) {
+            seen[marked[i]] = false;
+        }
+        while (out.size() > kept) {
+            out.remove(out.size() - 1);
+        }
+
+        // Second watch goes to the literal of the highest level, which is where to go back to
+        int backtrack = 0;
+        if (out.size() > 1) {
+            int max = 1;
+            for (int i = 2; i < out.size(); i++) {
+                if (level[out.get(i) >> 1] > level[out.get(max) >> 1]) {
+                    max = i;
+                }
+            }
+            int swap = out.get(1);
+            out.set(1, out.get(max));
+            out.set(max, swap);
+            backtrack = level[out.get(1) >> 1];
+        }
+        return backtrack;
+    }
+
+    // Assumption p turned out false: collects the assumptions that imply its negation
+    private void analyzeFinal(int p, int[] assumptions) {
+        List<Integer> result = new ArrayList<>();
+        result.add(external(p));
+        int v = p >> 1;
+        if (decisionLevel > 0) {
+            seen[v] = true;
+            for (int i = trailSize - 1; i >= trailLim[0]; i--) {
+                int x = trail[i] >> 1;
+                if (!seen[x]) {
+                    continue;
+                }
+                if (reason[x] == null) {
+                    if (level[x] > 0) {
+                        result.add(external(trail[i]));
+                    }
+                } else {
+                    for (int j = 1; j < reason[x].lits.length; j++) {
+                        int w = reason[x].lits[j] >> 1;
+                        if (level[w] > 0) {
+                            seen[w] = true;
+                        }
+                    }
+                }
+                seen[x] = false;
+            }
+            seen[v] = false;
+        }
+        conflict = new int[result.size()];
+        for (int i = 0; i < conflict.length; i++) {
+            conflict[i] = result.get(i);
+        }
+    }
+
+    // Unit propagation from the last propagated trail position, returns the conflicting clause if any
+    private Clause propagate() {
+        while (propagated < trailSize) {
+            int p = trail[propagated++];
+            int falseLit = p ^ 1;
+            Clause[] list = watches[falseLit];
+            int count = watchCount[falseLit];
+            int kept = 0;
+            int i = 0;
+            while (i < count) {
+                Clause clause = list[i++];
+                if (clause.deleted) {
+                    continue;
+                }
+                int[] lits = clause.lits;
+                if (lits[0] == falseLit) {
+                    lits[0] = lits[1];
+                    lits[1] = falseLit;
+                }
+                if (value(lits[0]) > 0) {
+                    list[kept++] = clause;
+                    continue;
+                }
+                boolean moved = false;
+                for (int k = 2; k < lits.length; k++) {
+                    if (value(lits[k]) >= 0) {
+                        lits[1] = lits[k];
+                        lits[k] = falseLit;
+                        watch(lits[1], clause);
+                        moved = true;
+                        break;
+                    }
+                }
+                if (moved) {
+                    continue;
+                }
+                list[kept++] = clause;
+                if (value(lits[0]) < 0) {
+                    // Conflict: keep the remaining watches
+                    while (i < count) {
+                        list[kept++] = list[i++];
+                    }
+                    watchCount[falseLit] = kept;
+                    propagated = trailSize;
+                    return clause;
+                }
+                enqueue(lits[0], clause);
+            }
+            watchCount[falseLit] = kept;
+        }
+        return null;
+    }
+
+    private void reduceLearnts() {
+        learnts.sort((a, b) -> Double.compare(a.activity, b.activity));
+        int half = learnts.size() / 2;
+        List<Clause> kept = new ArrayList<>();
+        for (int i = 0; i < learnts.size(); i++) {
+            Clause clause = learnts.get(i);
+            boolean locked = reason[clause.lits[0] >> 1] == clause && value(clause.lits[0]) > 0;
+            if (i < half && clause.lits.length > 2 && !locked) {
+                clause.deleted = true;
+            } else {
+                kept.add(clause);
+            }
+        }
+        learnts.clear();
+        learnts.addAll(kept);
+        maxLearnts *= 1.1;
+    }
+
+    private void attach(Clause clause) {
+        watch(clause.lits[0], clause);
+        watch(clause.lits[1], clause);
+    }
+
+    private void watch(int lit, Clause clause) {
+        if (watchCount[lit] == watches[lit].length) {
+            watches[lit] = Arrays.copyOf(watches[lit], watches[lit].length * 2);
+        }
+        watches[lit][watchCount[lit]++] = clause;
+    }
+
+    private void enqueue(int lit, Clause from) {
+        int v = lit >> 1;
+        assigns[v] = (byte) ((lit & 1) == 0 ? 1 : -1);
+        level[v] = decisionLevel;
+        reason[v] = from;
+        trail[trailSize++] = lit;
+    }
+
+    private void newDecisionLevel() {
+        if (decisionLevel == trailLim.length) {
+            trailLim = Arrays.copyOf(trailLim, trailLim.length * 2);
+        }
+        trailLim[decisionLevel++] = trailSize;
+    }
+
+    private void cancelUntil(int target) {
+        if (decisionLevel <= target) {
+            return;
+        }
+        for (int i = trailSize - 1; i >= trailLim[target]; i--) {
+            int v = trail[i] >> 1;
+            phase[v] = assigns[v] > 0;
+            assigns[v] = 0;
+            reason[v] = null;
+            if (heapIndex[v] < 0) {
+                heapInsert(v);
+            }
+        }
+        trailSize = trailLim[target];
+        propagated = trailSize;
+        decisionLevel = target;
+    }
+
+    private int pickBranchVariable() {
+        while (heapSize > 0) {
+            int v = heapRemoveMax();
+            if (assigns[v] == 0) {
+                return v;
+            }
+        }
+        return -1;
+    }
+
+    private void bumpVariable(int v) {
+        activity[v] += varIncrement;
+        if (activity[v] > 1e100) {
+            for (int i = 0; i < variables; i++) {
+                activity[i] *= 1e-100;
+            }
+            varIncrement *= 1e-100;
+        }
+        if (heapIndex[v] >= 0) {
+            heapUp(heapIndex[v]);
+        }
+    }
+
+    private void bumpClause(Clause clause) {
+        clause.activity += clauseIncrement;
+        if (clause.activity > 1e20) {
+            for (Clause learnt : learnts) {
+                learnt.activity *= 1e-20;
+            }
+            clauseIncrement *= 1e-20;
+        }
+    }
+
+    private int value(int lit) {
+        int value = assigns[lit >> 1];
+        return (lit & 1) == 0 ? value : -value;
+    }
+
+    private int internal(int literal) {
+        int v = Math.abs(literal) - 1;
+        if (literal == 0 || v >= variables) {
+            throw new IllegalArgumentException("No variable for literal " + literal);
+        }
+        return 2 * v + (literal < 0 ? 1 : 0);
+    }
+
+    private static int external(int lit) {
+        return (lit & 1) == 0 ? (lit >> 1) + 1 : -((lit >> 1) + 1);
+    }
+
+    // 1, 1, 2, 1, 1, 2, 4, 1, 1, 2, ...
+    private static int luby(int i) {
+        int size = 1;
+        int sequence = 0;
+        while (size < i + 1) {
+            sequence++;
+            size = 2 * size + 1;
+        }
+        int x = i;
+        while (size - 1 != x) {
+            size = (size - 1) >> 1;
+            sequence--;
+            x = x % size;
+        }
+        return 1 << sequence;
+    }
+
+    // Max-heap of unassigned variables by activity
+    private void heapInsert(int v) {
+        heapIndex[v] = heapSize;
+        heap[heapSize++] = v;
+        heapUp(heapSize - 1);
+    }
+
+    private int heapRemoveMax() {
+        int top = heap[0];
+        heapIndex[top] = -1;
+        heapSize--;
+        if (heapSize > 0) {
+            heap[0] = heap[heapSize];
+            heapIndex[heap[0]] = 0;
+            heapDown(0);
+        }
+        return top;
+    }
+
+    private void heapUp(int i) {
+        int v = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >> 1;
+            if (activity[heap[parent]] >= activity[v]) {
+                break;
+            }
+            heap[i] = heap[parent];
+            heapIndex[heap[i]] = i;
+            i = parent;
+        }
+        heap[i] = v;
+        heapIndex[v] = i;
+    }
+
+    private void heapDown(int i) {
+        int v = heap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && activity[heap[child + 1]] > activity[heap[child]]) {
+                child++;
+            }
+            if (activity[heap[child]] <= activity[v]) {
+                break;
+            }
+            heap[i] = heap[child];
+            heapIndex[heap[i]] = i;
+            i = child;
+        }
+        heap[i] = v;
+        heapIndex[v] = i;
+    }
+}
@@ -0,0 +1,540 @@
+package com.fop.backend;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Covering arrays for t-wise testing, built the way YASA builds them on top of IPOG.
+//
+// An interaction is a combination of t feature literals (selected or deselected) of distinct features.
+// The sample is a list of partial configurations, grown one feature at a time. For a new feature every
+// configuration first gets the value that covers the most new interactions with the literals it already
+// has, as long as the solver agrees (horizontal growth). Interactions with the feature that are still
+// uncovered then go into the first configuration that can take them, or into a new one. Interactions
+// that are unsatisfiable on their own are invalid and left out (vertical growth). Finally the solver
+// completes every partial configuration into a valid one.
+//
+// Each partial configuration keeps a solution extending it, so adding literals that solution already
+// has needs no solver call. Which configurations contain a literal is a bitset per literal, so checking
+// whether an interaction is covered is a few word operations. Features that are core or dead take no
+// part, their literals are fixed in every configuration. The coverage of the finished sample is counted
+// again over all interactions, in parallel.
+public final class TWiseSampler {
+
+    public static final class Sample {
+        final List<boolean[]> configurations;
+        final boolean[] fixed;
+        final long interactions;
+        final long covered;
+
+        Sample(List<boolean[]> configurations, boolean[] fixed, long interactions, long covered) {
+            this.configurations = configurations;
+            this.fixed = fixed;
+            this.interactions = interactions;
+            this.covered = covered;
+        }
+
+        // Selected features per configuration, indexed by feature id
+        public List<boolean[]> getConfigurations() {
+            return configurations;
+        }
+
+        // Valid interactions, the ones some configuration can cover
+        public long getInteractions() {
+            return interactions;
+        }
+
+        public long getCovered() {
+            return covered;
+        }
+
+        // Core and dead features, the same in every configuration
+        public boolean isFixed(int feature) {
+            return fixed[feature];
+        }
+    }
+
+    // A configuration under construction
+    private static final class Partial {
+        // Solver literals put in on purpose
+        int[] decided;
+        // A solution extending it, per open feature
+        boolean[] witness;
+        // Open literals it contains, directly or by propagation
+        int[] literals = new int[16];
+        int size;
+    }
+
+    private final int t;
+    private final SatSolver solver;
+    // Literal i is feature variable[i / 2], selected for even i and deselected for odd i
+    private final int[] variable;
+    private final int literals;
+    private final int[] literalIndex;
+    // Per literal the open literals its unit propagation implies, itself included
+    private final int[][] implied;
+
+    private final List<Partial> partials = new ArrayList<>();
+    // Per literal the partial configurations that contain it
+    private final long[][] contains;
+    private int words = 1;
+    private final int[] stamp;
+    private int stamps;
+    private long invalid;
+
+    private TWiseSampler(FeatureModel model, int t, int[] variable) {
+        this.t = t;
+        this.solver = new SatSolver(model.getCnf());
+        this.variable = variable;
+        this.literals = 2 * variable.length;
+        this.literalIndex = new int[model.size()];
+        Arrays.fill(literalIndex, -1);
+        for (int i = 0; i < variable.length; i++) {
+            literalIndex[variable[i]] = 2 * i;
+        }
+        this.implied = new int[literals][];
+        for (int i = 0; i < literals; i++) {
+            implied[i] = toIndices(solver.propagateAssumptions(toCnf(i)));
+        }
+        this.contains = new long[literals][words];
+        this.stamp = new int[literals];
+    }
+
+    public static Sample sample(FeatureModel model, int t, int parallelism) {
+        if (t < 1) {
+            throw new IllegalArgumentException("t must be at least 1");
+        }
+        ConfigurationChecker.Result fixed = ConfigurationChecker.check(model, new int[0]);
+        if (!fixed.isSatisfiable()) {
+            throw new IllegalArgumentException("The model has no valid configuration");
+        }
+        boolean[] isFixed = new boolean[model.size()];
+        int open = 0;
+        for (int f = 0; f < model.size(); f++) {
+            isFixed[f] = fixed.getForced(f) != 0;
+            if (!isFixed[f]) {
+                open++;
+            }
+        }
+        int[] variable = new int[open];
+        open = 0;
+        for (int f = 0; f < model.size(); f++) {
+            if (!isFixed[f]) {
+                variable[open++] = f;
+            }
+        }
+
+        TWiseSampler sampler = new TWiseSampler(model, Math.min(t, Math.max(1, variable.length)), variable);
+        int[] combination = new int[sampler.t];
+        for (int k = sampler.t - 1; k < variable.length; k++) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new IllegalStateException("Sampling cancelled");
+            }
+            sampler.growHorizontally(k, combination);
+            sampler.growVertically(k, combination, 0, 0);
+        }
+        // The witnesses complete the partial configurations
+        List<boolean[]> configurations = new ArrayList<>();
+        for (Partial partial : sampler.partials) {
+            configurations.add(sampler.complete(partial.witness, fixed));
+        }
+        if (configurations.isEmpty()) {
+            // Nothing is open: the one valid configuration covers everything there is
+            configurations.add(sampler.complete(new boolean[0], fixed));
+        }
+        long covered = countCovered(configurations, variable, sampler.t, parallelism);
+        long total = countInteractions(variable.length, sampler.t);
+        return new Sample(configurations, isFixed, total - sampler.invalid, covered);
+    }
+
+    // Gives feature k to every configuration that does not have it yet, with the value that covers the
+    // most uncovered interactions
+    private void growHorizontally(int k, int[] combination) {
+        int selected = 2 * k;
+        // Pairs are the common case: which earlier literals each value of k is covered with already
+        boolean[][] pairCovered = null;
+        if (t == 2) {
+            pairCovered = new boolean[2][selected];
+            for (int value = 0; value < 2; value++) {
+                combination[1] = selected + value;
+                for (int earlier = 0; earlier < selected; earlier++) {
+                    combination[0] = earlier;
+                    pairCovered[value][earlier] = isCovered(combination);
+                }
+            }
+        }
+        for (int c = 0; c < partials.size(); c++) {
+            if (has(selected, c) || has(selected + 1, c)) {
+                continue;
+            }
+            Partial partial = partials.get(c);
+            int[] earlier = earlierLiterals(partial, selected);
+            long selectedGain = gain(earlier, selected, combination, pairCovered);
+            long deselectedGain = gain(earlier, selected + 1, combination, pairCovered);
+            if (Math.max(selectedGain, deselectedGain) == 0) {
+                continue;
+            }
+            // On a tie the witness decides, that value needs no solver call
+            int best = selectedGain > deselectedGain || selectedGain == deselectedGain && partial.witness[k]
+                    ? selected : selected + 1;
+            if (!add(c, new int[]{best})) {
+                best ^= 1;
+                if (Math.min(selectedGain, deselectedGain) == 0 || !add(c, new int[]{best})) {
+                    continue;
+                }
+            }
+            if (pairCovered != null) {
+                for (int literal : earlier) {
+                    pairCovered[best - selected][literal] = true;
+                }
+            }
+        }
+    }
+
+    private int[] earlierLiterals(Partial partial, int bound) {
+        int[] earlier = new int[partial.size];
+        int count = 0;
+        for (int i = 0; i < partial.size; i++) {
+            if (partial.literals[i] < bound) {
+                earlier[count++] = partial.literals[i];
+            }
+        }
+        return Arrays.copyOf(earlier, count);
+    }
+
+    // Uncovered interactions of literal with t - 1 of the earlier literals
+    private long gain(int[] earlier, int literal, int[] combination, boolean[][] pairCovered) {
+        if (pairCovered != null) {
+            boolean[] covered = pairCovered[literal & 1];
+            long gain = 0;
+            for (int other : earlier) {
+                if (!covered[other]) {
+                    gain++;
+                }
+            }
+            return gain;
+        }
+        combination[t - 1] = literal;
+        return countUncovered(earlier, combination, 0, 0);
+    }
+
+    private long countUncovered(int[] earlier, int[] combination, int depth, int from) {
+        if (depth == t - 1) {
+            return isCovered(combination) ? 0 : 1;
+        }
+        long count = 0;
+        for (int i = from; i < earlier.length; i++) {
+            combination[depth] = earlier[i];
+            count += countUncovered(earlier, combination, depth + 1, i + 1);
+        }
+        return count;
+    }
+
+    // Places the uncovered interactions of feature k with t - 1 earlier features
+    private void growVertically(int k, int[] combination, int depth, int from) {
+        if (depth == t - 1) {
+            for (int literal = 2 * k; literal <= 2 * k + 1; literal++) {
+                combination[t - 1] = literal;
+                if (!isCovered(combination)) {
+                    place(combination);
+                }
+            }
+            return;
+        }
+        for (int i = from; i < 2 * k; i++) {
+            combination[depth] = i;
+            // Both literals of a feature never go into one interaction
+            growVertically(k, combination, depth + 1, (i / 2 + 1) * 2);
+        }
+    }
+
+    private boolean isCovered(int[] combination) {
+        for (int w = 0; w < words; w++) {
+            long all = -1L;
+            for (int literal : combination) {
+                all &= contains[literal][w];
+            }
+            if (all != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void place(int[] combination) {
+        if (contradicts(combination)) {
+            invalid++;
+            return;
+        }
+        long[] candidates = compatible(combination);
+        // A configuration whose witness has the interaction already takes it without asking the solver
+        for (int c = 0; c < partials.size(); c++) {
+            if ((candidates[c >>> 6] & 1L << (c & 63)) != 0 && agrees(combination, partials.get(c).witness)) {
+                extend(c, combination);
+                return;
+            }
+        }
+        for (int c = 0; c < partials.size(); c++) {
+            if ((candidates[c >>> 6] & 1L << (c & 63)) != 0 && solveWith(c, combination)) {
+                return;
+            }
+        }
+
+        int[] query = new int[combination.length];
+        for (int i = 0; i < combination.length; i++) {
+            query[i] = toCnf(combination[i]);
+        }
+        if (!solver.solve(query)) {
+            invalid++;
+            return;
+        }
+        int c = partials.size();
+        if (c == words * 64) {
+            words++;
+            for (int i = 0; i < literals; i++) {
+                contains[i] = Arrays.copyOf(contains[i], words);
+            }
+        }
+        Partial partial = new Partial();
+        partial.decided = query;
+        partial.witness = solution();
+        partials.add(partial);
+        propagate(c);
+    }
+
+    // Adds the literals to configuration c if the solver finds that satisfiable
+    private boolean add(int c, int[] combination) {
+        return !conflicts(combination, c) && solveWith(c, combination);
+    }
+
+    private boolean solveWith(int c, int[] combination) {
+        Partial partial = partials.get(c);
+        if (agrees(combination, partial.witness)) {
+            extend(c, combination);
+            return true;
+        }
+        int[] query = withLiterals(c, combination);
+        // Starting from the witness the solver usually only has to repair a few values
+        for (int i = 0; i < variable.length; i++) {
+            solver.setPhase(Cnf.literal(variable[i], partial.witness[i]));
+        }
+        if (!solver.solve(query)) {
+            return false;
+        }
+        partial.decided = query;
+        partial.witness = solution();
+        propagate(c);
+        return true;
+    }
+
+    private void extend(int c, int[] combination) {
+        partials.get(c).decided = withLiterals(c, combination);
+        propagate(c);
+    }
+
+    // The decided literals of configuration c plus those of the combination it does not contain yet
+    private int[] withLiterals(int c, int[] combination) {
+        int[] current = partials.get(c).decided;
+        int[] query = Arrays.copyOf(current, current.length + combination.length);
+        int added = current.length;
+        for (int literal : combination) {
+            if (!has(literal, c)) {
+                query[added++] = toCnf(literal);
+            }
+        }
+        return Arrays.copyOf(query, added);
+    }
+
+    // Whether configuration c contains the opposite of something the combination implies
+    private boolean conflicts(int[] combination, int c) {
+        for (int literal : combination) {
+            for (int implication : implied[literal]) {
+                if (has(implication ^ 1, c)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // The configurations that contain nothing contradicting what the combination implies
+    private long[] compatible(int[] combination) {
+        long[] excluded = new long[words];
+        for (int literal : combination) {
+            for (int implication : implied[literal]) {
+                long[] row = contains[implication ^ 1];
+                for (int w = 0; w < words; w++) {
+                    excluded[w] |= row[w];
+                }
+            }
+        }
+        for (int w = 0; w < words; w++) {
+            excluded[w] = ~excluded[w];
+        }
+        return excluded;
+    }
+
+    // Whether the implications of the literals of the combination already contradict each other
+    private boolean contradicts(int[] combination) {
+        stamps++;
+        for (int literal : combination) {
+            for (int implication : implied[literal]) {
+                if (stamp[implication ^ 1] == stamps) {
+                    return true;
+                }
+            }
+            for (int implication : implied[literal]) {
+                stamp[implication] = stamps;
+            }
+        }
+        return false;
+    }
+
+    private static boolean agrees(int[] combination, boolean[] solution) {
+        for (int literal : combination) {
+            if (solution[literal / 2] != (literal % 2 == 0)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean has(int literal, int c) {
+        return (contains[literal][c >>> 6] & 1L << (c & 63)) != 0;
+    }
+
+    // Adds the decided literals of configuration c and everything they imply
+    private void propagate(int c) {
+        Partial partial = partials.get(c);
+        for (int literal : toIndices(solver.propagateAssumptions(partial.decided))) {
+            if (!has(literal, c)) {
+                contains[literal][c >>> 6] |= 1L << (c & 63);
+                if (partial.size == partial.literals.length) {
+                    partial.literals = Arrays.copyOf(partial.literals, 2 * partial.size);
+                }
+                partial.literals[partial.size++] = literal;
+            }
+        }
+    }
+
+    // Open literals among solver literals, auxiliary variables and fixed features left out
+    private int[] toIndices(int[] cnfLiterals) {
+        if (cnfLiterals == null) {
+            return new int[0];
+        }
+        int[] indices = new int[cnfLiterals.length];
+        int count = 0;
+        for (int literal : cnfLiterals) {
+            int feature = Math.abs(literal) - 1;
+            if (feature < literalIndex.length && literalIndex[feature] >= 0) {
+                indices[count++] = literalIndex[feature] + (literal > 0 ? 0 : 1);
+            }
+        }
+        return Arrays.copyOf(indices, count);
+    }
+
+    private int toCnf(int literal) {
+        return Cnf.literal(variable[literal / 2], literal % 2 == 0);
+    }
+
+    private boolean[] solution() {
+        boolean[] solution = new boolean[variable.length];
+        for (int i = 0; i < variable.length; i++) {
+            solution[i] = solver.getModelValue(variable[i] + 1);
+        }
+        return solution;
+    }
+
+    private boolean[] complete(boolean[] witness, ConfigurationChecker.Result fixed) {
+        boolean[] selected = new boolean[literalIndex.length];
+        for (int f = 0; f < selected.length; f++) {
+            selected[f] = fixed.getForced(f) > 0;
+        }
+        for (int i = 0; i < witness.length; i++) {
+            selected[variable[i]] = witness[i];
+        }
+        return selected;
+    }
+
+    static long countInteractions(int features, int t) {
+        // Pick t of the features, then a polarity for each
+        long count = 1;
+        for (int i = 0; i < t; i++) {
+            count = count * (features - i) / (i + 1);
+        }
+        return count << t;
+    }
+
+    // Interactions covered by at least one of the configurations, split by first literal over the threads
+    static long countCovered(List<boolean[]> configurations, int[] variable, int t, int parallelism) {
+        int literals = 2 * variable.length;
+        int words = (configurations.size() + 63) / 64;
+        long[][] contains = new long[literals][words];
+        for (int c = 0; c < configurations.size(); c++) {
+            boolean[] selected = configurations.get(c);
+            for (int i = 0; i < variable.length; i++) {
+                int literal = 2 * i + (selected[variable[i]] ? 0 : 1);
+                contains[literal][c >>> 6] |= 1L << (c & 63);
+            }
+        }
+        if (literals == 0) {
+            return 0;
+        }
+
+        int threads = Math.max(1, Math.min(parallelism, literals));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Long>> parts = new ArrayList<>();
+            for (int thread = 0; thread < threads; thread++) {
+                int first = thread;
+                parts.add(executor.submit(() -> {
+                    // Striped, the first literals have the most combinations after them
+                    long covered = 0;
+                    long[][] masks = new long[t + 1][];
+                    masks[0] = new long[words];
+                    Arrays.fill(masks[0], -1L);
+                    for (int i = first; i < literals; i += threads) {
+                        covered += countFrom(contains, masks, 1, i, t, literals);
+                    }
+                    return covered;
+                }));
+            }
+            long covered = 0;
+            for (Future<Long> part : parts) {
+                covered += part.get();
+            }
+            return covered;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Sampling cancelled");
+        } catch (Exception e) {
+            throw new IllegalStateException(e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static long countFrom(long[][] contains, long[][] masks, int depth, int literal, int t, int literals) {
+        long[] previous = masks[depth - 1];
+        long[] mask = masks[depth] != null ? masks[depth] : (masks[depth] = new long[previous.length]);
+        boolean any = false;
+        for (int w = 0; w < mask.length; w++) {
+            mask[w] = previous[w] & contains[literal][w];
+            any |= mask[w] != 0;
+        }
+        if (!any) {
+            return 0;
+        }
+        if (depth == t) {
+            return 1;
+        }
+        long covered = 0;
+        for (int next = (literal / 2 + 1) * 2; next < literals; next++) {
+            covered += countFrom(contains, masks, depth + 1, next, t, literals);
+        }
+        return covered;
+    }
+}
@@ -0,0 +1,116 @@
+package com.fop.backend;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+// Programmatic entry point for FeatureHouse: ordered feature list in, composed files out
+public class VariantComposer {
+
+    // FSTGenComposer keeps its state in statics, so outside of a FeatureHousePool only one composition may run at a time
+    private static final ReentrantLock COMPOSER_LOCK = new ReentrantLock();
+
+    private static final String VARIANT_NAME = "variant";
+
+    public static ComposedVariant compose(List<String> features, File featuresFolder) throws Exception {
+        if (!featuresFolder.isDirectory()) {
+            throw new IOException("Cannot find features folder: " + featuresFolder);
+        }
+
+        // FeatureHouse only reads feature selections from an expression file, so the file lives in a
+        // private staging folder together with the composer output and both are removed afterwards
+        Path staging = Files.createTempDirectory("fop-compose");
+        try {
+            Path expression = staging.resolve(VARIANT_NAME + ".features");
+            Files.write(expression, features, StandardCharsets.UTF_8);
+            Path output = staging.resolve("out");
+            Files.createDirectories(output);
+
+            String[] fhArgs = {
+                    "--expression", expression.toString(),
+                    "--base-directory", featuresFolder.getAbsolutePath(),
+                    "--output-directory", output.toString()
+            };
+
+            runFeatureHouse(fhArgs);
+
+            // FeatureHouse writes into a folder named after the expression file
+            Path variantRoot = output.resolve(VARIANT_NAME);
+            if (!Files.isDirectory(variantRoot)) {
+                variantRoot = output;
+            }
+            return new ComposedVariant(features, readFiles(variantRoot));
+        } finally {
+            deleteRecursively(staging);
+        }
+    }
+
+    private static void runFeatureHouse(String[] fhArgs) throws Exception {
+        WorkerPool workers = WorkerPool.getDefault();
+        if (workers != null) {
+            workers.run(fhArgs);
+            return;
+        }
+
+        FeatureHousePool pool = FeatureHousePool.getDefault();
+        if (pool != null) {
+            pool.run(fhArgs);
+            return;
+        }
+
+        // Without isolation, wait for any other composition but give up if the request gets cancelled meanwhile
+        COMPOSER_LOCK.lockInterruptibly();
+        try {
+            new composer.FSTGenComposer().run(fhArgs);
+        } finally {
+            COMPOSER_LOCK.unlock();
+        }
+    }
+
+    static Map<String, byte[]> readFiles(Path root) throws IOException {
+        Map<String, byte[]> files = new HashMap<>();
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path file : (Iterable<Path>) paths.filter(Files::isRegularFile)::iterator) {
+                files.put(toRelativePath(root, file), Files.readAllBytes(file));
+            }
+        }
+        return files;
+    }
+
+    static String toRelativePath(Path root, Path file) {
+        return root.relativize(file).toString().replace(File.separatorChar, '/');
+    }
+
+    static void deleteRecursively(Path root) {
+        if (!Files.exists(root)) {
+            return;
+        }
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    Files.delete(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                    Files.delete(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            System.err.println("Could not clean up " + root + ": " + e.getMessage());
+        }
+    }
+}
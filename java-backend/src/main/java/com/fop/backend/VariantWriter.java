@@ -0,0 +1,160 @@
+package com.fop.backend;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Writes a composed variant into its output folder, touching only files whose content changed.
+//
+// Rewriting identical files makes the Java language server re-index and downstream builds recompile
+// the whole variant, so every file is compared with what is on disk first (length, then content).
+// The files written by the previous build are listed in a manifest inside the output folder; the ones
+// the new variant no longer contains (e.g. of a deselected feature) are deleted. Files that were never
+// written by the backend are left alone. A folder without manifest has no previous build, since it may
+// just as well be a source folder of the user's, so nothing in it is deleted.
+public class VariantWriter {
+
+    static final String MANIFEST_FILE = ".fop-files";
+
+    public static Changes write(ComposedVariant variant, Path outputFolder, BuildEvents events) throws IOException {
+        outputFolder = outputFolder.toAbsolutePath().normalize();
+        Files.createDirectories(outputFolder);
+        Changes changes = new Changes();
+
+        for (Map.Entry<String, byte[]> file : variant.getFiles().entrySet()) {
+            Path target = outputFolder.resolve(file.getKey());
+            byte[] content = file.getValue();
+            if (!Files.isRegularFile(target)) {
+                Files.createDirectories(target.getParent());
+                Files.write(target, content);
+                changes.added.add(file.getKey());
+            } else if (!sameContent(target, content)) {
+                Files.write(target, content);
+                changes.changed.add(file.getKey());
+            } else {
+                changes.unchanged++;
+                continue;
+            }
+            events.fileWritten(file.getKey());
+        }
+
+        Path manifest = outputFolder.resolve(MANIFEST_FILE);
+        Set<String> previous = Files.isRegularFile(manifest) ? readManifest(manifest) : Collections.emptySet();
+        for (String path : previous) {
+            if (variant.getFiles().containsKey(path)) {
+                continue;
+            }
+            Path stale = outputFolder.resolve(path).normalize();
+            // A tampered manifest must not reach outside of the output folder
+            if (!stale.startsWith(outputFolder) || !Files.deleteIfExists(stale)) {
+                continue;
+            }
+            changes.removed.add(path);
+            events.fileRemoved(path);
+            deleteEmptyParents(stale.getParent(), outputFolder);
+        }
+
+        if (!Files.isRegularFile(manifest) || !previous.equals(variant.getFiles().keySet())) {
+            Files.write(manifest, variant.getFiles().keySet(), StandardCharsets.UTF_8);
+        }
+        return changes;
+    }
+
+    private static boolean sameContent(Path file, byte[] content) throws IOException {
+        if (Files.size(file) != content.length) {
+            return false;
+        }
+        // Compare chunk by chunk so a difference early in a large file stops the read
+        byte[] buffer = new byte[8192];
+        int offset = 0;
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                if (offset + read > content.length) {
+                    return false;
+                }
+                for (int i = 0; i < read; i++) {
+                    if (buffer[i] != content[offset + i]) {
+                        return false;
+                    }
+                }
+                offset += read;
+            }
+        }
+        return offset == content.length;
+    }
+
+    private static Set<String> readManifest(Path manifest) throws IOException {
+        Set<String> paths = new LinkedHashSet<>();
+        for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+            if (!line.isEmpty()) {
+                paths.add(line);
+            }
+        }
+        return paths;
+    }
+
+    private static void deleteEmptyParents(Path dir, Path outputFolder) throws IOException {
+        while (dir != null && !dir.equals(outputFolder) && dir.startsWith(outputFolder)) {
+            try {
+                Files.delete(dir);
+            } catch (DirectoryNotEmptyException e) {
+                return;
+            }
+            dir = dir.getParent();
+        }
+    }
+
+    // What a write did to the output folder, paths relative to it ('/' separated)
+    public static class Changes {
+        final List<String> added = new ArrayList<>();
+        final List<String> changed = new ArrayList<>();
+        final List<String> removed = new ArrayList<>();
+        int unchanged = 0;
+
+        public List<String> getAdded() {
+            return added;
+        }
+
+        public List<String> getChanged() {
+            return changed;
+        }
+
+        public List<String> getRemoved() {
+            return removed;
+        }
+
+        public int getUnchanged() {
+            return unchanged;
+        }
+
+        public int getWritten() {
+            return added.size() + changed.size();
+        }
+
+        public String toJson() {
+            return "{\"added\":" + toJsonArray(added) + ",\"changed\":" + toJsonArray(changed)
+                    + ",\"removed\":" + toJsonArray(removed) + ",\"unchanged\":" + unchanged + "}";
+        }
+
+        private static String toJsonArray(List<String> paths) {
+            StringBuilder json = new StringBuilder("[");
+            for (int i = 0; i < paths.size(); i++) {
+                if (i > 0) {
+                    json.append(',');
+                }
+                json.append('"').append(ModelHandler.escapeJson(paths.get(i))).append('"');
+            }
+            return json.append(']').toString();
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.fop.backend;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Runs FeatureHouse in a pool of pre-started worker JVMs (BackendMain worker).
+//
+// A worker handles one composition at a time and is reused for the next one, so only the first
+// composition per worker pays for a JVM start. Workers are replaced after a number of builds, when
+// they crash and when a composition gets cancelled. A FeatureHouse crash or System.exit only takes
+// down the worker, never the process that owns the pool.
+public class WorkerPool {
+
+    private static final String EOF = "\u0000eof";
+
+    private static volatile WorkerPool defaultPool;
+
+    private final List<String> command;
+    private final int size;
+    private final int maxBuilds;
+    private final BlockingQueue<Worker> idle = new LinkedBlockingQueue<>();
+    private int started = 0;
+
+    public WorkerPool(List<String> command, int size, int maxBuilds) {
+        this.command = command;
+        this.size = Math.max(1, size);
+        this.maxBuilds = Math.max(1, maxBuilds);
+    }
+
+    // Selected with -Dfop.composer=worker; -Dfop.parallelism sets the pool size and
+    // -Dfop.worker.maxBuilds the number of compositions after which a worker is recycled
+    public static WorkerPool getDefault() {
+        if (!"worker".equals(System.getProperty("fop.composer"))) {
+            return null;
+        }
+        if (defaultPool == null) {
+            synchronized (WorkerPool.class) {
+                if (defaultPool == null) {
+                    List<String> command = new ArrayList<>();
+                    command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+                    command.add("-cp");
+                    command.add(System.getProperty("java.class.path"));
+                    command.add(BackendMain.class.getName());
+                    command.add("worker");
+                    defaultPool = new WorkerPool(command, FeatureHousePool.defaultParallelism(),
+                            Integer.getInteger("fop.worker.maxBuilds", 100));
+                    Runtime.getRuntime().addShutdownHook(new Thread(defaultPool::shutdown));
+                }
+            }
+        }
+        return defaultPool;
+    }
+
+    public void run(String[] args) throws Exception {
+        String response;
+        try {
+            response = call(args);
+        } catch (IOException e) {
+            // The worker died before or while taking the job, a fresh one gets one more try
+            System.err.println(e.getMessage() + ", retrying on a new worker");
+            response = call(args);
+        }
+        checkResponse(response);
+    }
+
+    private String call(String[] args) throws IOException, InterruptedException {
+        Worker worker = acquire();
+        boolean reusable = false;
+        try {
+            String response = worker.call(args);
+            reusable = worker.builds < maxBuilds;
+            return response;
+        } finally {
+            // Crashed, cancelled and worn out workers are replaced; a cancelled composition
+            // cannot be stopped cooperatively, so killing its worker is the only way to stop it
+            release(worker, reusable);
+        }
+    }
+
+    public synchronized void shutdown() {
+        Worker worker;
+        while ((worker = idle.poll()) != null) {
+            worker.destroy();
+        }
+    }
+
+    private static void checkResponse(String response) throws Exception {
+        JsonReader reader = new JsonReader(response);
+        String status = null;
+        String message = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "status":
+                    status = reader.nextString();
+                    break;
+                case "message":
+                    message = reader.nextString();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (!"ok".equals(status)) {
+            throw new Exception("Composition worker failed: " + message);
+        }
+    }
+
+    private Worker acquire() throws IOException, InterruptedException {
+        while (true) {
+            Worker worker = idle.poll();
+            if (worker != null) {
+                if (worker.isAlive()) {
+                    return worker;
+                }
+                release(worker, false);
+                continue;
+            }
+            synchronized (this) {
+                if (started < size) {
+                    started++;
+                    try {
+                        return new Worker(command);
+                    } catch (IOException e) {
+                        started--;
+                        throw e;
+                    }
+                }
+            }
+            worker = idle.poll(100, TimeUnit.MILLISECONDS);
+            if (worker != null) {
+                idle.offer(worker);
+            }
+        }
+    }
+
+    private void release(Worker worker, boolean reusable) {
+        if (reusable && worker.isAlive()) {
+            idle.offer(worker);
+            return;
+        }
+        worker.destroy();
+        synchronized (this) {
+            started--;
+        }
+    }
+
+    private static class Worker {
+        final Process process;
+        final Writer requests;
+        final BlockingQueue<String> responses = new LinkedBlockingQueue<>();
+        int builds = 0;
+
+        Worker(List<String> command) throws IOException {
+            process = new ProcessBuilder(command)
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+            requests = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+
+            // Reading a pipe cannot be interrupted, so a daemon thread forwards the responses
+            Thread reader = new Thread(() -> {
+                try (BufferedReader in = new BufferedReader(
+                        new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        responses.add(line);
+                    }
+                } catch (IOException e) {
+                    // Treated like end of stream
+                }
+                responses.add(EOF);
+            }, "fop-worker-reader");
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        String call(String[] args) throws IOException, InterruptedException {
+            StringBuilder request = new StringBuilder("{\"args\":[");
+            for (int i = 0; i < args.length; i++) {
+                if (i > 0) {
+                    request.append(',');
+                }
+                request.append('"').append(ModelHandler.escapeJson(args[i])).append('"');
+            }
+            request.append("]}\n");
+            requests.write(request.toString());
+            requests.flush();
+            builds++;
+
+            String response = responses.take();
+            if (response.equals(EOF)) {
+                throw new IOException("Composition worker exited with code " + exitCode());
+            }
+            return response;
+        }
+
+        boolean isAlive() {
+            return process.isAlive();
+        }
+
+        void destroy() {
+            process.destroyForcibly();
+        }
+
+        private String exitCode() {
+            try {
+                return process.waitFor(1, TimeUnit.SECONDS) ? Integer.toString(process.exitValue()) : "unknown";
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return "unknown";
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.fop.backend;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class AtomicSetsTest {
+
+    @TempDir
+    static Path folder;
+
+    @Test
+    void setsGroupEquivalentFeatures() throws Exception {
+        for (int seed = 0; seed < 40; seed++) {
+            RandomModel generated = RandomModel.generate(new Random(seed), 6 + seed % 7, seed % 5);
+            FeatureModel model = ModelRegistry.get(generated.write(folder, "sets" + seed).toString());
+            List<boolean[]> configurations = generated.configurations(model);
+            if (configurations.isEmpty()) {
+                continue;
+            }
+            AtomicSets sets = model.getAtomicSets();
+            for (int f = 0; f < model.size(); f++) {
+                for (int g = 0; g < model.size(); g++) {
+                    boolean equivalent = true;
+                    for (boolean[] configuration : configurations) {
+                        equivalent &= configuration[f] == configuration[g];
+                    }
+                    assertEquals(equivalent, sets.getSet(f) == sets.getSet(g),
+                            "seed " + seed + ", features " + f + " and " + g);
+                }
+            }
+        }
+    }
+
+    // The circuit over collapsed tree sets counts like the one over every feature
+    @Test
+    void collapsedCountsMatchPlainCounts() throws Exception {
+        for (int seed = 0; seed < 40; seed++) {
+            Random random = new Random(seed);
+            RandomModel generated = RandomModel.generate(random, 6 + seed % 7, seed % 5);
+            FeatureModel model = ModelRegistry.get(generated.write(folder, "collapsed" + seed).toString());
+            DDnnf collapsed = model.getDDnnf();
+            DDnnf plain = DDnnf.compile(model.getCnf());
+
+            for (int query = 0; query < 20; query++) {
+                int[] assumptions = RandomModel.randomAssumptions(random, model.size(), 3);
+                DDnnf.Counts expected = plain.count(assumptions);
+                DDnnf.Counts counts = collapsed.count(assumptions);
+                String context = "seed " + seed + ", query " + query;
+                assertEquals(expected.getTotal(), counts.getTotal(), context);
+                for (int feature = 0; feature < model.size(); feature++) {
+                    assertEquals(expected.getSelected(feature), counts.getSelected(feature), context + ", feature " + feature);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.fop.backend;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigInteger;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BddTest {
+
+    @TempDir
+    static Path folder;
+
+    @Test
+    void countsMatchBruteForce() throws Exception {
+        for (int seed = 0; seed < 40; seed++) {
+            Random random = new Random(seed);
+            RandomModel generated = RandomModel.generate(random, 6 + seed % 7, seed % 5);
+            FeatureModel model = ModelRegistry.get(generated.write(folder, "count" + seed).toString());
+            List<boolean[]> configurations = generated.configurations(model);
+            Bdd bdd = Bdd.compile(model);
+
+            assertEquals(RandomModel.count(configurations), bdd.count(), "seed " + seed);
+            for (int query = 0; query < 20; query++) {
+                int[] assumptions = RandomModel.randomAssumptions(random, model.size(), 3);
+                List<boolean[]> matching = RandomModel.matching(configurations, assumptions);
+                String context = "seed " + seed + ", query " + query;
+                assertEquals(RandomModel.count(matching), bdd.count(assumptions), context);
+                assertEquals(!matching.isEmpty(), bdd.isSatisfiable(assumptions), context);
+            }
+        }
+    }
+
+    @Test
+    void enumerationYieldsEveryConfigurationOnce() throws Exception {
+        for (int seed = 0; seed < 40; seed++) {
+            RandomModel generated = RandomModel.generate(new Random(seed), 6 + seed % 7, seed % 5);
+            FeatureModel model = ModelRegistry.get(generated.write(folder, "enumerate" + seed).toString());
+            Set<String> expected = keys(generated.configurations(model));
+            Bdd bdd = Bdd.compile(model);
+            String context = "seed " + seed;
+
+            Set<String> enumerated = new HashSet<>();
+            Iterator<boolean[]> iterator = bdd.iterator(BigInteger.ZERO);
+            for (int index = 0; iterator.hasNext(); index++) {
+                boolean[] configuration = iterator.next();
+                assertArrayEquals(bdd.configuration(BigInteger.valueOf(index)), configuration, context);
+                assertTrue(enumerated.add(Arrays.toString(configuration)), context + ", duplicate at " + index);
+            }
+            assertEquals(expected, enumerated, context);
+
+            // Resuming in the middle continues with the same order
+            for (int from = 0; from < expected.size(); from += 3) {
+                Iterator<boolean[]> resumed = bdd.iterator(BigInteger.valueOf(from));
+                for (int index = from; index < Math.min(expected.size(), from + 4); index++) {
+                    assertArrayEquals(bdd.configuration(BigInteger.valueOf(index)), resumed.next(), context);
+                }
+            }
+            assertFalse(bdd.iterator(BigInteger.valueOf(expected.size())).hasNext(), context);
+        }
+    }
+
+    @Test
+    void samplesAreValidAndUniform() throws Exception {
+        for (int seed = 0; seed < 40; seed++) {
+            RandomModel generated = RandomModel.generate(new Random(seed), 6 + seed % 7, seed % 5);
+            FeatureModel model = ModelRegistry.get(generated.write(folder, "sample" + seed).toString());
+            List<boolean[]> configurations = generated.configurations(model);
+            if (configurations.isEmpty() || configurations.size() > 200) {
+                continue;
+            }
+            Set<String> expected = keys(configurations);
+            Bdd bdd = Bdd.compile(model);
+
+            int perConfiguration = 200;
+            Map<String, Integer> histogram = new HashMap<>();
+            Random random = new Random(seed);
+            for (int i = 0; i < configurations.size() * perConfiguration; i++) {
+                String key = Arrays.toString(bdd.sample(random));
+                assertTrue(expected.contains(key), "seed " + seed + ", invalid sample " + key);
+                histogram.merge(key, 1, Integer::sum);
+            }
+
+            // Chi-square per degree of freedom stays close to 1 for a uniform draw, a biased sampler
+            // misses some configurations or lands far above
+            double chiSquare = 0;
+            for (String key : expected) {
+                double observed = histogram.getOrDefault(key, 0);
+                chiSquare += (observed - perConfiguration) * (observed - perConfiguration) / perConfiguration;
+            }
+            double perDegree = chiSquare / Math.max(1, configurations.size() - 1);
+            assertTrue(perDegree < 2.5, "seed " + seed + ", chi-square per degree " + perDegree);
+        }
+    }
+
+    private static Set<String> keys(List<boolean[]> configurations) {
+        Set<String> keys = new HashSet<>();
+        for (boolean[] configuration : configurations) {
+            keys.add(Arrays.toString(configuration));
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,85 @@
+package com.fop.backend;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ConfigurationCheckerTest {
+
+    @TempDir
+    static Path folder;
+
+    @Test
+    void checkMatchesBruteForce() throws Exception {
+        for (int seed = 0; seed < 40; seed++) {
+            Random random = new Random(seed);
+            RandomModel generated = RandomModel.generate(random, 6 + seed % 7, seed % 5);
+            FeatureModel model = ModelRegistry.get(generated.write(folder, "check" + seed).toString());
+            List<boolean[]> configurations = generated.configurations(model);
+
+            for (int query = 0; query < 20; query++) {
+                int[] assumptions = RandomModel.randomAssumptions(random, model.size(), 4);
+                List<boolean[]> matching = RandomModel.matching(configurations, assumptions);
+                ConfigurationChecker.Result result = ConfigurationChecker.check(model, assumptions);
+                String context = "seed " + seed + ", query " + query;
+
+                assertEquals(!matching.isEmpty(), result.isSatisfiable(), context);
+                if (matching.isEmpty()) {
+                    // The conflict alone already rules out every configuration
+                    List<Integer> literals = new ArrayList<>();
+                    for (int feature : result.getConflict()) {
+                        for (int literal : assumptions) {
+                            if (Math.abs(literal) - 1 == feature && !literals.contains(literal)) {
+                                literals.add(literal);
+                            }
+                        }
+                    }
+                    int[] conflict = literals.stream().mapToInt(Integer::intValue).toArray();
+                    assertTrue(RandomModel.matching(configurations, conflict).isEmpty(), context);
+                    continue;
+                }
+
+                boolean[] assumed = new boolean[model.size()];
+                boolean[] selected = new boolean[model.size()];
+                for (int literal : assumptions) {
+                    assumed[Math.abs(literal) - 1] = true;
+                    selected[Math.abs(literal) - 1] = literal > 0;
+                }
+                for (int feature = 0; feature < model.size(); feature++) {
+                    int expected = 0;
+                    if (!assumed[feature]) {
+                        boolean on = false;
+                        boolean off = false;
+                        for (boolean[] configuration : matching) {
+                            on |= configuration[feature];
+                            off |= !configuration[feature];
+                        }
+                        expected = !off ? 1 : !on ? -1 : 0;
+                    }
+                    assertEquals(expected, result.getForced(feature), context + ", feature " + feature);
+                    if (expected > 0) {
+                        selected[feature] = true;
+                    }
+                }
+                assertEquals(contains(configurations, selected), result.isValid(), context);
+            }
+        }
+    }
+
+    private static boolean contains(List<boolean[]> configurations, boolean[] selected) {
+        for (boolean[] configuration : configurations) {
+            if (Arrays.equals(configuration, selected)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,45 @@
+package com.fop.backend;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.math.BigInteger;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CountingTest {
+
+    @TempDir
+    static Path folder;
+
+    @Test
+    void countsMatchBruteForce() throws Exception {
+        for (int seed = 0; seed < 40; seed++) {
+            Random random = new Random(seed);
+            RandomModel generated = RandomModel.generate(random, 6 + seed % 7, seed % 5);
+            FeatureModel model = ModelRegistry.get(generated.write(folder, "count" + seed).toString());
+            List<boolean[]> configurations = generated.configurations(model);
+            DDnnf ddnnf = model.getDDnnf();
+
+            for (int query = 0; query < 20; query++) {
+                int[] assumptions = RandomModel.randomAssumptions(random, model.size(), 3);
+                List<boolean[]> matching = RandomModel.matching(configurations, assumptions);
+                DDnnf.Counts counts = ddnnf.count(assumptions);
+                String context = "seed " + seed + ", query " + query;
+                assertEquals(RandomModel.count(matching), counts.getTotal(), context);
+                for (int feature = 0; feature < model.size(); feature++) {
+                    long selected = 0;
+                    for (boolean[] configuration : matching) {
+                        if (configuration[feature]) {
+                            selected++;
+                        }
+                    }
+                    assertEquals(BigInteger.valueOf(selected), counts.getSelected(feature), context + ", feature " + feature);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.fop.backend;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ModelAnalyzerTest {
+
+    @TempDir
+    static Path folder;
+
+    @Test
+    void analysisMatchesBruteForce() throws Exception {
+        for (int seed = 0; seed < 40; seed++) {
+            RandomModel generated = RandomModel.generate(new Random(seed), 6 + seed % 7, seed % 5);
+            String path = generated.write(folder, "analyze" + seed).toString();
+            FeatureModel model = ModelRegistry.get(path);
+            List<boolean[]> configurations = generated.configurations(model);
+            ModelAnalyzer.Result result = ModelAnalyzer.analyze(path, 2);
+            String context = "seed " + seed;
+
+            assertEquals(configurations.isEmpty(), result.isVoid(), context);
+            if (result.isVoid()) {
+                // The reported constraints leave no configuration on their own
+                boolean[] active = new boolean[generated.constraints.size()];
+                for (int index : result.getContradicting()) {
+                    active[index] = true;
+                }
+                assertTrue(generated.configurations(model, active).isEmpty(), context);
+                continue;
+            }
+
+            List<Integer> dead = new ArrayList<>();
+            List<Integer> core = new ArrayList<>();
+            List<Integer> falseOptional = new ArrayList<>();
+            for (int feature = 0; feature < model.size(); feature++) {
+                boolean on = false;
+                boolean off = false;
+                boolean offUnderParent = false;
+                int parent = model.getParent(feature);
+                for (boolean[] configuration : configurations) {
+                    on |= configuration[feature];
+                    off |= !configuration[feature];
+                    offUnderParent |= parent >= 0 && configuration[parent] && !configuration[feature];
+                }
+                if (!on) {
+                    dead.add(feature);
+                } else if (!off) {
+                    core.add(feature);
+                } else if (parent >= 0 && !offUnderParent && !isMandatory(model, feature)) {
+                    falseOptional.add(feature);
+                }
+            }
+            assertEquals(dead, toList(result.getDead()), context);
+            assertEquals(core, toList(result.getCore()), context);
+            assertEquals(falseOptional, toList(result.getFalseOptional()), context);
+
+            List<Integer> redundant = new ArrayList<>();
+            for (int index = 0; index < generated.constraints.size(); index++) {
+                boolean[] active = new boolean[generated.constraints.size()];
+                Arrays.fill(active, true);
+                active[index] = false;
+                if (generated.configurations(model, active).size() == configurations.size()) {
+                    redundant.add(index);
+                }
+            }
+            assertEquals(redundant, toList(result.getRedundant()), context);
+        }
+    }
+
+    private static boolean isMandatory(FeatureModel model, int feature) {
+        return model.isMandatory(feature) && model.getGroupType(model.getParent(feature)) == FeatureModel.GROUP_AND;
+    }
+
+    private static List<Integer> toList(int[] values) {
+        List<Integer> list = new ArrayList<>();
+        for (int value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+}
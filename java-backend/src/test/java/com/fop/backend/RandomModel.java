@@ -0,0 +1,253 @@
+package com.fop.backend;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Small random feature model for brute-force cross-checks. The model knows its own semantics, so
+// tests compare the solvers against an enumeration of every assignment instead of against each other.
+// Features are named F0..Fn-1 after their index here, F0 is the root.
+final class RandomModel {
+
+    private static final String[] GROUPS = {"and", "or", "alt"};
+    private static final String[] OPERATORS = {"not", "conj", "disj", "imp", "eq", "atmost1"};
+
+    final int size;
+    final int[] parent;
+    final String[] group;
+    final boolean[] mandatory;
+    final List<Node> constraints = new ArrayList<>();
+
+    private RandomModel(int size) {
+        this.size = size;
+        this.parent = new int[size];
+        this.group = new String[size];
+        this.mandatory = new boolean[size];
+    }
+
+    static RandomModel generate(Random random, int size, int constraints) {
+        RandomModel model = new RandomModel(size);
+        model.parent[0] = -1;
+        for (int i = 1; i < size; i++) {
+            model.parent[i] = random.nextInt(i);
+            model.mandatory[i] = random.nextInt(10) < 3;
+        }
+        for (int i = 0; i < size; i++) {
+            model.group[i] = GROUPS[random.nextInt(GROUPS.length)];
+        }
+        for (int i = 0; i < constraints; i++) {
+            model.constraints.add(model.formula(random, 4));
+        }
+        return model;
+    }
+
+    private Node formula(Random random, int depth) {
+        if (depth == 0 || random.nextInt(10) < 3) {
+            return new Node(null, random.nextInt(size));
+        }
+        String op = OPERATORS[random.nextInt(OPERATORS.length)];
+        int operands = op.equals("not") ? 1 : op.equals("imp") || op.equals("eq") ? 2 : 2 + random.nextInt(3);
+        Node node = new Node(op, -1);
+        for (int i = 0; i < operands; i++) {
+            node.children.add(formula(random, depth - 1));
+        }
+        return node;
+    }
+
+    Path write(Path folder, String name) throws IOException {
+        StringBuilder xml = new StringBuilder("<featureModel><struct>");
+        writeFeature(xml, 0);
+        xml.append("</struct><constraints>");
+        for (Node constraint : constraints) {
+            xml.append("<rule>");
+            constraint.writeXml(xml);
+            xml.append("</rule>");
+        }
+        xml.append("</constraints></featureModel>");
+        Path file = folder.resolve(name + ".xml");
+        Files.write(file, xml.toString().getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private void writeFeature(StringBuilder xml, int feature) {
+        List<Integer> children = children(feature);
+        String tag = children.isEmpty() ? "feature" : group[feature];
+        xml.append('<').append(tag);
+        if (mandatory[feature]) {
+            xml.append(" mandatory=\"true\"");
+        }
+        xml.append(" name=\"F").append(feature).append('"');
+        if (children.isEmpty()) {
+            xml.append("/>");
+            return;
+        }
+        xml.append('>');
+        for (int child : children) {
+            writeFeature(xml, child);
+        }
+        xml.append("</").append(tag).append('>');
+    }
+
+    private List<Integer> children(int feature) {
+        List<Integer> children = new ArrayList<>();
+        for (int i = feature + 1; i < size; i++) {
+            if (parent[i] == feature) {
+                children.add(i);
+            }
+        }
+        return children;
+    }
+
+    // selected is indexed like this model, active says which constraints count (null for all)
+    boolean isValid(boolean[] selected, boolean[] active) {
+        if (!selected[0]) {
+            return false;
+        }
+        for (int i = 1; i < size; i++) {
+            if (selected[i] && !selected[parent[i]]) {
+                return false;
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            List<Integer> children = children(i);
+            if (!selected[i] || children.isEmpty()) {
+                continue;
+            }
+            int count = 0;
+            for (int child : children) {
+                if (selected[child]) {
+                    count++;
+                } else if (group[i].equals("and") && mandatory[child]) {
+                    return false;
+                }
+            }
+            if (group[i].equals("or") && count == 0 || group[i].equals("alt") && count != 1) {
+                return false;
+            }
+        }
+        for (int i = 0; i < constraints.size(); i++) {
+            if ((active == null || active[i]) && !constraints.get(i).evaluate(selected)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Every valid configuration, indexed by the feature ids of the loaded model
+    List<boolean[]> configurations(FeatureModel model) {
+        return configurations(model, null);
+    }
+
+    List<boolean[]> configurations(FeatureModel model, boolean[] active) {
+        int[] ids = ids(model);
+        List<boolean[]> configurations = new ArrayList<>();
+        boolean[] selected = new boolean[size];
+        for (int bits = 0; bits < 1 << size; bits++) {
+            for (int i = 0; i < size; i++) {
+                selected[i] = (bits >> i & 1) != 0;
+            }
+            if (isValid(selected, active)) {
+                boolean[] configuration = new boolean[size];
+                for (int i = 0; i < size; i++) {
+                    configuration[ids[i]] = selected[i];
+                }
+                configurations.add(configuration);
+            }
+        }
+        return configurations;
+    }
+
+    private int[] ids(FeatureModel model) {
+        int[] ids = new int[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = model.getId("F" + i);
+        }
+        return ids;
+    }
+
+    // Configurations that agree with every literal (Cnf.literal over model ids)
+    static List<boolean[]> matching(List<boolean[]> configurations, int[] assumptions) {
+        List<boolean[]> matching = new ArrayList<>();
+        for (boolean[] configuration : configurations) {
+            if (matches(configuration, assumptions)) {
+                matching.add(configuration);
+            }
+        }
+        return matching;
+    }
+
+    static boolean matches(boolean[] configuration, int[] assumptions) {
+        for (int literal : assumptions) {
+            if (configuration[Math.abs(literal) - 1] != literal > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static int[] randomAssumptions(Random random, int features, int maxLength) {
+        int[] assumptions = new int[random.nextInt(maxLength + 1)];
+        for (int i = 0; i < assumptions.length; i++) {
+            assumptions[i] = Cnf.literal(random.nextInt(features), random.nextBoolean());
+        }
+        return assumptions;
+    }
+
+    static BigInteger count(List<boolean[]> configurations) {
+        return BigInteger.valueOf(configurations.size());
+    }
+
+    static final class Node {
+        final String op;
+        final int var;
+        final List<Node> children = new ArrayList<>();
+
+        Node(String op, int var) {
+            this.op = op;
+            this.var = var;
+        }
+
+        boolean evaluate(boolean[] selected) {
+            if (op == null) {
+                return selected[var];
+            }
+            int count = 0;
+            for (Node child : children) {
+                if (child.evaluate(selected)) {
+                    count++;
+                }
+            }
+            switch (op) {
+                case "not":
+                    return count == 0;
+                case "conj":
+                    return count == children.size();
+                case "disj":
+                    return count > 0;
+                case "imp":
+                    return !children.get(0).evaluate(selected) || children.get(1).evaluate(selected);
+                case "eq":
+                    return children.get(0).evaluate(selected) == children.get(1).evaluate(selected);
+                default:
+                    return count <= 1;
+            }
+        }
+
+        void writeXml(StringBuilder xml) {
+            if (op == null) {
+                xml.append("<var>F").append(var).append("</var>");
+                return;
+            }
+            xml.append('<').append(op).append('>');
+            for (Node child : children) {
+                child.writeXml(xml);
+            }
+            xml.append("</").append(op).append('>');
+        }
+    }
+}
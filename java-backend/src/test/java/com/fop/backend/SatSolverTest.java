@@ -0,0 +1,88 @@
+package com.fop.backend;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class SatSolverTest {
+
+    // Random 3-SAT near the threshold, one solver answering many assumption queries
+    @Test
+    void solveMatchesBruteForce() {
+        Random random = new Random(5);
+        for (int round = 0; round < 100; round++) {
+            int variables = 8 + random.nextInt(8);
+            int[][] clauses = new int[(int) (variables * (3.5 + random.nextDouble()))][];
+            SatSolver solver = new SatSolver(variables);
+            for (int c = 0; c < clauses.length; c++) {
+                clauses[c] = new int[3];
+                for (int k = 0; k < 3; k++) {
+                    clauses[c][k] = (random.nextInt(variables) + 1) * (random.nextBoolean() ? 1 : -1);
+                }
+                solver.addClause(clauses[c]);
+            }
+
+            for (int query = 0; query < 20; query++) {
+                int[] assumptions = new int[random.nextInt(4)];
+                for (int i = 0; i < assumptions.length; i++) {
+                    assumptions[i] = (random.nextInt(variables) + 1) * (random.nextBoolean() ? 1 : -1);
+                }
+                String context = "round " + round + ", query " + query;
+                boolean satisfiable = solver.solve(assumptions);
+                assertEquals(isSatisfiable(variables, clauses, assumptions), satisfiable, context);
+
+                if (satisfiable) {
+                    int bits = 0;
+                    for (int v = 1; v <= variables; v++) {
+                        if (solver.getModelValue(v)) {
+                            bits |= 1 << (v - 1);
+                        }
+                    }
+                    assertTrue(satisfies(bits, clauses) && satisfiesAll(bits, assumptions), context);
+                } else if (solver.isOk()) {
+                    // The conflict is a subset of the assumptions that is unsatisfiable on its own
+                    assertFalse(isSatisfiable(variables, clauses, solver.getConflict()), context);
+                }
+            }
+        }
+    }
+
+    private static boolean isSatisfiable(int variables, int[][] clauses, int[] assumptions) {
+        for (int bits = 0; bits < 1 << variables; bits++) {
+            if (satisfies(bits, clauses) && satisfiesAll(bits, assumptions)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean satisfies(int bits, int[][] clauses) {
+        for (int[] clause : clauses) {
+            boolean satisfied = false;
+            for (int literal : clause) {
+                satisfied |= isTrue(bits, literal);
+            }
+            if (!satisfied) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean satisfiesAll(int bits, int[] literals) {
+        for (int literal : literals) {
+            if (!isTrue(bits, literal)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isTrue(int bits, int literal) {
+        return ((bits >> (Math.abs(literal) - 1) & 1) != 0) == literal > 0;
+    }
+}
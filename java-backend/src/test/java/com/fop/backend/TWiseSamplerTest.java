@@ -0,0 +1,86 @@
+package com.fop.backend;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TWiseSamplerTest {
+
+    @TempDir
+    static Path folder;
+
+    @Test
+    void pairwiseSampleCoversEveryValidPair() throws Exception {
+        for (int seed = 0; seed < 40; seed++) {
+            RandomModel generated = RandomModel.generate(new Random(seed), 6 + seed % 7, seed % 5);
+            FeatureModel model = ModelRegistry.get(generated.write(folder, "pairwise" + seed).toString());
+            List<boolean[]> configurations = generated.configurations(model);
+            if (configurations.isEmpty()) {
+                continue;
+            }
+            TWiseSampler.Sample sample = TWiseSampler.sample(model, 2, 2);
+            String context = "seed " + seed;
+
+            for (boolean[] configuration : sample.getConfigurations()) {
+                assertTrue(contains(configurations, configuration), context + ", invalid " + Arrays.toString(configuration));
+            }
+
+            // Pairs of values of two different features that are neither core nor dead. With fewer than two
+            // such features the sampler lowers t and covers their single values instead.
+            List<int[]> interactions = new ArrayList<>();
+            List<Integer> open = new ArrayList<>();
+            for (int f = 0; f < model.size(); f++) {
+                boolean on = false;
+                boolean off = false;
+                for (boolean[] configuration : configurations) {
+                    on |= configuration[f];
+                    off |= !configuration[f];
+                }
+                assertEquals(!(on && off), sample.isFixed(f), context + ", feature " + f);
+                if (!sample.isFixed(f)) {
+                    open.add(f);
+                }
+            }
+            for (int i = 0; i < open.size(); i++) {
+                for (boolean value : new boolean[]{false, true}) {
+                    int literal = Cnf.literal(open.get(i), value);
+                    if (open.size() < 2) {
+                        interactions.add(new int[]{literal});
+                    }
+                    for (int j = i + 1; j < open.size(); j++) {
+                        interactions.add(new int[]{literal, Cnf.literal(open.get(j), false)});
+                        interactions.add(new int[]{literal, Cnf.literal(open.get(j), true)});
+                    }
+                }
+            }
+            long valid = 0;
+            for (int[] interaction : interactions) {
+                if (RandomModel.matching(configurations, interaction).isEmpty()) {
+                    continue;
+                }
+                valid++;
+                assertTrue(!RandomModel.matching(sample.getConfigurations(), interaction).isEmpty(),
+                        context + ", uncovered " + Arrays.toString(interaction));
+            }
+            assertEquals(valid, sample.getInteractions(), context);
+            assertEquals(valid, sample.getCovered(), context);
+        }
+    }
+
+    private static boolean contains(List<boolean[]> configurations, boolean[] selected) {
+        for (boolean[] configuration : configurations) {
+            if (Arrays.equals(configuration, selected)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
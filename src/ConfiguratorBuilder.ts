@@ -35,15 +35,19 @@ interface FeatureMetadata {
 export class ConfiguratorBuilder {
     private panel: vscode.WebviewPanel | undefined;
     private modelData: any;
+    private modelPath: string | undefined;
     private currentConfigPath: string | undefined;
     private extensionPath: string;
+    private javaBridge: any;
 
-    constructor(extensionPath: string) {
+    constructor(extensionPath: string, javaBridge: any) {
         this.extensionPath = extensionPath;
+        this.javaBridge = javaBridge;
     }
 
-    setModel(modelData: any): void {
+    setModel(modelData: any, modelPath?: string): void {
         this.modelData = modelData;
+        this.modelPath = modelPath;
     }
 
     async openConfig(configPath?: string): Promise<void> {
@@ -88,6 +92,12 @@ export class ConfiguratorBuilder {
                         case 'saveAs':
                             await this.saveConfigAs(message.features);
                             break;
+                        case 'count':
+                            await this.countConfigurations(message.requestId, message.selected, message.deselected);
+                            break;
+                        case 'check':
+                            await this.checkConfiguration(message.requestId, message.selected);
+                            break;
                     }
                 }
             );
@@ -97,6 +107,44 @@ export class ConfiguratorBuilder {
         this.panel.webview.html = this.getWebviewContent(selectedFeatures);
     }
 
+    private async countConfigurations(requestId: number, selected: string[], deselected: string[]): Promise<void> {
+        if (!this.panel) return;
+
+        let reply: any;
+        if (!this.modelPath) {
+            reply = { status: 'error', message: 'No model file loaded' };
+        } else {
+            try {
+                // The backend counts exactly (with cross-tree constraints) and keeps recent results
+                reply = await this.javaBridge.call([
+                    'countConfigurations', this.modelPath, JSON.stringify({ selected, deselected })
+                ]);
+            } catch (error) {
+                reply = { status: 'error', message: `${error}` };
+            }
+        }
+        this.panel?.webview.postMessage({ command: 'counts', requestId, result: reply });
+    }
+
+    private async checkConfiguration(requestId: number, selected: string[]): Promise<void> {
+        if (!this.panel) return;
+
+        let reply: any;
+        if (!this.modelPath) {
+            reply = { status: 'error', message: 'No model file loaded' };
+        } else {
+            try {
+                // The backend keeps one solver per model, so every click reuses what it learned before
+                reply = await this.javaBridge.call([
+                    'checkConfiguration', this.modelPath, JSON.stringify({ selected })
+                ]);
+            } catch (error) {
+                reply = { status: 'error', message: `${error}` };
+            }
+        }
+        this.panel?.webview.postMessage({ command: 'checked', requestId, result: reply });
+    }
+
     private async parseConfig(configPath: string): Promise<Map<string, FeatureSelection>> {
         const selectedFeatures = new Map<string, FeatureSelection>();
         
@@ -644,458 +692,113 @@ export class ConfiguratorBuilder {
             updateConfigurationCounts();
         }
         
-        function countConfigurationsForFeature(featureName, currentSelections) {
-            const metadata = featureMetadata[featureName];
-            if (!metadata) return 1;
-            
-            const state = currentSelections.get(featureName);
-            const isSelected = state && (state.manual || state.automatic) && !state.automaticUnselected;
-            const isExcluded = state && state.automaticUnselected;
-            
-            // If feature is excluded, it contributes 0 configurations
-            if (isExcluded) {
-                return 0;
-            }
-            
-            // Start with base count
-            let count = 1;
-            
-            // Handle children if this feature has any
-            if (metadata.children && metadata.children.length > 0) {
-                if (metadata.type === 'alt') {
-                    // ALT group: exactly one child must be selected
-                    let selectedChild = null;
-                    for (const childName of metadata.children) {
-                        const childState = currentSelections.get(childName);
-                        if (childState && (childState.manual || childState.automatic) && !childState.automaticUnselected) {
-                            selectedChild = childName;
-                            break;
-                        }
-                    }
-                    
-                    if (selectedChild) {
-                        // One child is selected, only count that branch
-                        count *= countConfigurationsForFeature(selectedChild, currentSelections);
-                    } else {
-                        // No child selected yet, sum all possible branches
-                        // For each branch, count as if it were selected (not optional)
-                        let altCount = 0;
-                        for (const childName of metadata.children) {
-                            const childState = currentSelections.get(childName);
-                            if (!childState || !childState.automaticUnselected) {
-                                // Create a temporary selection state with this child selected
-                                const tempSelections = new Map(currentSelections);
-                                tempSelections.set(childName, { manual: true, automatic: false, automaticUnselected: false });
-                                altCount += countConfigurationsForFeature(childName, tempSelections);
-                            }
-                        }
-                        count *= altCount;
-                    }
-                } else if (metadata.type === 'or') {
-                    // OR group: at least one child must be selected when parent is selected
-                    if (isSelected || metadata.mandatory) {
-                        // Parent is selected, process children
-                        let product = 1;
-                        let hasUnselectedChildren = false;
-                        for (const childName of metadata.children) {
-                            const childState = currentSelections.get(childName);
-                            const childSelected = childState && (childState.manual || childState.automatic) && !childState.automaticUnselected;
-                            const childExcluded = childState && childState.automaticUnselected;
-                            
-                            if (childExcluded) {
-                                // Excluded child doesn't contribute
-                                continue;
-                            } else if (childSelected) {
-                                // Child is selected, count its configurations (choice made)
-                                const childCount = countConfigurationsForFeature(childName, currentSelections);
-                                product *= childCount;
-                            } else {
-                                // Child not selected yet, can be selected or not
-                                hasUnselectedChildren = true;
-                                const childCount = countConfigurationsForFeature(childName, currentSelections);
-                                product *= (1 + childCount);
-                            }
-                        }
-                        // Subtract 1 to exclude the case where no children are selected (OR constraint)
-                        // But only if there are unselected children (possibilities remaining)
-                        if (hasUnselectedChildren) {
-                            count *= (product - 1);
-                        } else {
-                            count *= product;
-                        }
-                    } else {
-                        // Parent not selected, return count of configurations when parent IS selected
-                        // The parent will handle adding the "not selected" case
-                        let product = 1;
-                        for (const childName of metadata.children) {
-                            const childState = currentSelections.get(childName);
-                            if (!childState || !childState.automaticUnselected) {
-                                const childCount = countConfigurationsForFeature(childName, currentSelections);
-                                product *= (1 + childCount);
-                            }
-                        }
-                        count = product - 1; // At least one child must be selected (OR constraint)
-                    }
-                } else {
-                    // AND group: children are independent
-                    if (isSelected || metadata.mandatory) {
-                        // Parent is selected or mandatory, process children
-                        for (const childName of metadata.children) {
-                            const childMetadata = featureMetadata[childName];
-                            const childState = currentSelections.get(childName);
-                            const childSelected = childState && (childState.manual || childState.automatic) && !childState.automaticUnselected;
-                            const childExcluded = childState && childState.automaticUnselected;
-                            
-                            if (childExcluded) {
-                                // Excluded child doesn't contribute
-                                continue;
-                            } else if (childMetadata && childMetadata.mandatory) {
-                                // Mandatory child, always selected
-                                count *= countConfigurationsForFeature(childName, currentSelections);
-                            } else if (childSelected) {
-                                // Optional child is selected (choice made)
-                                const childCount = countConfigurationsForFeature(childName, currentSelections);
-                                count *= childCount;
-                            } else {
-                                // Optional child not selected yet (can be selected or not)
-                                const childCount = countConfigurationsForFeature(childName, currentSelections);
-                                count *= (1 + childCount);
-                            }
-                        }
-                    } else {
-                        // Parent is optional and not selected, return count of configurations when parent IS selected
-                        // The parent will handle adding the "not selected" case
-                        count = 1;
-                        for (const childName of metadata.children) {
-                            const childMetadata = featureMetadata[childName];
-                            const childState = currentSelections.get(childName);
-                            const childExcluded = childState && childState.automaticUnselected;
-                            
-                            if (childExcluded) {
-                                continue;
-                            } else if (childMetadata && childMetadata.mandatory) {
-                                // Mandatory child when parent is selected
-                                count *= countConfigurationsForFeature(childName, currentSelections);
-                            } else {
-                                // Optional child
-                                const childCount = countConfigurationsForFeature(childName, currentSelections);
-                                count *= (1 + childCount);
-                            }
-                        }
-                    }
-                }
-            } else {
-                // Leaf feature with no children
-                // Return 1 for the feature itself (parent will decide if it needs to account for selection choice)
-                // If selected or mandatory: count = 1 (already set)
-            }
-            
-            return count;
-        }
-        
-        function validateConfiguration() {
-            const errors = [];
-            
-            // Check all features for constraint violations
-            featureState.forEach((state, featureName) => {
-                const metadata = featureMetadata[featureName];
-                if (!metadata) return;
-                
-                const isSelected = (state.manual || state.automatic) && !state.automaticUnselected;
-                
-                // Check ALT groups: if parent is selected/mandatory, exactly one child must be selected
-                if (metadata.type === 'alt' && metadata.children && metadata.children.length > 0) {
-                    if (isSelected || metadata.mandatory) {
-                        let selectedCount = 0;
-                        metadata.children.forEach(childName => {
-                            const childState = featureState.get(childName);
-                            if (childState && (childState.manual || childState.automatic) && !childState.automaticUnselected) {
-                                selectedCount++;
-                            }
-                        });
-                        
-                        if (selectedCount === 0) {
-                            errors.push(featureName + ' (ALT group): exactly one child must be selected');
-                        } else if (selectedCount > 1) {
-                            errors.push(featureName + ' (ALT group): only one child can be selected, but ' + selectedCount + ' are selected');
-                        }
-                    }
-                }
-                
-                // Check OR groups: if parent is selected, at least one child must be selected
-                if (metadata.type === 'or' && metadata.children && metadata.children.length > 0) {
-                    if (isSelected) {
-                        let selectedCount = 0;
-                        metadata.children.forEach(childName => {
-                            const childState = featureState.get(childName);
-                            if (childState && (childState.manual || childState.automatic) && !childState.automaticUnselected) {
-                                selectedCount++;
-                            }
-                        });
-                        
-                        if (selectedCount === 0) {
-                            errors.push(featureName + ' (OR group): at least one child must be selected when parent is selected');
-                        }
-                    }
-                }
-                
-                // Check AND groups: if parent is selected, all mandatory children must be selected
-                if (metadata.type === 'and' && metadata.children && metadata.children.length > 0) {
-                    if (isSelected) {
-                        metadata.children.forEach(childName => {
-                            const childMetadata = featureMetadata[childName];
-                            const childState = featureState.get(childName);
-                            
-                            if (childMetadata && childMetadata.mandatory) {
-                                const childSelected = childState && (childState.manual || childState.automatic) && !childState.automaticUnselected;
-                                if (!childSelected) {
-                                    errors.push(childName + ' is mandatory but not selected (parent ' + featureName + ' is selected)');
-                                }
-                            }
-                        });
-                    }
-                }
-            });
-            
-            return {
-                isValid: errors.length === 0,
-                errors: errors
-            };
-        }
-        
-        function updateValidationStatus() {
-            const validation = validateConfiguration();
+        function setValidationStatus(kind, text, errors) {
             const statusElement = document.getElementById('validation-status');
             const iconElement = document.getElementById('validation-icon');
             const textElement = document.getElementById('validation-text');
             const errorsElement = document.getElementById('validation-errors');
             
-            if (validation.isValid) {
-                statusElement.className = 'validation-status valid';
-                iconElement.textContent = '✓';
-                textElement.textContent = 'Configuration is valid';
-                errorsElement.style.display = 'none';
-            } else {
-                statusElement.className = 'validation-status invalid';
-                iconElement.textContent = '✗';
-                textElement.textContent = 'Configuration is invalid';
+            statusElement.className = 'validation-status' + (kind ? ' ' + kind : '');
+            iconElement.textContent = kind === 'valid' ? '✓' : kind === 'invalid' ? '✗' : '⚠';
+            textElement.textContent = text;
+            if (errors.length > 0) {
                 errorsElement.style.display = 'block';
-                errorsElement.innerHTML = validation.errors.map(err => '<li>' + err + '</li>').join('');
+                errorsElement.innerHTML = errors.map(err => '<li>' + err + '</li>').join('');
+            } else {
+                errorsElement.style.display = 'none';
             }
-            
-            return validation.isValid;
         }
         
-        function updateConfigurationCounts() {
-            // Find root feature
-            let rootFeature = null;
-            for (const [name, metadata] of Object.entries(featureMetadata)) {
-                if (!metadata.parent) {
-                    rootFeature = name;
-                    break;
+        // The backend decides which features the manual selection forces on or off, with the tree
+        // semantics and the cross-tree constraints. Only the answer to the latest check is applied.
+        let checkRequest = 0;
+        
+        function checkConfiguration() {
+            const selected = [];
+            featureState.forEach((state, name) => {
+                if (state.manual) {
+                    selected.push(name);
                 }
-            }
+            });
             
-            if (rootFeature) {
-                // Check if configuration is valid
-                const isValid = updateValidationStatus();
-                
-                // Calculate possible configurations with current selections
-                // Only show count if configuration is valid
-                if (isValid) {
-                    const possibleConfigs = countConfigurationsForFeature(rootFeature, featureState);
-                    document.getElementById('possible-configs').textContent = possibleConfigs.toLocaleString();
-                } else {
-                    document.getElementById('possible-configs').textContent = '0';
-                }
-            }
+            checkRequest++;
+            vscode.postMessage({
+                command: 'check',
+                requestId: checkRequest,
+                selected: selected
+            });
         }
         
-        function selectParents(featureName) {
-            const metadata = featureMetadata[featureName];
-            if (!metadata || !metadata.parent) return;
+        function applyCheck(result) {
+            if (result.status !== 'ok') {
+                setValidationStatus('', 'Configuration could not be checked', [result.message || 'Unknown error']);
+                updateUI();
+                return;
+            }
             
-            const parentName = metadata.parent;
-            const parentState = featureState.get(parentName);
+            const forcedOn = new Set(result.selected);
+            const forcedOff = new Set(result.deselected);
+            featureState.forEach((state, name) => {
+                state.automatic = !state.manual && forcedOn.has(name);
+                state.automaticUnselected = forcedOff.has(name);
+            });
             
-            if (parentState) {
-                // Set automatic selection on parent
-                parentState.automatic = true;
-                parentState.automaticUnselected = false;
-                
-                // Recursively select parent's parents
-                selectParents(parentName);
+            if (!result.satisfiable) {
+                setValidationStatus('invalid', 'Configuration is invalid', [
+                    'These selections cannot hold together: ' + result.conflict.join(', ')
+                ]);
+            } else if (result.valid) {
+                setValidationStatus('valid', 'Configuration is valid', []);
+            } else {
+                setValidationStatus('', 'Configuration is incomplete', [
+                    'Select more features to satisfy the open groups and constraints'
+                ]);
             }
+            updateUI();
         }
         
-        function isParentNeededByChildren(parentName) {
-            const metadata = featureMetadata[parentName];
-            if (!metadata || !metadata.children) return false;
-            
-            // Check if any child is selected (manual or automatic, but not unselected)
-            for (const childName of metadata.children) {
-                const childState = featureState.get(childName);
-                if (childState && (childState.manual || childState.automatic) && !childState.automaticUnselected) {
-                    return true;
-                }
-                
-                // Recursively check if any descendant needs this parent
-                const childMetadata = featureMetadata[childName];
-                if (childMetadata && childMetadata.children && childMetadata.children.length > 0) {
-                    if (isParentNeededByChildren(childName)) {
-                        return true;
-                    }
-                }
-            }
-            
-            return false;
-        }
+        // Counting happens in the backend, only the answer to the latest request is shown
+        let countRequest = 0;
         
-        function cleanupParentAutomatic(featureName) {
-            const metadata = featureMetadata[featureName];
-            if (!metadata || !metadata.parent) return;
-            
-            const parentName = metadata.parent;
-            const parentState = featureState.get(parentName);
-            const parentMetadata = featureMetadata[parentName];
-            
-            if (parentState && parentMetadata) {
-                // Check if parent is mandatory - if so, keep automatic
-                if (parentMetadata.mandatory) {
-                    return;
-                }
-                
-                // Check if any children still need this parent
-                if (!isParentNeededByChildren(parentName)) {
-                    // No children need it, remove automatic (but keep manual if set)
-                    parentState.automatic = false;
-                    
-                    // Recursively clean up parent's parents
-                    cleanupParentAutomatic(parentName);
+        function updateConfigurationCounts() {
+            const selected = [];
+            const deselected = [];
+            featureState.forEach((state, name) => {
+                if (state.automaticUnselected) {
+                    deselected.push(name);
+                } else if (state.manual || state.automatic) {
+                    selected.push(name);
                 }
-            }
-        }
-        
-        // Recursively mark a feature and all its descendants as automaticUnselected
-        function markDescendantsAsUnselected(featureName) {
-            const metadata = featureMetadata[featureName];
-            if (!metadata) return;
-            
-            const state = featureState.get(featureName);
-            if (state) {
-                state.automaticUnselected = true;
-                state.automatic = false;
-            }
+            });
             
-            // Recursively mark all descendants
-            if (metadata.children && metadata.children.length > 0) {
-                metadata.children.forEach(childName => {
-                    markDescendantsAsUnselected(childName);
-                });
-            }
+            countRequest++;
+            vscode.postMessage({
+                command: 'count',
+                requestId: countRequest,
+                selected: selected,
+                deselected: deselected
+            });
         }
         
-        // Recursively unmark a feature and all its descendants from automaticUnselected
-        function unmarkDescendantsAsUnselected(featureName) {
-            const metadata = featureMetadata[featureName];
-            if (!metadata) return;
-            
-            const state = featureState.get(featureName);
-            if (state) {
-                state.automaticUnselected = false;
-            }
-            
-            // Recursively unmark all descendants
-            if (metadata.children && metadata.children.length > 0) {
-                metadata.children.forEach(childName => {
-                    unmarkDescendantsAsUnselected(childName);
-                });
+        function showCounts(result) {
+            const element = document.getElementById('possible-configs');
+            if (result.status === 'ok') {
+                // Counts arrive as strings, BigInt keeps them exact
+                element.textContent = BigInt(result.count).toLocaleString();
+            } else {
+                element.textContent = '-';
+                element.title = result.message || '';
             }
         }
         
-        // Comprehensive constraint evaluation - checks all XOR/ALT, OR, and AND groups in the entire tree
-        function evaluateAllConstraints() {
-            // Iterate through all features and check if they are part of a constraint group
-            featureState.forEach((state, featureName) => {
-                const metadata = featureMetadata[featureName];
-                if (!metadata) return;
-                
-                // Check if this feature is an XOR/ALT parent
-                if (metadata.type === 'alt' && metadata.children && metadata.children.length > 0) {
-                    // Find which child (if any) is selected
-                    let selectedChild = null;
-                    
-                    metadata.children.forEach(childName => {
-                        const childState = featureState.get(childName);
-                        if (childState && (childState.manual || childState.automatic) && !childState.automaticUnselected) {
-                            selectedChild = childName;
-                        }
-                    });
-                    
-                    // Apply constraints based on selection
-                    if (selectedChild) {
-                        // One child is selected, mark all siblings and their descendants as unselected
-                        metadata.children.forEach(siblingName => {
-                            if (siblingName !== selectedChild) {
-                                markDescendantsAsUnselected(siblingName);
-                            }
-                        });
-                    } else {
-                        // No child is selected, unmark all siblings and their descendants
-                        metadata.children.forEach(siblingName => {
-                            unmarkDescendantsAsUnselected(siblingName);
-                        });
-                    }
-                }
-                
-                // Check if this feature is an OR parent
-                if (metadata.type === 'or' && metadata.children && metadata.children.length > 0) {
-                    // Check if the OR parent itself is selected
-                    const parentState = featureState.get(featureName);
-                    const isParentSelected = parentState && (parentState.manual || parentState.automatic) && !parentState.automaticUnselected;
-                    
-                    if (isParentSelected) {
-                        // Count how many children are selected
-                        let selectedCount = 0;
-                        metadata.children.forEach(childName => {
-                            const childState = featureState.get(childName);
-                            if (childState && (childState.manual || childState.automatic) && !childState.automaticUnselected) {
-                                selectedCount++;
-                            }
-                        });
-                        
-                        // If no children are selected, we need at least one
-                        // For now, we don't auto-select a child, but this could be enhanced
-                        // The user will need to manually select at least one child
-                    }
-                    // Note: OR groups don't exclude siblings like ALT does
-                    // Multiple children can be selected simultaneously
-                }
-                
-                // Check if this feature is an AND parent
-                if (metadata.type === 'and' && metadata.children && metadata.children.length > 0) {
-                    // Check if the AND parent itself is selected
-                    const parentState = featureState.get(featureName);
-                    const isParentSelected = parentState && (parentState.manual || parentState.automatic) && !parentState.automaticUnselected;
-                    
-                    if (isParentSelected) {
-                        // Auto-select all mandatory children
-                        metadata.children.forEach(childName => {
-                            const childMetadata = featureMetadata[childName];
-                            const childState = featureState.get(childName);
-                            
-                            if (childMetadata && childMetadata.mandatory && childState) {
-                                // Mandatory child must be selected when parent is selected
-                                childState.automatic = true;
-                                childState.automaticUnselected = false;
-                            }
-                        });
-                    }
-                    // Note: AND groups allow all children to be selected independently
-                    // No mutual exclusion between children
-                }
-            });
-        }
+        window.addEventListener('message', event => {
+            const message = event.data;
+            if (message.command === 'checked' && message.requestId === checkRequest) {
+                applyCheck(message.result);
+            } else if (message.command === 'counts' && message.requestId === countRequest) {
+                showCounts(message.result);
+            }
+        });
         
         function onFeatureToggle(checkbox) {
             const item = checkbox.closest('.feature-item');
@@ -1107,75 +810,19 @@ export class ConfiguratorBuilder {
                 return;
             }
             
-            if (checkbox.checked) {
-                // User is selecting the feature
-                state.manual = true;
-                state.automaticUnselected = false;
-                
-                // Select all parents with automatic
-                selectParents(featureName);
-            } else {
-                // User is deselecting the feature
-                
-                const metadata = featureMetadata[featureName];
-                if (metadata && metadata.parent) {
-                    const parentMetadata = featureMetadata[metadata.parent];
-                    const parentState = featureState.get(metadata.parent);
-                    
-                    // Check if this is a mandatory child of an AND group
-                    if (parentMetadata && parentMetadata.type === 'and' && metadata.mandatory &&
-                        parentState && (parentState.manual || parentState.automatic) && !parentState.automaticUnselected) {
-                        
-                        // Prevent deselection of mandatory children when AND parent is selected
-                        checkbox.checked = true;
-                        alert('Cannot deselect: This is a mandatory feature in an AND group and its parent is selected.');
-                        return;
-                    }
-                    
-                    // Check if parent is an OR group and is selected
-                    if (parentMetadata && parentMetadata.type === 'or' && 
-                        parentState && (parentState.manual || parentState.automatic) && !parentState.automaticUnselected) {
-                        
-                        // Count how many siblings (including this feature) are currently selected
-                        let selectedSiblings = 0;
-                        parentMetadata.children.forEach(siblingName => {
-                            const siblingState = featureState.get(siblingName);
-                            if (siblingState && (siblingState.manual || siblingState.automatic) && !siblingState.automaticUnselected) {
-                                selectedSiblings++;
-                            }
-                        });
-                        
-                        // If this is the last selected child
-                        if (selectedSiblings === 1) {
-                            // If parent is mandatory, prevent deselection
-                            if (parentMetadata.mandatory) {
-                                checkbox.checked = true;
-                                alert('Cannot deselect: At least one child must be selected in an OR group when the parent is mandatory and selected.');
-                                return;
-                            } else {
-                                // Parent is optional, allow deselection
-                                // Only clear automatic flag, preserve manual flag if user manually selected parent
-                                parentState.automatic = false;
-                            }
-                        }
-                    }
-                }
-                
-                state.manual = false;
-                
-                // Clean up parent automatic attributes if they're no longer needed
-                cleanupParentAutomatic(featureName);
+            // A feature the other selections force on stays selected
+            if (!checkbox.checked && state.automatic) {
+                checkbox.checked = true;
+                return;
             }
             
-            // Comprehensively evaluate all constraints after any state change
-            evaluateAllConstraints();
-            
-            updateUI();
+            state.manual = checkbox.checked;
+            checkConfiguration();
         }
         
         // Initialize
         initializeState();
-        updateUI();
+        checkConfiguration();
     </script>
 </body>
 </html>`;
@@ -12,7 +12,8 @@ export class FeatureItem extends vscode.TreeItem {
     constructor(
         public readonly label: string,
         public readonly collapsibleState: vscode.TreeItemCollapsibleState,
-        public readonly featureData: FeatureData
+        public readonly featureData: FeatureData,
+        public readonly anomaly?: string
     ) {
         super(label, collapsibleState);
         
@@ -28,6 +29,10 @@ export class FeatureItem extends vscode.TreeItem {
         }
         
         // Show feature composition type
+        if (anomaly) {
+            tags.push(anomaly);
+        }
+
         if (featureData.type === 'or') {
             tags.push('OR');
         } else if (featureData.type === 'alt') {
@@ -40,8 +45,10 @@ export class FeatureItem extends vscode.TreeItem {
             this.description = tags.join(', ');
         }
         
-        // Set icon based on feature type
-        if (featureData.abstract) {
+        // Set icon based on feature type, dead and false-optional features get a warning instead
+        if (anomaly === 'dead' || anomaly === 'false-optional') {
+            this.iconPath = new vscode.ThemeIcon('warning', new vscode.ThemeColor('problemsWarningIcon.foreground'));
+        } else if (featureData.abstract) {
             this.iconPath = new vscode.ThemeIcon('symbol-interface');
         } else if (featureData.type === 'or') {
             this.iconPath = new vscode.ThemeIcon('symbol-enum');
@@ -63,6 +70,14 @@ export class FeatureItem extends vscode.TreeItem {
             `Abstract: ${this.featureData.abstract ? 'Yes' : 'No'}`
         ];
         
+        if (this.anomaly === 'dead') {
+            lines.push('Dead: in no valid configuration');
+        } else if (this.anomaly === 'core') {
+            lines.push('Core: in every valid configuration');
+        } else if (this.anomaly === 'false-optional') {
+            lines.push('False-optional: selected whenever its parent is');
+        }
+
         if (this.featureData.children && this.featureData.children.length > 0) {
             lines.push(`Children: ${this.featureData.children.length}`);
         }
@@ -11,6 +11,8 @@ interface FeatureNode {
 
 export class FeatureTreeProvider implements vscode.TreeDataProvider<FeatureItem> {
     private model: any = null;
+    // Feature name to 'dead', 'core' or 'false-optional', from the backend's analyzeModel
+    private anomalies = new Map<string, string>();
     private _onDidChangeTreeData: vscode.EventEmitter<FeatureItem | undefined | null | void> = new vscode.EventEmitter<FeatureItem | undefined | null | void>();
     readonly onDidChangeTreeData: vscode.Event<FeatureItem | undefined | null | void> = this._onDidChangeTreeData.event;
 
@@ -18,6 +20,15 @@ export class FeatureTreeProvider implements vscode.TreeDataProvider<FeatureItem>
 
     setModel(modelData: any): void {
         this.model = modelData;
+        this.anomalies.clear();
+        this._onDidChangeTreeData.fire(undefined);
+    }
+
+    setAnalysis(analysis: any): void {
+        this.anomalies.clear();
+        (analysis.dead || []).forEach((name: string) => this.anomalies.set(name, 'dead'));
+        (analysis.core || []).forEach((name: string) => this.anomalies.set(name, 'core'));
+        (analysis.falseOptional || []).forEach((name: string) => this.anomalies.set(name, 'false-optional'));
         this._onDidChangeTreeData.fire(undefined);
     }
 
@@ -54,12 +65,14 @@ export class FeatureTreeProvider implements vscode.TreeDataProvider<FeatureItem>
         return new FeatureItem(
             feature.name,
             collapsibleState,
-            feature
+            feature,
+            this.anomalies.get(feature.name)
         );
     }
 
     refreshWithModel(model: string) {
         this.model = JSON.parse(model);
+        this.anomalies.clear();
         this._onDidChangeTreeData.fire(undefined);
     }
 }
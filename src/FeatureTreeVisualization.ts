@@ -76,11 +76,28 @@ export class FeatureTreeVisualization {
         if (!this.model || !this.modelPath) return;
 
         try {
+            const node = this.getNodeAtPath(this.model.root, nodePath);
+            if (!node) {
+                throw new Error('Could not find feature');
+            }
+
+            // Only send what actually changed
+            const path = this.getNamePath(nodePath);
+            const edits: any[] = [];
+            for (const attribute of ['type', 'mandatory', 'abstract']) {
+                if (updates[attribute] !== undefined && updates[attribute] !== node[attribute]) {
+                    edits.push({ op: 'set', path, attribute, value: updates[attribute] });
+                }
+            }
+            if (updates.name !== undefined && updates.name !== node.name) {
+                edits.push({ op: 'rename', path, name: updates.name });
+            }
+
             // Update the node in memory
             this.updateNodeAtPath(this.model.root, nodePath, updates);
             
             // Save to file
-            await this.saveModelToFile();
+            await this.applyEdits(edits);
             
             vscode.window.showInformationMessage('Feature updated and saved');
         } catch (error) {
@@ -103,22 +120,28 @@ export class FeatureTreeVisualization {
                     parent.children = [];
                 }
                 
+                const path = this.getNamePath(parentPath);
+                const edits: any[] = [];
+
                 // Auto-update parent type from 'feature' to 'and' if it was a leaf node
                 if (shouldUpdateParentType) {
                     parent.type = 'and';
+                    edits.push({ op: 'set', path, attribute: 'type', value: 'and' });
                     console.log(`[FOP] Auto-updated parent "${parent.name}" type from 'feature' to 'and'`);
                 }
                 
-                parent.children.push({
+                const child: FeatureNode = {
                     name: childData.name,
                     type: 'feature',
                     mandatory: childData.mandatory || false,
                     abstract: childData.abstract || false,
                     children: []
-                });
+                };
+                parent.children.push(child);
+                edits.push({ op: 'add', path, feature: { name: child.name, type: child.type, mandatory: child.mandatory, abstract: child.abstract } });
 
-                // Save to file using the proper save method
-                await this.saveModelToFile();
+                // Save to file
+                await this.applyEdits(edits);
                 
                 vscode.window.showInformationMessage('Child feature added and saved');
             }
@@ -175,18 +198,20 @@ export class FeatureTreeVisualization {
                 const removedNode = parent.children[childIndex];
                 console.log('[FOP] Removing node:', removedNode.name);
                 
+                const edits: any[] = [{ op: 'remove', path: this.getNamePath(nodePath) }];
                 parent.children.splice(childIndex, 1);
 
                 // If parent now has no children and is not a simple feature, convert it to leaf
                 if (parent.children.length === 0 && ['and', 'or', 'alt'].includes(parent.type)) {
                     const oldType = parent.type;
                     parent.type = 'feature';
+                    edits.push({ op: 'set', path: this.getNamePath(parentPath), attribute: 'type', value: 'feature' });
                     console.log(`[FOP] Auto-updated parent "${parent.name}" type from '${oldType}' to 'feature' (now a leaf)`);
                 }
 
                 // Save to file
-                console.log('[FOP] Saving model to file...');
-                await this.saveModelToFile();
+                console.log('[FOP] Saving model edits...');
+                await this.applyEdits(edits);
 
                 vscode.window.showInformationMessage(`Node "${removedNode.name}" removed successfully`);
                 console.log('[FOP] Node removed successfully');
@@ -200,21 +225,40 @@ export class FeatureTreeVisualization {
         }
     }
 
-    private async saveModelToFile() {
+    // Names from the root down to the node at the given index path, the way the backend addresses features
+    private getNamePath(nodePath: number[]): string[] {
+        const names: string[] = [this.model.root.name];
+        let node = this.model.root;
+        for (const index of nodePath) {
+            node = node.children[index];
+            names.push(node.name);
+        }
+        return names;
+    }
+
+    private async applyEdits(edits: any[]) {
         if (!this.model || !this.modelPath) return;
 
-        // Convert the model back to XML and save
-        const result = await this.javaBridge.call(['saveModel', this.modelPath, JSON.stringify(this.model.root)]);
-        const saveResult = JSON.parse(result);
-        
-        if (saveResult.status !== 'ok') {
-            throw new Error(saveResult.message || 'Failed to save model');
+        // The backend applies the edits to its copy of the model and writes the file, the in-memory
+        // model here already has them, so there is no need to reload the whole model
+        const editResult = edits.length === 0
+            ? { status: 'ok' }
+            : await this.javaBridge.call(['applyModelEdits', this.modelPath, JSON.stringify(edits)]);
+
+        if (editResult.status !== 'ok') {
+            // Get back in sync with whatever the backend did apply
+            this.model = await this.javaBridge.loadModel(this.modelPath);
+            this.updateWebview();
+            throw new Error(editResult.message || 'Failed to save model');
         }
-        
-        // Reload the model to keep in sync
-        const reloadedModel = await this.javaBridge.loadModel(this.modelPath);
-        this.model = reloadedModel;
-        
+
+        // Removing features also removes the constraints naming them, the local copy still has them
+        const removedConstraints: any[] = editResult.removedConstraints || [];
+        if (removedConstraints.length > 0) {
+            this.model = await this.javaBridge.loadModel(this.modelPath);
+            vscode.window.showInformationMessage(`Removed ${removedConstraints.length} constraint(s) naming the removed features.`);
+        }
+
         // Update webview
         this.updateWebview();
     }
@@ -1,12 +1,68 @@
-import { spawn } from "child_process";
+import { spawn, ChildProcess } from "child_process";
 import * as fs from "fs";
 
+interface PendingCall {
+    args: string[];
+    resolve: (result: any) => void;
+    reject: (error: Error) => void;
+    onEvent?: (event: any) => void;
+}
+
+// Structurally compatible with vscode.CancellationToken
+export interface CancellationSignal {
+    isCancellationRequested: boolean;
+    onCancellationRequested(listener: () => any): any;
+}
+
 export class JavaBridge {
+    private daemon: ChildProcess | undefined;
+    // Set when the daemon could not be started at all, every call then runs as a one-shot process
+    private daemonUnavailable = false;
+    private pending = new Map<number, PendingCall>();
+    private nextId = 1;
+    private stdoutBuffer = "";
+
     constructor(private jarPath: string) {
         console.log(`[JavaBridge] Initialized with jar path: ${jarPath}`);
     }
 
-    call(args: string[]): Promise<string> {
+    // Resolves with the command's result: its JSON already parsed, or the plain text of commands that
+    // answer with text
+    call(args: string[], cancellation?: CancellationSignal, onEvent?: (event: any) => void): Promise<any> {
+        // Check if jar exists
+        if (!fs.existsSync(this.jarPath)) {
+            return Promise.reject(new Error(`JAR file not found: ${this.jarPath}. Run 'cd java-backend && gradlew build' to build it.`));
+        }
+
+        const daemon = this.ensureDaemon();
+        if (!daemon) {
+            // One-shot processes cannot stream events back, ask for the plain result instead
+            return this.callOnce(args.filter(arg => arg !== "--events"));
+        }
+
+        return new Promise((resolve, reject) => {
+            const id = this.nextId++;
+            this.pending.set(id, { args, resolve, reject, onEvent });
+            console.log(`[JavaBridge] Request ${id}: ${args[0]}`);
+            daemon.stdin!.write(JSON.stringify({ id, command: args[0], args: args.slice(1) }) + "\n");
+
+            if (cancellation) {
+                const sendCancel = () => {
+                    if (this.pending.has(id) && this.daemon === daemon) {
+                        daemon.stdin!.write(JSON.stringify({ id: this.nextId++, command: "cancel", target: id }) + "\n");
+                    }
+                };
+                if (cancellation.isCancellationRequested) {
+                    sendCancel();
+                } else {
+                    cancellation.onCancellationRequested(sendCancel);
+                }
+            }
+        });
+    }
+
+    // Spawns a fresh JVM for a single command, used when the backend daemon cannot be started
+    callOnce(args: string[]): Promise<any> {
         return new Promise((resolve, reject) => {
             // Check if jar exists
             if (!fs.existsSync(this.jarPath)) {
@@ -19,13 +75,13 @@ export class JavaBridge {
 
             let output = "";
             let errorOutput = "";
-            
+
             proc.stdout.on("data", (d: any) => {
                 const text = d.toString();
                 output += text;
                 console.log(`[JAVA stdout] ${text}`);
             });
-            
+
             proc.stderr.on("data", (d: any) => {
                 const text = d.toString();
                 errorOutput += text;
@@ -36,36 +92,176 @@ export class JavaBridge {
                 console.error(`[JavaBridge] Process error:`, err);
                 reject(err);
             });
-            
+
             proc.on("close", (code) => {
                 console.log(`[JavaBridge] Process exited with code ${code}`);
                 if (code !== 0) {
                     reject(new Error(`Java process exited with code ${code}. Error: ${errorOutput}`));
                 } else {
-                    resolve(output.trim());
+                    resolve(parseResult(output.trim()));
                 }
             });
         });
     }
 
+    private ensureDaemon(): ChildProcess | undefined {
+        if (this.daemon) {
+            return this.daemon;
+        }
+        if (this.daemonUnavailable) {
+            return undefined;
+        }
+
+        // Compositions run in worker JVMs, started on the first build: in-process FeatureHouse cannot be
+        // interrupted, so only then does cancelling a build actually stop it
+        const daemonArgs = ["-Dfop.composer=worker", "-jar", this.jarPath, "serve"];
+        console.log(`[JavaBridge] Starting backend daemon: java ${daemonArgs.join(' ')}`);
+        let proc: ChildProcess;
+        try {
+            proc = spawn("java", daemonArgs);
+        } catch (err) {
+            // Only invalid arguments throw here
+            console.error(`[JavaBridge] Could not start backend daemon:`, err);
+            this.daemonUnavailable = true;
+            return undefined;
+        }
+
+        // spawn() reports a missing java or a broken jar asynchronously, through 'error' or an exit
+        // before the daemon ever answered, so that is where the one-shot fallback starts
+        let answered = false;
+        proc.stdout!.on("data", (d: any) => {
+            answered = true;
+            this.onDaemonData(d.toString());
+        });
+
+        proc.stderr!.on("data", (d: any) => {
+            console.error(`[JAVA stderr] ${d.toString()}`);
+        });
+
+        // Writes to a daemon that never started fail with EPIPE, onGone handles the requests
+        proc.stdin!.on("error", (err) => console.error(`[JavaBridge] Backend daemon stdin:`, err.message));
+
+        const onGone = (reason: string) => {
+            if (this.daemon !== proc) return;
+            console.log(`[JavaBridge] Backend daemon stopped: ${reason}`);
+            this.daemon = undefined;
+            this.stdoutBuffer = "";
+            const failed = Array.from(this.pending.values());
+            this.pending.clear();
+            if (!answered) {
+                console.error(`[JavaBridge] Backend daemon unavailable, running commands one at a time`);
+                this.daemonUnavailable = true;
+                failed.forEach(p => this.callOnce(p.args.filter(arg => arg !== "--events")).then(p.resolve, p.reject));
+                return;
+            }
+            failed.forEach(p => p.reject(new Error(`Java backend stopped: ${reason}`)));
+        };
+
+        proc.on("error", (err) => onGone(err.message));
+        proc.on("close", (code) => onGone(`exit code ${code}`));
+
+        this.daemon = proc;
+        return proc;
+    }
+
+    private onDaemonData(text: string) {
+        this.stdoutBuffer += text;
+        let newline: number;
+        while ((newline = this.stdoutBuffer.indexOf("\n")) >= 0) {
+            const line = this.stdoutBuffer.slice(0, newline).trim();
+            this.stdoutBuffer = this.stdoutBuffer.slice(newline + 1);
+            if (line.length > 0) {
+                this.onDaemonMessage(line);
+            }
+        }
+    }
+
+    private onDaemonMessage(line: string) {
+        let message: any;
+        try {
+            message = JSON.parse(line);
+        } catch (error) {
+            console.error(`[JavaBridge] Unparseable daemon output: ${line}`);
+            this.rejectUnparseable(line);
+            return;
+        }
+
+        const pending = this.pending.get(message.id);
+        if (!pending) {
+            // Replies to our own cancel messages are not tracked
+            if (message.status === "ok") return;
+            console.warn(`[JavaBridge] Response for unknown request ${message.id}`);
+            return;
+        }
+
+        // Progress events stream in ahead of the final response
+        if (message.event !== undefined) {
+            pending.onEvent?.(message);
+            return;
+        }
+        this.pending.delete(message.id);
+
+        if (message.status === "ok") {
+            pending.resolve(message.result);
+        } else if (message.status === "cancelled") {
+            pending.reject(new Error("Request was cancelled"));
+        } else {
+            pending.reject(new Error(message.message || "Java backend request failed"));
+        }
+    }
+
+    // A broken line would otherwise leave its request waiting forever. Every line starts with the id,
+    // so that request fails; when not even the id can be read, every pending request does.
+    private rejectUnparseable(line: string) {
+        const error = new Error("Java backend sent a malformed response");
+        const match = /^\{"id":(-?\d+|"(?:[^"\\]|\\.)*")/.exec(line);
+        if (match) {
+            const id = JSON.parse(match[1]);
+            const pending = this.pending.get(id);
+            if (pending) {
+                this.pending.delete(id);
+                pending.reject(error);
+            }
+            return;
+        }
+        const failed = Array.from(this.pending.values());
+        this.pending.clear();
+        failed.forEach(p => p.reject(error));
+    }
+
+    dispose() {
+        if (this.daemon) {
+            this.daemon.stdin!.write(JSON.stringify({ id: 0, command: "shutdown" }) + "\n");
+            this.daemon.stdin!.end();
+            this.daemon = undefined;
+        }
+    }
+
     async loadModel(modelPath: string): Promise<any> {
         console.log(`[JavaBridge] Loading model from: ${modelPath}`);
-        
+
         if (!fs.existsSync(modelPath)) {
             throw new Error(`Model file not found: ${modelPath}`);
         }
-        
+
         const result = await this.call(["loadModel", modelPath]);
-        
-        if (!result || result.trim().length === 0) {
-            throw new Error("Java backend returned empty response");
+
+        if (!result || typeof result !== "object") {
+            console.error(`[JavaBridge] Unexpected loadModel output: ${result}`);
+            throw new Error(`Failed to parse model data. Raw output: ${result}`);
         }
-        
+        return result;
+    }
+}
+
+// One-shot output is parsed the way the daemon sends results: JSON when it is JSON, text otherwise
+function parseResult(output: string): any {
+    if (output.startsWith("{") || output.startsWith("[")) {
         try {
-            return JSON.parse(result);
+            return JSON.parse(output);
         } catch (error) {
-            console.error(`[JavaBridge] Failed to parse JSON. Raw output: ${result}`);
-            throw new Error(`Failed to parse model data: ${error}. Raw output: ${result}`);
+            console.error(`[JavaBridge] Failed to parse JSON output: ${error}`);
         }
     }
+    return output;
 }
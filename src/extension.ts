@@ -32,6 +32,7 @@ export async function activate(context: vscode.ExtensionContext) {
     const javaBridge = new JavaBridge(
         path.join(context.extensionPath, "java-backend", "build", "libs", "backend-1.0.0.jar")
     );
+    context.subscriptions.push({ dispose: () => javaBridge.dispose() });
 
     //  Tree provider 
     const featureTreeProvider = new FeatureTreeProvider();
@@ -41,7 +42,29 @@ export async function activate(context: vscode.ExtensionContext) {
     const treeVisualization = new FeatureTreeVisualization(context.extensionPath, javaBridge);
     
     //  Configurator builder
-    const configuratorBuilder = new ConfiguratorBuilder(context.extensionPath);
+    const configuratorBuilder = new ConfiguratorBuilder(context.extensionPath, javaBridge);
+
+    // Marks dead, core and false-optional features in the tree once the analysis is in. The backend
+    // caches it per model content, so reloading an unchanged model answers right away.
+    async function analyzeModel(modelPath: string) {
+        try {
+            const analysis = await javaBridge.call(['analyzeModel', modelPath]);
+            if (analysis.status === 'ok' && modelPath === currentModelPath) {
+                featureTreeProvider.setAnalysis(analysis);
+            }
+        } catch (error) {
+            console.error("[FOP] Model analysis failed:", error);
+        }
+    }
+
+    // Constraints naming features the tree no longer has are kept by the backend but cannot be used
+    function reportConstraintErrors(modelData: any) {
+        const errors: { constraint: number; message: string }[] = modelData.constraintErrors || [];
+        if (errors.length > 0) {
+            const details = errors.map(e => `constraint ${e.constraint + 1}: ${e.message}`).join('; ');
+            vscode.window.showWarningMessage(`The model has ${errors.length} invalid constraint(s), analyses are off until they are fixed: ${details}`);
+        }
+    }
 
     // Helper function to detect and load FOP model
     async function detectAndLoadModel(): Promise<boolean> {
@@ -67,8 +90,10 @@ export async function activate(context: vscode.ExtensionContext) {
             if (modelData.status === "ok") {
                 currentModelPath = modelPath;
                 featureTreeProvider.setModel(modelData);
+                reportConstraintErrors(modelData);
+                analyzeModel(modelPath);
                 treeVisualization.setModel(modelData, modelPath);
-                configuratorBuilder.setModel(modelData);
+                configuratorBuilder.setModel(modelData, modelPath);
                 treeVisualization.show();
                 vscode.window.showInformationMessage(`FOP model loaded from ${path.basename(path.dirname(modelPath))}`);
                 return true;
@@ -132,8 +157,10 @@ export async function activate(context: vscode.ExtensionContext) {
             if (modelData.status === "ok") {
                 currentModelPath = file[0].fsPath;
                 featureTreeProvider.setModel(modelData);
+                reportConstraintErrors(modelData);
+                analyzeModel(file[0].fsPath);
                 treeVisualization.setModel(modelData, file[0].fsPath);
-                configuratorBuilder.setModel(modelData);
+                configuratorBuilder.setModel(modelData, file[0].fsPath);
                 vscode.window.showInformationMessage("Model loaded successfully.");
             } else {
                 vscode.window.showErrorMessage(`Failed to load model: ${modelData.message}`);
@@ -150,8 +177,10 @@ export async function activate(context: vscode.ExtensionContext) {
 
                 if (modelData.status === "ok") {
                     featureTreeProvider.setModel(modelData);
+                    reportConstraintErrors(modelData);
+                    analyzeModel(currentModelPath);
                     treeVisualization.setModel(modelData, currentModelPath);
-                    configuratorBuilder.setModel(modelData);
+                    configuratorBuilder.setModel(modelData, currentModelPath);
                     vscode.window.showInformationMessage("Model reloaded successfully.");
                 } else {
                     vscode.window.showErrorMessage(`Failed to reload model: ${modelData.message}`);
@@ -268,9 +297,30 @@ export async function activate(context: vscode.ExtensionContext) {
 
         try {
             console.log(`building with config: ${selectedConfigPath}\nfeature folder: ${featureFolder}\noutputFolder: ${outputFolder}`);
-            const result = await javaBridge.call(["buildVariant", selectedConfigPath, featureFolder, outputFolder]);
             vscode.window.showInformationMessage(`Building:\n${selectedConfigPath}`);
-            vscode.window.showInformationMessage(result);
+            const result = await vscode.window.withProgress({
+                location: vscode.ProgressLocation.Notification,
+                title: `Building ${path.basename(selectedConfigPath)}`,
+                cancellable: true
+            }, (progress, token) => javaBridge.call(
+                ["buildVariant", selectedConfigPath!, featureFolder!, outputFolder!, "--events"],
+                token,
+                (event) => {
+                    if (event.event === "phaseStarted") {
+                        progress.report({ message: event.phase });
+                    } else if (event.event === "summary") {
+                        console.log(`[FOP] Build wrote ${event.filesWritten} file(s) in ${event.millis} ms`);
+                    }
+                }
+            ));
+            if (result.status === "ok") {
+                const changes = result.changes;
+                vscode.window.showInformationMessage(changes
+                    ? `${result.message}: ${changes.added.length} added, ${changes.changed.length} changed, ${changes.removed.length} removed`
+                    : result.message);
+            } else {
+                vscode.window.showErrorMessage(`Error building variant: ${result.message}`);
+            }
         } catch (error) {
             vscode.window.showErrorMessage(`Error building variant: ${error}`);
         }